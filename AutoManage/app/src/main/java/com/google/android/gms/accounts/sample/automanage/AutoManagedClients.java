@@ -0,0 +1,282 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.automanage;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v4.app.FragmentActivity;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.GoogleApiClient.ConnectionCallbacks;
+import com.google.android.gms.common.api.GoogleApiClient.OnConnectionFailedListener;
+
+import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+
+/**
+ * Auto-managed GoogleApiClients of one FragmentActivity, one per feature or group of APIs.
+ *
+ * {@code enableAutoManage} identifies each client of an Activity by its googleApiClientId, so
+ * the registry hands out a free ID for every client registered and takes it back when the client
+ * is unregistered. The auto manager connects every client as the Activity starts and
+ * disconnects them as it stops, all at the same time, and resolves their errors one after
+ * another. Errors it could not resolve go to one shared listener.
+ *
+ * Because the clients connect in parallel, a screen using several independent APIs waits for
+ * the slowest of them rather than for all of them in turn. The registry times every round of
+ * connects and logs the time it took next to the sum of the individual connect times, which is
+ * roughly what connecting the same clients one after another would take.
+ *
+ * All methods and callbacks run on the main thread.
+ */
+public class AutoManagedClients {
+
+    private static final String TAG = MainActivity.TAG;
+
+    /**
+     * Adds the APIs, scopes and any extra listeners of one client.
+     */
+    public interface ClientConfig {
+        void configure(GoogleApiClient.Builder builder);
+    }
+
+    /**
+     * Notified of errors the auto manager could not resolve.
+     */
+    public interface UnresolvedListener {
+        /**
+         * @param name the name the failed client was registered under
+         */
+        void onUnresolvedFailure(String name, ConnectionResult result);
+    }
+
+    private final FragmentActivity mActivity;
+    private final UnresolvedListener mUnresolvedListener;
+    private final LinkedHashMap<String, Member> mMembers = new LinkedHashMap<String, Member>();
+    private final BitSet mUsedIds = new BitSet();
+    private boolean mStarted;
+
+    // The round of connects in progress, 0 if none.
+    private long mRoundStartedAt;
+    private long mRoundSumMs;
+
+    private int mRounds;
+    private int mLastRoundClients;
+    private long mLastParallelMs;
+    private long mLastSerialMs;
+
+    /**
+     * @param activity the Activity whose lifecycle connects and disconnects the clients
+     * @param unresolvedListener notified of every error the auto manager could not resolve
+     */
+    public AutoManagedClients(FragmentActivity activity, UnresolvedListener unresolvedListener) {
+        mActivity = activity;
+        mUnresolvedListener = unresolvedListener;
+    }
+
+    /**
+     * Builds an auto-managed client, replacing any client registered under the same name.
+     *
+     * @param name identifies the client, for example the feature using it
+     * @param callbacks notified when the client connects or is suspended, or null
+     * @param config adds the client's APIs and scopes
+     * @return the client, which the auto manager connects straight away if the Activity has
+     *         started
+     */
+    public GoogleApiClient register(String name, ConnectionCallbacks callbacks,
+            ClientConfig config) {
+        unregister(name);
+        int id = mUsedIds.nextClearBit(0);
+        mUsedIds.set(id);
+
+        Member member = new Member(name, id, callbacks);
+        GoogleApiClient.Builder builder = new GoogleApiClient.Builder(mActivity)
+                .enableAutoManage(mActivity, id, member)
+                .addConnectionCallbacks(member);
+        config.configure(builder);
+        member.client = builder.build();
+        mMembers.put(name, member);
+        if (mStarted && !member.client.isConnected()) {
+            startConnecting(member, SystemClock.elapsedRealtime());
+        }
+        return member.client;
+    }
+
+    /**
+     * Returns the client registered under the name, or null.
+     */
+    public GoogleApiClient get(String name) {
+        Member member = mMembers.get(name);
+        return member != null ? member.client : null;
+    }
+
+    /**
+     * Stops auto-managing the client registered under the name and disconnects it. An
+     * auto-managed client must not be disconnected any other way.
+     */
+    public void unregister(String name) {
+        Member member = mMembers.remove(name);
+        if (member == null) {
+            return;
+        }
+        member.client.unregisterConnectionCallbacks(member);
+        member.client.stopAutoManage(mActivity);
+        member.client.disconnect();
+        mUsedIds.clear(member.id);
+        finishConnecting(member, false);
+    }
+
+    /**
+     * Must be called from the Activity's onStart, when the auto manager connects every client.
+     */
+    public void onStart() {
+        mStarted = true;
+        long now = SystemClock.elapsedRealtime();
+        for (Member member : mMembers.values()) {
+            if (!member.client.isConnected()) {
+                startConnecting(member, now);
+            }
+        }
+    }
+
+    /**
+     * Must be called from the Activity's onStop, when the auto manager disconnects every client.
+     */
+    public void onStop() {
+        mStarted = false;
+    }
+
+    /**
+     * Returns whether the Activity has started, so that the auto manager connects a client as
+     * soon as it is registered.
+     */
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    private void startConnecting(Member member, long now) {
+        if (mRoundStartedAt == 0) {
+            mRoundStartedAt = now;
+            mRoundSumMs = 0;
+        }
+        if (member.connectingSince == 0) {
+            member.connectingSince = now;
+        }
+    }
+
+    private void finishConnecting(Member member, boolean connected) {
+        if (member.connectingSince == 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (connected) {
+            mRoundSumMs += now - member.connectingSince;
+            member.connected++;
+        }
+        member.connectingSince = 0;
+
+        int clients = 0;
+        for (Member other : mMembers.values()) {
+            if (other.connectingSince != 0) {
+                return;
+            }
+            clients++;
+        }
+        mRounds++;
+        mLastRoundClients = clients;
+        mLastParallelMs = now - mRoundStartedAt;
+        mLastSerialMs = mRoundSumMs;
+        mRoundStartedAt = 0;
+        Log.i(TAG, "Connected " + clients + " auto-managed clients in " + mLastParallelMs
+                + "ms, one after another would take about " + mLastSerialMs + "ms");
+    }
+
+    /**
+     * Writes every client's ID and state and the timing of the last round of connects, for
+     * {@code adb shell dumpsys activity}.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("AutoManagedClients rounds=");
+        writer.print(mRounds);
+        writer.print(" lastClients=");
+        writer.print(mLastRoundClients);
+        writer.print(" lastParallelMs=");
+        writer.print(mLastParallelMs);
+        writer.print(" lastSerialMs=");
+        writer.println(mLastSerialMs);
+        for (Member member : mMembers.values()) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(member.name);
+            writer.print(": id=");
+            writer.print(member.id);
+            writer.print(" connected=");
+            writer.print(member.client.isConnected());
+            writer.print(" connects=");
+            writer.print(member.connected);
+            writer.print(" unresolved=");
+            writer.println(member.unresolved);
+        }
+    }
+
+    private final class Member implements ConnectionCallbacks, OnConnectionFailedListener {
+        final String name;
+        final int id;
+        final ConnectionCallbacks callbacks;
+        GoogleApiClient client;
+        long connectingSince;
+        int connected;
+        int unresolved;
+
+        Member(String name, int id, ConnectionCallbacks callbacks) {
+            this.name = name;
+            this.id = id;
+            this.callbacks = callbacks;
+        }
+
+        @Override
+        public void onConnected(Bundle connectionHint) {
+            finishConnecting(this, true);
+            if (callbacks != null) {
+                callbacks.onConnected(connectionHint);
+            }
+        }
+
+        @Override
+        public void onConnectionSuspended(int cause) {
+            // The auto manager reconnects straight away.
+            startConnecting(this, SystemClock.elapsedRealtime());
+            if (callbacks != null) {
+                callbacks.onConnectionSuspended(cause);
+            }
+        }
+
+        @Override
+        public void onConnectionFailed(ConnectionResult result) {
+            unresolved++;
+            finishConnecting(this, false);
+            Log.i(TAG, "Auto-managed client " + name + " failed: " + result.getErrorCode());
+            if (mUnresolvedListener != null) {
+                mUnresolvedListener.onUnresolvedFailure(name, result);
+            }
+        }
+    }
+}
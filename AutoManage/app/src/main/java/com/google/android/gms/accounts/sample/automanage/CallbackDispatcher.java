@@ -0,0 +1,224 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.automanage;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient.ConnectionCallbacks;
+import com.google.android.gms.common.api.GoogleApiClient.OnConnectionFailedListener;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves GoogleApiClient connection state processing off the main thread.
+ *
+ * GoogleApiClient delivers its callbacks on the main thread. The dispatcher only forwards them
+ * to a shared background Looper, where the {@link Target} does its processing, such as profile
+ * lookups and persistence, and returns the UI update to make. Only that update runs on the main
+ * thread. The time each callback and each UI update spends on the main thread is recorded so the
+ * effect on dropped frames can be measured, so any other main thread work a callback causes,
+ * such as driving the sign in flow, belongs in its UI update rather than next to the dispatcher.
+ */
+public class CallbackDispatcher implements ConnectionCallbacks, OnConnectionFailedListener {
+
+    /**
+     * Processes connection state changes on the background Looper.
+     */
+    public interface Target {
+        /**
+         * @return the UI update to run on the main thread, or null
+         */
+        Runnable onConnectedInBackground(Bundle connectionHint);
+
+        /**
+         * @return the UI update to run on the main thread, or null
+         */
+        Runnable onConnectionSuspendedInBackground(int cause);
+
+        /**
+         * @return the UI update to run on the main thread, or null
+         */
+        Runnable onConnectionFailedInBackground(ConnectionResult result);
+    }
+
+    /**
+     * A callback spending longer than this on the main thread would miss a frame at 60fps.
+     */
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private static final int CONNECTED = 0;
+    private static final int SUSPENDED = 1;
+    private static final int FAILED = 2;
+    private static final int UI_UPDATE = 3;
+    private static final String[] NAMES = {
+            "onConnected", "onConnectionSuspended", "onConnectionFailed", "uiUpdate"};
+
+    private static HandlerThread sThread;
+
+    private final Handler mBackgroundHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile Target mTarget;
+
+    // Main thread time per callback type. Only written on the main thread.
+    private final long[] mCounts = new long[NAMES.length];
+    private final long[] mTotalNanos = new long[NAMES.length];
+    private final long[] mMaxNanos = new long[NAMES.length];
+    private final long[] mOverFrame = new long[NAMES.length];
+
+    public CallbackDispatcher(Target target) {
+        mTarget = target;
+        mBackgroundHandler = new Handler(getLooper());
+    }
+
+    private static synchronized Looper getLooper() {
+        if (sThread == null) {
+            sThread = new HandlerThread("google-api-callbacks",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            sThread.start();
+        }
+        return sThread.getLooper();
+    }
+
+    /**
+     * Stops delivering callbacks to the target, for example when its Activity is destroyed.
+     */
+    public void clearTarget() {
+        mTarget = null;
+    }
+
+    @Override
+    public void onConnected(final Bundle connectionHint) {
+        long start = System.nanoTime();
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Target target = mTarget;
+                if (target != null) {
+                    postToMain(target.onConnectedInBackground(connectionHint));
+                }
+            }
+        });
+        record(CONNECTED, start);
+    }
+
+    @Override
+    public void onConnectionSuspended(final int cause) {
+        long start = System.nanoTime();
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Target target = mTarget;
+                if (target != null) {
+                    postToMain(target.onConnectionSuspendedInBackground(cause));
+                }
+            }
+        });
+        record(SUSPENDED, start);
+    }
+
+    @Override
+    public void onConnectionFailed(final ConnectionResult result) {
+        long start = System.nanoTime();
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Target target = mTarget;
+                if (target != null) {
+                    postToMain(target.onConnectionFailedInBackground(result));
+                }
+            }
+        });
+        record(FAILED, start);
+    }
+
+    private void postToMain(final Runnable uiUpdate) {
+        if (uiUpdate == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mTarget == null) {
+                    return;
+                }
+                long start = System.nanoTime();
+                uiUpdate.run();
+                record(UI_UPDATE, start);
+            }
+        });
+    }
+
+    private void record(int callback, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        mCounts[callback]++;
+        mTotalNanos[callback] += elapsed;
+        mMaxNanos[callback] = Math.max(mMaxNanos[callback], elapsed);
+        if (elapsed > FRAME_NANOS) {
+            mOverFrame[callback]++;
+        }
+    }
+
+    /**
+     * Returns the total time spent on the main thread handling the callbacks and applying their
+     * UI updates, in nanoseconds.
+     */
+    public long getMainThreadNanos() {
+        long total = 0;
+        for (long nanos : mTotalNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    /**
+     * Returns how many callbacks or UI updates took longer than a frame on the main thread.
+     */
+    public long getFramesMissed() {
+        long total = 0;
+        for (long count : mOverFrame) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Writes the main thread time of each callback, for {@code adb shell dumpsys activity}.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("CallbackDispatcher main thread time:");
+        for (int i = 0; i < NAMES.length; i++) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(NAMES[i]);
+            writer.print(": n=");
+            writer.print(mCounts[i]);
+            writer.print(" totalUs=");
+            writer.print(TimeUnit.NANOSECONDS.toMicros(mTotalNanos[i]));
+            writer.print(" maxUs=");
+            writer.print(TimeUnit.NANOSECONDS.toMicros(mMaxNanos[i]));
+            writer.print(" overFrame=");
+            writer.println(mOverFrame[i]);
+        }
+    }
+}
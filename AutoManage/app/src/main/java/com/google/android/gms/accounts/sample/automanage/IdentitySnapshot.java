@@ -0,0 +1,94 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.automanage;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Immutable record of what the app last knew about a signed in Google Account. It is keyed by
+ * the Google Account ID, never by the account name, since the primary email address of an account
+ * can change. The account name is only kept to find the snapshot of the account a client connects
+ * with before its profile has loaded.
+ */
+public final class IdentitySnapshot {
+
+    private final String mAccountId;
+    private final String mAccountName;
+    private final String mDisplayName;
+    private final Set<String> mGrantedScopes;
+
+    public IdentitySnapshot(String accountId, String accountName, String displayName,
+            Set<String> grantedScopes) {
+        if (accountId == null) {
+            throw new IllegalArgumentException("accountId must not be null");
+        }
+        mAccountId = accountId;
+        mAccountName = accountName != null ? accountName : "";
+        mDisplayName = displayName != null ? displayName : "";
+        mGrantedScopes = Collections.unmodifiableSet(new TreeSet<String>(grantedScopes));
+    }
+
+    public String getAccountId() {
+        return mAccountId;
+    }
+
+    /**
+     * Returns the name of the account when the snapshot was taken, or "" if it is not known.
+     */
+    public String getAccountName() {
+        return mAccountName;
+    }
+
+    public String getDisplayName() {
+        return mDisplayName;
+    }
+
+    public Set<String> getGrantedScopes() {
+        return mGrantedScopes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof IdentitySnapshot)) {
+            return false;
+        }
+        IdentitySnapshot other = (IdentitySnapshot) o;
+        return mAccountId.equals(other.mAccountId)
+                && mAccountName.equals(other.mAccountName)
+                && mDisplayName.equals(other.mDisplayName)
+                && mGrantedScopes.equals(other.mGrantedScopes);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mAccountId.hashCode();
+        result = 31 * result + mAccountName.hashCode();
+        result = 31 * result + mDisplayName.hashCode();
+        result = 31 * result + mGrantedScopes.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "IdentitySnapshot{accountId=" + mAccountId + ", scopes=" + mGrantedScopes + "}";
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.automanage;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persists {@link IdentitySnapshot}s in a small binary file so the signed in state can be shown
+ * in the first frame instead of after GoogleApiClient has connected.
+ *
+ * The file is read once on a background thread as soon as the process starts (see
+ * {@link SampleApplication}). Activities ask for the current snapshot with
+ * {@link #whenLoaded(Listener)} and reconcile it with the live connection through
+ * {@link #update(IdentitySnapshot)}, which only writes to disk when something changed.
+ */
+public class IdentitySnapshotStore {
+
+    private static final String TAG = MainActivity.TAG;
+
+    private static final String FILE_NAME = "identity_snapshots.bin";
+    private static final int FILE_MAGIC = 0x49445332; // "IDS2"
+    // The first version, which did not record account names.
+    private static final int FILE_MAGIC_V1 = 0x49445331; // "IDS1"
+
+    /**
+     * Notified on the main thread once the snapshots have been read from disk.
+     */
+    public interface Listener {
+        /**
+         * @param current the snapshot of the last signed in account, or null if there is none
+         */
+        void onSnapshotLoaded(IdentitySnapshot current);
+    }
+
+    private static IdentitySnapshotStore sInstance;
+
+    private final File mFile;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Map<String, IdentitySnapshot> mSnapshots =
+            new HashMap<String, IdentitySnapshot>();
+    private final List<Listener> mPendingListeners = new ArrayList<Listener>();
+    // Accounts removed before the file was read, whose snapshots in the file are stale.
+    private final Set<String> mRemovedBeforeLoad = new HashSet<String>();
+    private String mCurrentAccountId;
+    private boolean mCurrentChanged;
+    private boolean mLoaded;
+    private boolean mLoadStarted;
+
+    public static synchronized IdentitySnapshotStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new IdentitySnapshotStore(
+                    new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    IdentitySnapshotStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Starts reading the snapshot file on a background thread. Safe to call more than once.
+     */
+    public synchronized void preload() {
+        if (mLoadStarted) {
+            return;
+        }
+        mLoadStarted = true;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Calls the listener with the current snapshot. If the file has already been read the
+     * listener is called immediately, otherwise it is called on the main thread once loading
+     * completes.
+     */
+    public void whenLoaded(Listener listener) {
+        IdentitySnapshot current;
+        synchronized (this) {
+            if (!mLoaded) {
+                mPendingListeners.add(listener);
+                preload();
+                return;
+            }
+            current = getCurrentLocked();
+        }
+        listener.onSnapshotLoaded(current);
+    }
+
+    /**
+     * Removes a listener that has not been called yet, for example when its Activity is
+     * destroyed before loading completes.
+     */
+    public synchronized void removeListener(Listener listener) {
+        mPendingListeners.remove(listener);
+    }
+
+    /**
+     * Returns the snapshot of the last signed in account, or null if there is none or the file
+     * has not been read yet.
+     */
+    public synchronized IdentitySnapshot peekCurrent() {
+        return mLoaded ? getCurrentLocked() : null;
+    }
+
+    /**
+     * Returns the snapshot stored for the given Google Account ID, or null.
+     */
+    public synchronized IdentitySnapshot get(String accountId) {
+        return mSnapshots.get(accountId);
+    }
+
+    /**
+     * Returns the snapshot last stored for the given account name, or null. The name of an account
+     * can change, so only use it to find a snapshot until the account ID is known.
+     */
+    public synchronized IdentitySnapshot getByAccountName(String accountName) {
+        if (accountName == null || accountName.isEmpty()) {
+            return null;
+        }
+        for (IdentitySnapshot snapshot : mSnapshots.values()) {
+            if (accountName.equals(snapshot.getAccountName())) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the snapshot for the account that is now signed in. The file is only rewritten
+     * when the snapshot differs from what is already stored.
+     */
+    public void update(IdentitySnapshot snapshot) {
+        synchronized (this) {
+            if (snapshot.equals(mSnapshots.get(snapshot.getAccountId()))
+                    && snapshot.getAccountId().equals(mCurrentAccountId)) {
+                return;
+            }
+            mSnapshots.put(snapshot.getAccountId(), snapshot);
+            mRemovedBeforeLoad.remove(snapshot.getAccountId());
+            mCurrentAccountId = snapshot.getAccountId();
+            mCurrentChanged = true;
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Forgets which account is signed in while keeping its snapshot, for example on sign out.
+     */
+    public void clearCurrent() {
+        synchronized (this) {
+            if (mCurrentAccountId == null && mLoaded) {
+                return;
+            }
+            mCurrentAccountId = null;
+            mCurrentChanged = true;
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Removes everything stored for the given account, for example when access is revoked.
+     */
+    public void remove(String accountId) {
+        synchronized (this) {
+            if (mSnapshots.remove(accountId) == null && mLoaded) {
+                return;
+            }
+            if (!mLoaded) {
+                mRemovedBeforeLoad.add(accountId);
+            }
+            if (accountId.equals(mCurrentAccountId)) {
+                mCurrentAccountId = null;
+                mCurrentChanged = true;
+            }
+        }
+        scheduleWrite();
+    }
+
+    private IdentitySnapshot getCurrentLocked() {
+        return mCurrentAccountId != null ? mSnapshots.get(mCurrentAccountId) : null;
+    }
+
+    private void load() {
+        Map<String, IdentitySnapshot> snapshots = new HashMap<String, IdentitySnapshot>();
+        String currentAccountId = null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            int magic = in.readInt();
+            if (magic != FILE_MAGIC && magic != FILE_MAGIC_V1) {
+                throw new IOException("Unknown snapshot file format");
+            }
+            currentAccountId = in.readBoolean() ? in.readUTF() : null;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String accountId = in.readUTF();
+                String accountName = magic == FILE_MAGIC ? in.readUTF() : null;
+                String displayName = in.readUTF();
+                int scopeCount = in.readInt();
+                Set<String> scopes = new HashSet<String>(scopeCount);
+                for (int j = 0; j < scopeCount; j++) {
+                    scopes.add(in.readUTF());
+                }
+                snapshots.put(accountId,
+                        new IdentitySnapshot(accountId, accountName, displayName, scopes));
+            }
+        } catch (FileNotFoundException e) {
+            // Nobody has signed in yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable identity snapshots", e);
+            snapshots.clear();
+            currentAccountId = null;
+        } finally {
+            closeQuietly(in);
+        }
+
+        final List<Listener> listeners;
+        final IdentitySnapshot current;
+        synchronized (this) {
+            // Anything recorded or removed while we were reading is newer than the file.
+            for (Map.Entry<String, IdentitySnapshot> entry : snapshots.entrySet()) {
+                if (!mSnapshots.containsKey(entry.getKey())
+                        && !mRemovedBeforeLoad.contains(entry.getKey())) {
+                    mSnapshots.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (!mCurrentChanged && !mRemovedBeforeLoad.contains(currentAccountId)) {
+                mCurrentAccountId = currentAccountId;
+            }
+            mRemovedBeforeLoad.clear();
+            mLoaded = true;
+            current = getCurrentLocked();
+            listeners = new ArrayList<Listener>(mPendingListeners);
+            mPendingListeners.clear();
+        }
+
+        if (!listeners.isEmpty()) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Listener listener : listeners) {
+                        listener.onSnapshotLoaded(current);
+                    }
+                }
+            });
+        }
+    }
+
+    private void scheduleWrite() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+    }
+
+    private void write() {
+        String currentAccountId;
+        List<IdentitySnapshot> snapshots;
+        synchronized (this) {
+            currentAccountId = mCurrentAccountId;
+            snapshots = new ArrayList<IdentitySnapshot>(mSnapshots.values());
+        }
+
+        // Write to a temporary file and rename it so a crash never leaves a truncated file.
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FILE_MAGIC);
+            out.writeBoolean(currentAccountId != null);
+            if (currentAccountId != null) {
+                out.writeUTF(currentAccountId);
+            }
+            out.writeInt(snapshots.size());
+            for (IdentitySnapshot snapshot : snapshots) {
+                out.writeUTF(snapshot.getAccountId());
+                out.writeUTF(snapshot.getAccountName());
+                out.writeUTF(snapshot.getDisplayName());
+                out.writeInt(snapshot.getGrantedScopes().size());
+                for (String scope : snapshot.getGrantedScopes()) {
+                    out.writeUTF(scope);
+                }
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Could not rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write identity snapshots", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignored.
+            }
+        }
+    }
+}
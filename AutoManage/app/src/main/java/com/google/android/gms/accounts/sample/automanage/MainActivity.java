@@ -16,8 +16,12 @@
 
 package com.google.android.gms.accounts.sample.automanage;
 
+import android.app.Dialog;
+import android.app.PendingIntent;
 import android.content.Context;
-import android.content.SharedPreferences;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.IntentSender.SendIntentException;
 import android.os.Bundle;
 import android.support.v4.app.FragmentActivity;
 import android.util.Log;
@@ -26,15 +30,26 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.google.android.gms.accounts.sample.signin.ConnectionMetrics;
+import com.google.android.gms.accounts.sample.signin.LeakWatcher;
+import com.google.android.gms.accounts.sample.signin.SessionJournal;
+import com.google.android.gms.accounts.sample.signin.SignInStateMachine;
+import com.google.android.gms.accounts.sample.signin.SignInStateStore;
 import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.common.Scopes;
 import com.google.android.gms.common.SignInButton;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.GoogleApiClient.ConnectionCallbacks;
 import com.google.android.gms.common.api.GoogleApiClient.OnConnectionFailedListener;
 import com.google.android.gms.common.api.Scope;
 import com.google.android.gms.plus.Plus;
-import com.google.android.gms.plus.model.people.Person;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Google Play Services Accounts AutoManage sample.
@@ -57,29 +72,36 @@ import com.google.android.gms.plus.model.people.Person;
  * Detailed instructions can be found here: https://developers.google.com/+/quickstart/android
  */
 public class MainActivity extends FragmentActivity implements
-        ConnectionCallbacks, OnConnectionFailedListener, View.OnClickListener {
+        CallbackDispatcher.Target, View.OnClickListener,
+        IdentitySnapshotStore.Listener, ProfileCache.Callback,
+        AutoManagedClients.UnresolvedListener, SignInStateMachine.ConnectionPort,
+        SignInStateMachine.UiPort<PendingIntent> {
 
     protected static final String TAG = "google-account-sample";
 
-    private static final String SHARED_PREFS = "GoogleAccountSamplePrefs";
+    protected static final int RC_SIGN_IN = 0;
+
+    protected static final String SAVED_PROGRESS = "sign_in_progress";
+
+    /**
+     * The OAuth2 scopes requested by {@link #rebuildGoogleApiClient()}, recorded in the
+     * {@link IdentitySnapshot} of the signed in account.
+     */
+    private static final Set<String> GRANTED_SCOPES = Collections.singleton(Scopes.PLUS_ME);
 
     /**
-     * Preference that tracks whether the user is currently signed into the app.
-     * Specifically, if a user signs into the app via a Google Account and then comes back to it
-     * later this indicates they were last signed in. This preference is used to determine
-     * whether to initiate the GoogleApiClient connection immediately upon opening the activity.
-     * This logic prevents the user's first experience with your app from being an OAuth2 consent
-     * dialog.
+     * The name of the sign in client in {@link #mAutoManagedClients}.
      */
-    private static final String PREFS_IS_SIGNED_IN = "IS_SIGNED_IN";
+    protected static final String SIGN_IN_CLIENT = "sign-in";
 
     /**
      * GoogleApiClient is a service connection to Google Play services and provides access
      * to the user's OAuth2 and API availability state for the APIs and scopes requested. Before
      * making Google Play services API calls ensure
      * {@code com.google.android.gms.common.api.GoogleApiClient.isConnected()} returns true.
+     * Volatile because the *InBackground callbacks read it on the dispatcher's thread.
      */
-    protected GoogleApiClient mGoogleApiClient;
+    protected volatile GoogleApiClient mGoogleApiClient;
 
     protected SignInButton mSignInButton;
 
@@ -89,6 +111,50 @@ public class MainActivity extends FragmentActivity implements
 
     protected TextView mStatus;
 
+    /**
+     * Remembers who was signed in last so we can show it before GoogleApiClient connects.
+     */
+    protected IdentitySnapshotStore mSnapshotStore;
+
+    /**
+     * Tracks whether the user was last signed in. It is loaded in the background when the
+     * process starts, so reading it here does not touch the disk.
+     */
+    protected SignInStateStore mSignInStateStore;
+
+    /**
+     * Serves the signed in user's profile without blocking on Google Play services.
+     */
+    protected ProfileCache mProfileCache;
+
+    /**
+     * Receives the GoogleApiClient callbacks on the main thread and hands them to our
+     * *InBackground methods on a background thread.
+     */
+    protected CallbackDispatcher mCallbackDispatcher;
+
+    /**
+     * Every auto-managed client of this Activity, each with its own googleApiClientId.
+     */
+    protected AutoManagedClients mAutoManagedClients;
+
+    /**
+     * Connection failures and latencies, written to disk every minute by SampleApplication.
+     */
+    protected ConnectionMetrics mConnectionMetrics;
+
+    /**
+     * Every connect, failure, resolution, sign in, sign out and revocation, see
+     * {@link SampleApplication#getSessionJournal()}.
+     */
+    protected SessionJournal mSessionJournal;
+
+    /**
+     * Decides what to do with the errors the auto manager could not resolve. They wait for a
+     * click on 'sign in', which starts their resolution again.
+     */
+    protected SignInStateMachine<PendingIntent> mSignInStateMachine;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -103,46 +169,147 @@ public class MainActivity extends FragmentActivity implements
         mSignOutButton.setOnClickListener(this);
         mRevokeButton.setOnClickListener(this);
 
+        mSnapshotStore = IdentitySnapshotStore.getInstance(this);
+        mCallbackDispatcher = new CallbackDispatcher(this);
+        mAutoManagedClients = new AutoManagedClients(this, this);
+        SampleApplication application = (SampleApplication) getApplication();
+        mSignInStateStore = application.getSignInStateStore();
+        mProfileCache = application.getProfileCache();
+        mConnectionMetrics = application.getConnectionMetrics();
+        mSessionJournal = application.getSessionJournal();
+        mSignInStateMachine = new SignInStateMachine<PendingIntent>(this, this);
+        // The auto manager resolves errors as the client connects, so the state machine must not
+        // rebuild it after the user declined a resolution.
+        mSignInStateMachine.setResolvesOnConnect(true);
+        if (savedInstanceState != null) {
+            mSignInStateMachine.restoreState(
+                    savedInstanceState.getInt(SAVED_PROGRESS, SignInStateMachine.STATE_DEFAULT));
+        }
+
         if (isSignedIn()) {
+            // Show the account we last knew about right away. The snapshot is normally loaded
+            // by SampleApplication before we get here; onConnected reconciles it with the live
+            // connection.
+            mSnapshotStore.whenLoaded(this);
             rebuildGoogleApiClient();
             // TODO: This next IF statement temporarily deals with an issue where autoManage doesn't
             // call the onConnected callback after a Builder.build() when re-connecting after a
             // rotation change. Will remove when fixed.
             if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-                onConnected(null);
+                mCallbackDispatcher.onConnected(null);
             }
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // The auto manager reconnects the clients as this Activity starts.
+        mAutoManagedClients.onStart();
+        if (mGoogleApiClient != null && !mGoogleApiClient.isConnected()) {
+            mConnectionMetrics.onConnectStarted();
+            journal(SessionJournal.EVENT_CONNECT, 0);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(SAVED_PROGRESS, mSignInStateMachine.getState());
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mAutoManagedClients.onStop();
+        // The process may be killed once we are in the background, so write what we have.
+        ((SampleApplication) getApplication()).getMetricsExporter().flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSnapshotStore.removeListener(this);
+        mCallbackDispatcher.clearTarget();
+        ((SampleApplication) getApplication()).getLeakWatcher().watch(this,
+                "MainActivity " + Integer.toHexString(System.identityHashCode(this)));
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        mCallbackDispatcher.dump(prefix, writer);
+        mAutoManagedClients.dump(prefix, writer);
+        writer.print(prefix);
+        writer.println(mProfileCache);
+        writer.print(prefix);
+        writer.println(mSignInStateStore);
+        writer.print(prefix);
+        writer.println(mSessionJournal);
+        // Dumps are rare, so they can afford the garbage collection that finding leaks takes.
+        LeakWatcher leakWatcher = ((SampleApplication) getApplication()).getLeakWatcher();
+        List<String> retained = leakWatcher.check();
+        writer.print(prefix);
+        writer.println(leakWatcher);
+        for (String leak : retained) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.println(leak);
+        }
+    }
+
+    /**
+     * Called with the snapshot of the last signed in account once it has been read from disk.
+     */
+    @Override
+    public void onSnapshotLoaded(IdentitySnapshot current) {
+        if (current != null && mGoogleApiClient != null && !mGoogleApiClient.isConnected()) {
+            showSignedIn(current.getDisplayName());
+        }
+    }
+
     /**
      * Construct a client using AutoManage functionality.
      */
     protected synchronized void rebuildGoogleApiClient() {
-        // When we build the GoogleApiClient we specify where connected and connection failed
-        // callbacks should be returned, which Google APIs our app uses and which OAuth 2.0
-        // scopes our app requests. When using enableAutoManage to register the failed connection
-        // listener it will only be called back when auto-resolution attempts were not
-        // successful or possible. A normal ConnectionFailedListener is also registered below to
-        // notify the activity when it needs to stop making API calls.
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
-                .enableAutoManage(this /* FragmentActivity */,
-                        0 /* googleApiClientId used when auto-managing multiple googleApiClients */,
-                        this /* OnConnectionFailedListener */)
-                .addConnectionCallbacks(this /* ConnectionCallbacks */)
-                // Register a connection listener that will notify on disconnect (including ones
-                // caused by calling disconnect on the GoogleApiClient).
-                .addOnConnectionFailedListener(new OnConnectionFailedListener() {
+        // When we build the GoogleApiClient we specify where connected callbacks should be
+        // returned, which Google APIs our app uses and which OAuth 2.0 scopes our app requests.
+        // The registry auto-manages the client with a googleApiClientId of its own and calls
+        // onUnresolvedFailure only when auto-resolution attempts were not successful or
+        // possible. A normal ConnectionFailedListener is also registered below to notify the
+        // activity when it needs to stop making API calls.
+        mGoogleApiClient = mAutoManagedClients.register(SIGN_IN_CLIENT,
+                mCallbackDispatcher /* ConnectionCallbacks */,
+                new AutoManagedClients.ClientConfig() {
                     @Override
-                    public void onConnectionFailed(ConnectionResult connectionResult) {
-                        googleApiClientConnectionStateChange(true);
+                    public void configure(GoogleApiClient.Builder builder) {
+                        builder.addApi(Plus.API)
+                                .addScope(new Scope(Scopes.PLUS_ME));
+                        // TODO(developer): Specify any additional API Scopes or APIs sign in
+                        // needs here. The GoogleApiClient will ensure these APIs are available,
+                        // and the Scopes are approved before invoking the onConnected callbacks.
+
+                        // Register a connection listener that will notify on disconnect
+                        // (including ones caused by calling disconnect on the GoogleApiClient).
+                        builder.addOnConnectionFailedListener(
+                                new DisconnectListener(MainActivity.this));
                     }
-                })
-                .addApi(Plus.API)
-                .addScope(new Scope(Scopes.PLUS_ME))
-                        // TODO(developer): Specify any additional API Scopes or APIs you need here.
-                        // The GoogleApiClient will ensure these APIs are available, and the Scopes
-                        // are approved before invoking the onConnected callbacks.
-                .build();
+                });
+        if (mAutoManagedClients.isStarted() && !mGoogleApiClient.isConnected()) {
+            // Otherwise the auto manager connects the client in onStart, which counts it.
+            mConnectionMetrics.onConnectStarted();
+            journal(SessionJournal.EVENT_CONNECT, 0);
+        }
+
+        // TODO(developer): Register a client per feature or group of APIs the screen can work
+        // without, so that they connect in parallel with sign in and an unavailable API does not
+        // hold it up, for example:
+        // mAutoManagedClients.register("drive", null, new AutoManagedClients.ClientConfig() {
+        //     @Override
+        //     public void configure(GoogleApiClient.Builder builder) {
+        //         builder.addApi(Drive.API).addScope(Drive.SCOPE_FILE);
+        //     }
+        // });
     }
 
     /**
@@ -160,36 +327,51 @@ public class MainActivity extends FragmentActivity implements
             // connected and not connected.
             switch (view.getId()) {
                 case R.id.sign_in_button:
-                    rebuildGoogleApiClient();
+                    mConnectionMetrics.onSignInClicked();
+                    journal(SessionJournal.EVENT_SIGN_IN_CLICKED, 0);
                     mStatus.setText(R.string.status_signing_in);
+                    if (mGoogleApiClient == null) {
+                        // Nobody was signed in. The auto manager resolves whatever error comes
+                        // back as the client connects.
+                        mSignInStateMachine.onAuthorizationRequested();
+                        rebuildGoogleApiClient();
+                    } else {
+                        // The auto manager gave up on the last error, so resolve it again now
+                        // that the user asks.
+                        mSignInStateMachine.onSignInClicked();
+                    }
                     break;
                 case R.id.sign_out_button:
+                    journal(SessionJournal.EVENT_SIGNED_OUT, 0);
                     // We clear the default account on sign out so that Google Play Services will
                     // not return an onConnected callback without user interaction.
                     Plus.AccountApi.clearDefaultAccount(mGoogleApiClient);
 
-                    // We must stop auto managing before disconnecting a the client.  Disconnecting
-                    // an auto managed client causes a fatal exception.
-                    mGoogleApiClient.stopAutoManage(this);
-
-                    mGoogleApiClient.disconnect();
+                    // The registry stops auto managing the client before disconnecting it.
+                    // Disconnecting an auto managed client causes a fatal exception.
+                    mAutoManagedClients.unregister(SIGN_IN_CLIENT);
                     mGoogleApiClient = null;
 
                     onSignedOut();
                     break;
                 case R.id.revoke_access_button:
+                    journal(SessionJournal.EVENT_REVOKED, 0);
                     deleteUserData();
 
+                    IdentitySnapshot current = mSnapshotStore.peekCurrent();
+                    if (current != null) {
+                        mSnapshotStore.remove(current.getAccountId());
+                        mProfileCache.remove(current.getAccountId());
+                    }
+
                     // After we revoke permissions for the user with a GoogleApiClient instance,
                     // we must discard it and create a new one.
                     Plus.AccountApi.revokeAccessAndDisconnect(mGoogleApiClient);
                     Plus.AccountApi.clearDefaultAccount(mGoogleApiClient);
 
-                    // We must stop auto managing before disconnecting a the client.  Disconnecting
-                    // an auto managed client causes a fatal exception.
-                    mGoogleApiClient.stopAutoManage(this);
-
-                    mGoogleApiClient.disconnect();
+                    // The registry stops auto managing the client before disconnecting it.
+                    // Disconnecting an auto managed client causes a fatal exception.
+                    mAutoManagedClients.unregister(SIGN_IN_CLIENT);
                     mGoogleApiClient = null;
 
                     onSignedOut();
@@ -199,25 +381,53 @@ public class MainActivity extends FragmentActivity implements
     }
 
     /**
-     * Called when the Activity successfully connects to Google Play Services. When the function
-     * is triggered, an account was selected on the device, the selected account has granted
-     * requested permissions to the app, and the app has established a connection to Google Play
-     * Services.
+     * Called on a background thread when the Activity successfully connects to Google Play
+     * Services. When the function is triggered, an account was selected on the device, the
+     * selected account has granted requested permissions to the app, and the app has established
+     * a connection to Google Play Services.
      *
      * @param connectionHint can be inspected for additional connection info
+     * @return the UI update to make on the main thread
      */
     @Override
-    public void onConnected(Bundle connectionHint) {
+    public Runnable onConnectedInBackground(Bundle connectionHint) {
         // Reaching onConnected means the user signed in via their Google Account and all APIs
         // previously specified are available.
-        googleApiClientConnectionStateChange(true);
+        mConnectionMetrics.onConnected();
+        GoogleApiClient client = mGoogleApiClient;
 
         // IMPORTANT NOTE: If you are storing any user data locally or even in a remote
         // application DO NOT associate it to the accountName (which is also an email address).
         // Associate the user data to the Google Account ID. Under some circumstances it is possible
         // for a Google Account to have the primary email address change.
 
-        Person currentPerson = Plus.PeopleApi.getCurrentPerson(mGoogleApiClient);
+        // The profile cache answers with the cached profile of the connected account, if any,
+        // and loads the current person in the background, calling onProfileLoaded again if it
+        // differs.
+        if (client != null) {
+            // Otherwise the user signed out before this callback reached the background thread.
+            mProfileCache.get(client, this);
+        }
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                journal(SessionJournal.EVENT_CONNECTED, 0);
+                mSignInStateMachine.onConnected();
+                googleApiClientConnectionStateChange(true);
+            }
+        };
+    }
+
+    /**
+     * Called on the main thread with the profile of the connected account.
+     */
+    @Override
+    public void onProfileLoaded(Profile profile) {
+        if (mGoogleApiClient == null || !mGoogleApiClient.isConnected()) {
+            // The user signed out while the profile was loading.
+            return;
+        }
 
         // The logic below ensures you won't mix account data if a user switches between Google
         // Accounts.
@@ -225,7 +435,7 @@ public class MainActivity extends FragmentActivity implements
         // TODO(developer): Delete the local data if the account ID differs.
         // TODO(developer): Construct local storage keyed on the account ID.
 
-        onSignedIn(currentPerson);
+        onSignedIn(profile);
     }
 
     /**
@@ -234,23 +444,32 @@ public class MainActivity extends FragmentActivity implements
      * the {@link GoogleApiClient} until it becomes connected again.
      */
     @Override
-    public void onConnectionSuspended(int cause) {
+    public Runnable onConnectionSuspendedInBackground(final int cause) {
+        mConnectionMetrics.onConnectionSuspended();
         // Indicate API calls to Google Play services APIs should be halted.
-        googleApiClientConnectionStateChange(false);
+        return new Runnable() {
+            @Override
+            public void run() {
+                journal(SessionJournal.EVENT_SUSPENDED, cause);
+                googleApiClientConnectionStateChange(false);
+            }
+        };
     }
 
     /**
-     * Called when the Activity could not connect to Google Play services AND the auto manager
-     * could not resolve the error automatically.
+     * Called on a background thread when the Activity could not connect to Google Play services
+     * AND the auto manager could not resolve the error automatically.
      *
      * @param result can be inspected to determine the cause of the failure
+     * @return the UI update to make on the main thread
      */
     @Override
-    public void onConnectionFailed(ConnectionResult result) {
+    public Runnable onConnectionFailedInBackground(final ConnectionResult result) {
         // Refer to the javadoc for ConnectionResult to see what error codes might be returned in
         // onConnectionFailed. Since this is the AutoManage sample only unresolvable errors
         // are returned here.
 
+        mConnectionMetrics.onConnectionFailed(result.getErrorCode());
         Log.i(TAG, "onConnectionFailed: ConnectionResult.getErrorCode() = "
                 + result.getErrorCode());
 
@@ -262,7 +481,87 @@ public class MainActivity extends FragmentActivity implements
             Log.i(TAG, "onConnectionFailed because an API was unavailable");
         }
 
-        googleApiClientConnectionStateChange(false);
+        return new Runnable() {
+            @Override
+            public void run() {
+                // The sign in flow runs on the main thread, so it is part of the UI update and
+                // counted in the dispatcher's main thread time.
+                journal(SessionJournal.EVENT_FAILED, result.getErrorCode());
+                mSignInStateMachine.onAutoResolutionFailed(result.getErrorCode(),
+                        result.getResolution());
+                googleApiClientConnectionStateChange(false);
+            }
+        };
+    }
+
+    /**
+     * Called on the main thread when the auto manager could not resolve an error of one of our
+     * clients.
+     */
+    @Override
+    public void onUnresolvedFailure(String name, ConnectionResult result) {
+        if (SIGN_IN_CLIENT.equals(name)) {
+            mCallbackDispatcher.onConnectionFailed(result);
+        }
+        // TODO(developer): Disable the features that depend on any other client.
+    }
+
+    /**
+     * Reconnect by building a new sign in client, which the auto manager connects straight away
+     * if this Activity has started or else in onStart. The state machine only calls this while
+     * the user is signing in, since the auto manager resolves the errors of the new client.
+     */
+    @Override
+    public void connect() {
+        rebuildGoogleApiClient();
+    }
+
+    @Override
+    public boolean isConnecting() {
+        return mGoogleApiClient != null && mGoogleApiClient.isConnecting();
+    }
+
+    /**
+     * Starts the resolution of an error the auto manager could not resolve, after the user
+     * clicked 'sign in' again.
+     */
+    @Override
+    public boolean startResolution(PendingIntent resolution) {
+        try {
+            startIntentSenderForResult(resolution.getIntentSender(), RC_SIGN_IN, null, 0, 0, 0);
+            mConnectionMetrics.onResolutionStarted();
+            journal(SessionJournal.EVENT_RESOLUTION_STARTED, mSignInStateMachine.getError());
+            return true;
+        } catch (SendIntentException e) {
+            Log.i(TAG, "Sign in intent could not be sent: " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Shows the default Google Play services error dialog for an error without a resolution.
+     */
+    @Override
+    public void showErrorDialog(int errorCode) {
+        mConnectionMetrics.onSignInClickAbandoned();
+        Dialog dialog = GooglePlayServicesUtil.getErrorDialog(errorCode, this, RC_SIGN_IN,
+                new ErrorDialogListener(this));
+        if (dialog != null) {
+            dialog.show();
+        } else {
+            // The user cannot resolve the error.
+            mSignInStateMachine.onErrorDialogDismissed();
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == RC_SIGN_IN) {
+            mConnectionMetrics.onResolutionFinished(resultCode == RESULT_OK);
+            journal(SessionJournal.EVENT_RESOLUTION_RESULT, resultCode);
+            mSignInStateMachine.onResolutionResult(resultCode == RESULT_OK);
+        }
     }
 
     /**
@@ -270,6 +569,17 @@ public class MainActivity extends FragmentActivity implements
      */
     protected void onSignedOut() {
         storeSignInState(false);
+        mSessionJournal.setAccount(null);
+        mSnapshotStore.clearCurrent();
+        showSignedOut();
+    }
+
+    /**
+     * Update the UI to show the user as signed out without forgetting who signed in last, for
+     * example while the sign in client cannot connect.
+     */
+    @Override
+    public void showSignedOut() {
         mSignInButton.setEnabled(true);
         mSignOutButton.setEnabled(false);
         mRevokeButton.setEnabled(false);
@@ -280,24 +590,31 @@ public class MainActivity extends FragmentActivity implements
     /**
      * Update the UI to reflect that the user is signed into the app.
      */
-    protected void onSignedIn(Person currentPerson) {
+    protected void onSignedIn(Profile profile) {
         storeSignInState(true);
+        mSessionJournal.setAccount(profile.getAccountId());
+        mSnapshotStore.update(new IdentitySnapshot(profile.getAccountId(),
+                profile.getAccountName(), profile.getDisplayName(), GRANTED_SCOPES));
+        showSignedIn(profile.getDisplayName());
+    }
+
+    /**
+     * Update the UI to show the given display name as signed in.
+     */
+    private void showSignedIn(String displayName) {
         mSignInButton.setEnabled(false);
         mSignOutButton.setEnabled(true);
         mRevokeButton.setEnabled(true);
 
         mStatus.setText(String.format(getResources().getString(R.string
-                .signed_in_as), currentPerson.getDisplayName()));
+                .signed_in_as), displayName));
     }
 
     /**
      * Returns whether the user is signed into the app.
      */
     private boolean isSignedIn() {
-        Context context = getApplicationContext();
-        SharedPreferences sharedPrefs = context.getSharedPreferences(SHARED_PREFS,
-                MODE_PRIVATE);
-        return sharedPrefs.getBoolean(PREFS_IS_SIGNED_IN, false);
+        return mSignInStateStore.isSignedIn();
     }
 
     /**
@@ -306,28 +623,68 @@ public class MainActivity extends FragmentActivity implements
      * @param signedIn Whether the user is signed in.
      */
     private void storeSignInState(boolean signedIn) {
-        Context context = getApplicationContext();
-        SharedPreferences sharedPrefs = context.getSharedPreferences(SHARED_PREFS, MODE_PRIVATE);
-        SharedPreferences.Editor editor = sharedPrefs.edit();
-        editor.putBoolean(PREFS_IS_SIGNED_IN, signedIn);
-        editor.apply();
+        mSignInStateStore.setSignedIn(signedIn);
     }
 
     /**
-     * Centralized location for dealing with GoogleApiClient connects or disconnects.
+     * Appends an event to the session journal, along with the current sign in state. Must be
+     * called on the main thread, which owns the sign in state.
      */
-    private void googleApiClientConnectionStateChange(final boolean connected) {
-        final Context appContext = this.getApplicationContext();
+    private void journal(int event, int code) {
+        mSessionJournal.append(event, mSignInStateMachine.getState(), code);
+    }
+
+    /**
+     * Centralized location for dealing with GoogleApiClient connects or disconnects. Must be
+     * called on the main thread.
+     */
+    private void googleApiClientConnectionStateChange(boolean connected) {
+        Context appContext = this.getApplicationContext();
 
         // TODO(developer): Kill AsyncTasks, or threads using the GoogleApiClient.
 
         // Display Toast that isn't dependent on the current activity (in case of a rotation).
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                Toast.makeText(appContext, "Google Api Client has connected:" + connected,
-                        Toast.LENGTH_SHORT).show();
+        Toast.makeText(appContext, "Google Api Client has connected:" + connected,
+                Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Tells the sign in flow that an error dialog went away without resolving the error. The
+     * dialog may outlive the Activity, so it only holds the Activity weakly.
+     */
+    private static final class ErrorDialogListener implements DialogInterface.OnCancelListener {
+        private final WeakReference<MainActivity> mActivity;
+
+        ErrorDialogListener(MainActivity activity) {
+            mActivity = new WeakReference<MainActivity>(activity);
+        }
+
+        @Override
+        public void onCancel(DialogInterface dialog) {
+            MainActivity activity = mActivity.get();
+            if (activity != null) {
+                activity.mSignInStateMachine.onErrorDialogDismissed();
             }
-        });
+        }
+    }
+
+    /**
+     * Notifies the Activity of every failed connection and disconnect. The client may be kept by
+     * Google Play services after the Activity is destroyed, so it only holds the Activity weakly.
+     */
+    private static final class DisconnectListener implements OnConnectionFailedListener {
+        private final WeakReference<MainActivity> mActivity;
+
+        DisconnectListener(MainActivity activity) {
+            mActivity = new WeakReference<MainActivity>(activity);
+        }
+
+        @Override
+        public void onConnectionFailed(ConnectionResult connectionResult) {
+            MainActivity activity = mActivity.get();
+            if (activity != null) {
+                activity.googleApiClientConnectionStateChange(false);
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.accounts.sample.automanage;
+
+/**
+ * The parts of the signed in user's Google+ profile the app displays, keyed by Google Account ID,
+ * along with the name of the account it was loaded for.
+ */
+public final class Profile {
+
+    private final String mAccountId;
+    private final String mAccountName;
+    private final String mDisplayName;
+
+    public Profile(String accountId, String accountName, String displayName) {
+        mAccountId = accountId;
+        mAccountName = accountName != null ? accountName : "";
+        mDisplayName = displayName != null ? displayName : "";
+    }
+
+    public String getAccountId() {
+        return mAccountId;
+    }
+
+    public String getAccountName() {
+        return mAccountName;
+    }
+
+    public String getDisplayName() {
+        return mDisplayName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Profile)) {
+            return false;
+        }
+        Profile other = (Profile) o;
+        return mAccountId.equals(other.mAccountId) && mAccountName.equals(other.mAccountName)
+                && mDisplayName.equals(other.mDisplayName);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mAccountId.hashCode();
+        result = 31 * result + mAccountName.hashCode();
+        result = 31 * result + mDisplayName.hashCode();
+        return result;
+    }
+}
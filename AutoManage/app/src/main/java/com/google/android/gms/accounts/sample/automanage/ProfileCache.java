@@ -0,0 +1,231 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.automanage;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.plus.Plus;
+import com.google.android.gms.plus.model.people.Person;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Caches the signed in user's {@link Profile} by Google Account ID so that a (re)connect never
+ * waits on {@code Plus.PeopleApi.getCurrentPerson()} on the main thread.
+ *
+ * Profiles are held in a bounded LRU in memory and fall back to the {@link IdentitySnapshotStore}
+ * on disk. A client only tells us the name of the account it connected with, so the cache
+ * remembers the account ID each name was last loaded for, in memory for as many names as it holds
+ * profiles and on disk in each snapshot, and only serves a cached profile once it knows it belongs
+ * to the connected account. After a restart the snapshot is found by the account name until the
+ * profile has loaded again. A cached profile is returned immediately; if it
+ * is older than the TTL, or only came from disk, it is also refreshed in the background and the
+ * callback is called again if the profile changed (stale-while-revalidate). Callbacks are always
+ * made on the main thread.
+ */
+public class ProfileCache {
+
+    private static final String TAG = MainActivity.TAG;
+
+    public static final int DEFAULT_MAX_ENTRIES = 8;
+    public static final long DEFAULT_TTL_MS = 10 * 60 * 1000;
+
+    /**
+     * Receives profiles on the main thread.
+     */
+    public interface Callback {
+        void onProfileLoaded(Profile profile);
+    }
+
+    private final LruCache<String, Entry> mMemory;
+    private final IdentitySnapshotStore mDisk;
+    private final long mTtlMs;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * The account ID each account name was last loaded for, bounded like {@link #mMemory}.
+     */
+    private final LruCache<String, String> mAccountIds;
+
+    private long mHits;
+    private long mStaleHits;
+    private long mMisses;
+    private long mLoads;
+    private long mLoadNanos;
+
+    public ProfileCache(IdentitySnapshotStore disk) {
+        this(disk, DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MS);
+    }
+
+    public ProfileCache(IdentitySnapshotStore disk, int maxEntries, long ttlMs) {
+        mDisk = disk;
+        mTtlMs = ttlMs;
+        mMemory = new LruCache<String, Entry>(maxEntries);
+        mAccountIds = new LruCache<String, String>(maxEntries);
+    }
+
+    /**
+     * Delivers the profile of the account the client is connected with.
+     *
+     * @param client a connected client
+     * @param callback called once with the cached profile, if any, and again whenever a
+     *                 background load returns a different profile
+     */
+    public void get(GoogleApiClient client, Callback callback) {
+        // Reading the account name does not go to the network, unlike loading the person.
+        String accountName = Plus.AccountApi.getAccountName(client);
+        String accountId = accountName != null ? mAccountIds.get(accountName) : null;
+        Profile cached = null;
+        boolean fresh = false;
+        Entry entry = accountId != null ? mMemory.get(accountId) : null;
+        if (entry != null) {
+            cached = entry.profile;
+            fresh = SystemClock.elapsedRealtime() - entry.loadedAtMs < mTtlMs;
+        } else {
+            // Nothing in memory, for example in a new process, so look on disk. The snapshot of
+            // the name is only used while no profile has been loaded for it in this process.
+            IdentitySnapshot snapshot = accountId != null
+                    ? mDisk.get(accountId) : mDisk.getByAccountName(accountName);
+            if (snapshot != null) {
+                cached = new Profile(snapshot.getAccountId(), accountName,
+                        snapshot.getDisplayName());
+            }
+        }
+
+        synchronized (this) {
+            if (cached == null) {
+                mMisses++;
+            } else if (fresh) {
+                mHits++;
+            } else {
+                mStaleHits++;
+            }
+        }
+
+        if (cached != null) {
+            deliver(cached, callback);
+        }
+        if (!fresh) {
+            refresh(client, accountName, cached, callback);
+        }
+    }
+
+    /**
+     * Drops the cached profile of an account, for example when access is revoked.
+     */
+    public void remove(String accountId) {
+        mMemory.remove(accountId);
+        for (Map.Entry<String, String> entry : mAccountIds.snapshot().entrySet()) {
+            if (entry.getValue().equals(accountId)) {
+                mAccountIds.remove(entry.getKey());
+            }
+        }
+    }
+
+    private void refresh(final GoogleApiClient client, final String accountName,
+            final Profile previous, final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                Person person = client.isConnected()
+                        ? Plus.PeopleApi.getCurrentPerson(client) : null;
+                long elapsed = System.nanoTime() - start;
+                synchronized (ProfileCache.this) {
+                    mLoads++;
+                    mLoadNanos += elapsed;
+                }
+                if (person == null) {
+                    Log.i(TAG, "Could not load the current person");
+                    return;
+                }
+
+                Profile profile = new Profile(person.getId(), accountName,
+                        person.getDisplayName());
+                mMemory.put(profile.getAccountId(),
+                        new Entry(profile, SystemClock.elapsedRealtime()));
+                if (accountName != null) {
+                    mAccountIds.put(accountName, profile.getAccountId());
+                }
+                if (!profile.equals(previous)) {
+                    deliver(profile, callback);
+                }
+            }
+        });
+    }
+
+    private void deliver(final Profile profile, final Callback callback) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            callback.onProfileLoaded(profile);
+        } else {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onProfileLoaded(profile);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the fraction of lookups answered from memory without a refresh.
+     */
+    public synchronized double getHitRatio() {
+        long lookups = mHits + mStaleHits + mMisses;
+        return lookups == 0 ? 0 : (double) mHits / lookups;
+    }
+
+    /**
+     * Returns the fraction of lookups that found nothing to show until a load completed.
+     */
+    public synchronized double getMissRatio() {
+        long lookups = mHits + mStaleHits + mMisses;
+        return lookups == 0 ? 0 : (double) mMisses / lookups;
+    }
+
+    /**
+     * Returns the mean time taken by background profile loads, in milliseconds.
+     */
+    public synchronized double getMeanLoadMillis() {
+        return mLoads == 0 ? 0 : mLoadNanos / 1e6 / mLoads;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ProfileCache{hits=" + mHits + ", staleHits=" + mStaleHits + ", misses=" + mMisses
+                + ", hitRatio=" + getHitRatio() + ", missRatio=" + getMissRatio()
+                + ", loads=" + mLoads + ", meanLoadMs=" + getMeanLoadMillis() + "}";
+    }
+
+    private static final class Entry {
+        final Profile profile;
+        final long loadedAtMs;
+
+        Entry(Profile profile, long loadedAtMs) {
+            this.profile = profile;
+            this.loadedAtMs = loadedAtMs;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.automanage;
+
+import android.app.Application;
+
+import com.google.android.gms.accounts.sample.signin.BatchingSignInStateStore;
+import com.google.android.gms.accounts.sample.signin.ConnectionMetrics;
+import com.google.android.gms.accounts.sample.signin.LeakWatcher;
+import com.google.android.gms.accounts.sample.signin.MetricsExporter;
+import com.google.android.gms.accounts.sample.signin.SessionJournal;
+import com.google.android.gms.accounts.sample.signin.SignInStateStore;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+
+/**
+ * Starts loading the state the first Activity needs as soon as the process is created, so that
+ * it is usually in memory by the time {@link MainActivity#onCreate} runs.
+ */
+public class SampleApplication extends Application {
+
+    /**
+     * How long sign in state changes are collected before they are written to disk.
+     */
+    private static final long SIGN_IN_STATE_BATCH_WINDOW_MS = 250;
+
+    /**
+     * The session journal file in the app's files directory. Replay it on a computer with
+     * {@code ./gradlew :signin:replayJournal}.
+     */
+    static final String JOURNAL_FILE = "session.journal";
+
+    private BatchingSignInStateStore mSignInStateStore;
+    private ProfileCache mProfileCache;
+    private ConnectionMetrics mConnectionMetrics;
+    private MetricsExporter mMetricsExporter;
+    private SessionJournal mSessionJournal;
+    private final LeakWatcher mLeakWatcher = new LeakWatcher();
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mSignInStateStore = new BatchingSignInStateStore(new SharedPreferencesBackend(this),
+                Executors.newSingleThreadScheduledExecutor(), SIGN_IN_STATE_BATCH_WINDOW_MS);
+        mSignInStateStore.preload();
+        IdentitySnapshotStore snapshotStore = IdentitySnapshotStore.getInstance(this);
+        snapshotStore.preload();
+        mProfileCache = new ProfileCache(snapshotStore);
+
+        mConnectionMetrics = new ConnectionMetrics();
+        mMetricsExporter = new MetricsExporter(mConnectionMetrics,
+                new File(getFilesDir(), "connection_metrics.lp"),
+                ConnectionMetrics.tags("app", "automanage"),
+                Executors.newSingleThreadScheduledExecutor());
+        mMetricsExporter.start(MetricsExporter.DEFAULT_PERIOD_MS);
+
+        mSessionJournal = new SessionJournal(new File(getFilesDir(), JOURNAL_FILE),
+                SessionJournal.DEFAULT_MAX_BYTES, Executors.newSingleThreadExecutor());
+        mSessionJournal.openInBackground();
+    }
+
+    /**
+     * Returns the process wide store of whether the user was last signed in.
+     */
+    public SignInStateStore getSignInStateStore() {
+        return mSignInStateStore;
+    }
+
+    /**
+     * Returns the process wide cache of signed in users' profiles.
+     */
+    public ProfileCache getProfileCache() {
+        return mProfileCache;
+    }
+
+    /**
+     * Returns the process wide connection metrics.
+     */
+    public ConnectionMetrics getConnectionMetrics() {
+        return mConnectionMetrics;
+    }
+
+    /**
+     * Returns the exporter that writes the connection metrics to disk every minute.
+     */
+    public MetricsExporter getMetricsExporter() {
+        return mMetricsExporter;
+    }
+
+    /**
+     * Returns the journal of every connect, failure, resolution, sign in, sign out and
+     * revocation, kept on disk so field latency complaints can be investigated without verbose
+     * logging. It is mapped, and later rotated, in the background.
+     */
+    public SessionJournal getSessionJournal() {
+        return mSessionJournal;
+    }
+
+    /**
+     * Returns the watcher that reports destroyed Activities still in memory.
+     */
+    public LeakWatcher getLeakWatcher() {
+        return mLeakWatcher;
+    }
+}
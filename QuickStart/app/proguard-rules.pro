@@ -9,6 +9,19 @@
 
 # Add any project specific keep options here:
 
+# Keep line numbers so that crash reports from release builds can be retraced with the mapping
+# file, without keeping the source file names.
+-keepattributes SourceFile,LineNumberTable
+-renamesourcefileattribute SourceFile
+
+# Release builds leave out verbose, debug and info logging. The optimizing configuration set in
+# build.gradle also removes the string building for it where it has no side effects.
+-assumenosideeffects class android.util.Log {
+    public static int v(...);
+    public static int d(...);
+    public static int i(...);
+}
+
 # If your project uses WebView with JS, uncomment the following
 # and specify the fully qualified class name to the JavaScript interface
 # class:
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.accounts.sample.signin.LeakCycle;
+import com.google.android.gms.accounts.sample.signin.LeakWatcher;
+
+import android.app.Instrumentation;
+import android.content.pm.ActivityInfo;
+import android.test.ActivityInstrumentationTestCase2;
+
+/**
+ * Rotates {@link MainActivity}, signs in, signs out and revokes access over and over and checks
+ * that the {@link LeakWatcher} finds none of the destroyed Activities or clients still in memory
+ * and that the heap stays within a bound per destroyed object.
+ *
+ * With an account that already granted access the cycle really switches between signed in and
+ * signed out; otherwise each sign in stops at the resolution, which the test cancels.
+ */
+public class LeakTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    private static final int CYCLES = 20;
+    /** Each cycle destroys at least the Activity it rotates away. */
+    private static final int MIN_WATCHES_PER_CYCLE = 1;
+    private static final long MAX_HEAP_GROWTH_PER_WATCH = 64 * 1024;
+    private static final long RECREATE_TIMEOUT_MS = 5 * 1000;
+
+    private int mOrientation = ActivityInfo.SCREEN_ORIENTATION_PORTRAIT;
+
+    public LeakTest() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getActivity().setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED);
+        super.tearDown();
+    }
+
+    public void testCyclesDoNotLeak() throws Exception {
+        LeakWatcher watcher = ((SampleApplication) getActivity().getApplication()).getLeakWatcher();
+        getInstrumentation().waitForIdleSync();
+
+        new LeakCycle(watcher, LeakWatcher.DEFAULT_GRACE_MS + 1000)
+                .addStep("rotate", new LeakCycle.Step() {
+                    @Override
+                    public void run() {
+                        rotate();
+                    }
+                })
+                .addStep("sign in", new Click(R.id.sign_in_button))
+                .addStep("sign out", new Click(R.id.sign_out_button))
+                .addStep("revoke access", new Click(R.id.revoke_access_button))
+                .run(CYCLES, MIN_WATCHES_PER_CYCLE, MAX_HEAP_GROWTH_PER_WATCH);
+    }
+
+    /**
+     * Switches between portrait and landscape and waits for the Activity that replaces the
+     * current one.
+     */
+    private void rotate() {
+        mOrientation = mOrientation == ActivityInfo.SCREEN_ORIENTATION_PORTRAIT
+                ? ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE
+                : ActivityInfo.SCREEN_ORIENTATION_PORTRAIT;
+        Instrumentation.ActivityMonitor monitor = new Instrumentation.ActivityMonitor(
+                MainActivity.class.getName(), null, false);
+        getInstrumentation().addMonitor(monitor);
+        try {
+            getActivity().setRequestedOrientation(mOrientation);
+            MainActivity recreated = (MainActivity) getInstrumentation()
+                    .waitForMonitorWithTimeout(monitor, RECREATE_TIMEOUT_MS);
+            assertNotNull("MainActivity was not recreated", recreated);
+            setActivity(recreated);
+            getInstrumentation().waitForIdleSync();
+        } finally {
+            getInstrumentation().removeMonitor(monitor);
+        }
+    }
+
+    /**
+     * Clicks a button of the current Activity and cancels any resolution the click started.
+     */
+    private final class Click implements LeakCycle.Step {
+        private final int mViewId;
+
+        Click(int viewId) {
+            mViewId = viewId;
+        }
+
+        @Override
+        public void run() {
+            final MainActivity activity = getActivity();
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    activity.findViewById(mViewId).performClick();
+                }
+            });
+            getInstrumentation().waitForIdleSync();
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    activity.finishActivity(MainActivity.RC_SIGN_IN);
+                }
+            });
+            getInstrumentation().waitForIdleSync();
+        }
+    }
+}
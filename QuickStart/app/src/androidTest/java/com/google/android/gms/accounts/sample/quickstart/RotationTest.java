@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import android.app.Instrumentation;
+import android.content.pm.ActivityInfo;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+
+/**
+ * Rotates {@link MainActivity} over and over and checks that no rotation connects to Google Play
+ * services again, whether the first connection succeeded or left a resolution waiting for a
+ * click on 'sign in'.
+ */
+public class RotationTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    private static final int ROTATIONS = 1000;
+    private static final long CONNECT_TIMEOUT_MS = 30 * 1000;
+    private static final long RECREATE_TIMEOUT_MS = 5 * 1000;
+
+    public RotationTest() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getActivity().setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_UNSPECIFIED);
+        super.tearDown();
+    }
+
+    public void testRotationsDoNotReconnect() {
+        MainActivity activity = getActivity();
+        waitForConnectionToSettle(activity);
+        GoogleApiClientPool pool = GoogleApiClientPool.getInstance(activity);
+        int connectsStarted = pool.getConnectsStarted();
+        int clientsBuilt = pool.getClientsBuilt();
+
+        for (int i = 0; i < ROTATIONS; i++) {
+            activity = rotate(activity, i % 2 == 0
+                    ? ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE
+                    : ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
+        }
+        getInstrumentation().waitForIdleSync();
+
+        assertEquals("connects started by " + ROTATIONS + " rotations",
+                connectsStarted, pool.getConnectsStarted());
+        assertEquals("clients built by " + ROTATIONS + " rotations",
+                clientsBuilt, pool.getClientsBuilt());
+    }
+
+    /**
+     * Requests the orientation and returns the Activity that replaces the given one.
+     */
+    private MainActivity rotate(MainActivity activity, int orientation) {
+        Instrumentation.ActivityMonitor monitor = new Instrumentation.ActivityMonitor(
+                MainActivity.class.getName(), null, false);
+        getInstrumentation().addMonitor(monitor);
+        try {
+            activity.setRequestedOrientation(orientation);
+            MainActivity recreated = (MainActivity) getInstrumentation()
+                    .waitForMonitorWithTimeout(monitor, RECREATE_TIMEOUT_MS);
+            assertNotNull("MainActivity was not recreated", recreated);
+            getInstrumentation().waitForIdleSync();
+            setActivity(recreated);
+            return recreated;
+        } finally {
+            getInstrumentation().removeMonitor(monitor);
+        }
+    }
+
+    /**
+     * Waits until the Activity's first connection either succeeds or fails.
+     */
+    private void waitForConnectionToSettle(final MainActivity activity) {
+        final boolean[] settled = new boolean[1];
+        long deadline = SystemClock.uptimeMillis() + CONNECT_TIMEOUT_MS;
+        while (SystemClock.uptimeMillis() < deadline) {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    settled[0] = activity.mGoogleApiClient != null
+                            && !activity.mGoogleApiClient.isConnecting();
+                }
+            });
+            if (settled[0]) {
+                return;
+            }
+            SystemClock.sleep(100);
+        }
+        fail("GoogleApiClient did not connect or fail within " + CONNECT_TIMEOUT_MS + "ms");
+    }
+}
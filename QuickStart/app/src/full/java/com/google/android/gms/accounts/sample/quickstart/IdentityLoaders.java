@@ -0,0 +1,87 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.plus.Plus;
+import com.google.android.gms.plus.model.people.Person;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * The full flavor's {@link IdentityLoader}, which signs in with the Plus API and shows the
+ * user's Google+ profile name. This is the only code that depends on play-services-plus.
+ */
+public final class IdentityLoaders {
+
+    private IdentityLoaders() {
+    }
+
+    public static IdentityLoader create(Context context) {
+        return new PlusIdentityLoader();
+    }
+
+    private static final class PlusIdentityLoader implements IdentityLoader {
+        @Override
+        public void load(GoogleApiClient client, Callback callback) {
+            // The connected client already holds the current person, so this does not block.
+            Person currentPerson = Plus.PeopleApi.getCurrentPerson(client);
+            if (currentPerson != null) {
+                callback.onIdentityLoaded(currentPerson.getId(), currentPerson.getDisplayName());
+            } else {
+                callback.onIdentityUnavailable();
+            }
+        }
+
+        @Override
+        public String getApiKey() {
+            return "Plus.API";
+        }
+
+        @Override
+        public void addApis(GoogleApiClient.Builder builder) {
+            builder.addApi(Plus.API);
+        }
+
+        @Override
+        public PendingIntent getAccountChooser() {
+            // Google Play services lets the user choose the account as the resolution of
+            // SIGN_IN_REQUIRED.
+            return null;
+        }
+
+        @Override
+        public boolean onSignInResolved(Intent data) {
+            return false;
+        }
+
+        @Override
+        public void signOut(GoogleApiClient client) {
+            // We clear the default account on sign out so that Google Play Services will not
+            // return an onConnected callback without user interaction.
+            Plus.AccountApi.clearDefaultAccount(client);
+        }
+
+        @Override
+        public void revokeAccess(GoogleApiClient client) {
+            Plus.AccountApi.revokeAccessAndDisconnect(client);
+            Plus.AccountApi.clearDefaultAccount(client);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.android.gms.auth.GoogleAuthUtil;
+import com.google.android.gms.auth.UserRecoverableAuthException;
+import com.google.android.gms.common.AccountPicker;
+import com.google.android.gms.common.Scopes;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.identity.intents.Address;
+
+import android.accounts.AccountManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The lite flavor's {@link IdentityLoader}, which leaves play-services-plus out of the APK.
+ *
+ * The user picks the account with the {@link AccountPicker} and signs in by granting the app
+ * the profile scope through {@link GoogleAuthUtil}: the first token request for an account
+ * throws a {@link UserRecoverableAuthException} whose intent is the consent screen, and it is
+ * resolved like any other sign in error. The account is shown by its account name and keyed by
+ * its Google Account ID. Clients only carry the chosen account for the connection logic shared
+ * with the full flavor, with the Address API of play-services-identity as the smallest API that
+ * connects for an account.
+ *
+ * Looking the account up by name needs the GET_ACCOUNTS permission and revoking the grant goes
+ * to the OAuth 2.0 revocation endpoint, which needs INTERNET, so the lite manifest requests
+ * both where the full flavor leaves them to Google Play services.
+ */
+public final class IdentityLoaders {
+
+    private static final String PREFS_NAME = "identity";
+    private static final String PREF_ACCOUNT_NAME = "account_name";
+    private static final String PROFILE_SCOPE = "oauth2:" + Scopes.PROFILE;
+    private static final String REVOKE_URL = "https://accounts.google.com/o/oauth2/revoke?token=";
+
+    private static AccountIdLoader sInstance;
+
+    private IdentityLoaders() {
+    }
+
+    /**
+     * Returns the process wide loader, so that every Activity signs in to the same account.
+     */
+    public static synchronized IdentityLoader create(Context context) {
+        if (sInstance == null) {
+            sInstance = new AccountIdLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private static final class AccountIdLoader implements IdentityLoader {
+        private final Context mAppContext;
+        private final SharedPreferences mPrefs;
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+        // GoogleAuthUtil may go to the network and must not be called on the main thread. Token
+        // requests and revocations run one at a time, so a revocation never races the sign in.
+        private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+        private PendingIntent mAccountChooser;
+        // Whether the last load asked the user to grant access. Only used on the main thread.
+        private boolean mConsentRequested;
+
+        AccountIdLoader(Context appContext) {
+            mAppContext = appContext;
+            mPrefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        }
+
+        private String getAccountName() {
+            return mPrefs.getString(PREF_ACCOUNT_NAME, null);
+        }
+
+        @Override
+        public void load(GoogleApiClient client, Callback callback) {
+            final String accountName = getAccountName();
+            if (accountName == null) {
+                callback.onIdentityUnavailable();
+                return;
+            }
+            // The Activity owning the callback may be gone long before the lookup returns.
+            final WeakReference<Callback> callbackRef = new WeakReference<Callback>(callback);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    String accountId = null;
+                    Intent consent = null;
+                    try {
+                        // Returns straight away once the account granted the scope.
+                        GoogleAuthUtil.getToken(mAppContext, accountName, PROFILE_SCOPE);
+                        accountId = GoogleAuthUtil.getAccountId(mAppContext, accountName);
+                    } catch (UserRecoverableAuthException e) {
+                        consent = e.getIntent();
+                    } catch (GoogleAuthException e) {
+                        Log.w(MainActivity.TAG, "Could not get the account ID", e);
+                    } catch (IOException e) {
+                        Log.w(MainActivity.TAG, "Could not get the account ID", e);
+                    }
+                    postResult(callbackRef, accountName, accountId, consent);
+                }
+            });
+        }
+
+        private void postResult(final WeakReference<Callback> callbackRef,
+                final String accountName, final String accountId, final Intent consent) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Callback callback = callbackRef.get();
+                    if (callback == null) {
+                        return;
+                    }
+                    if (accountId != null) {
+                        callback.onIdentityLoaded(accountId, accountName);
+                    } else if (consent != null) {
+                        mConsentRequested = true;
+                        callback.onConsentRequired(PendingIntent.getActivity(mAppContext, 0,
+                                consent, PendingIntent.FLAG_UPDATE_CURRENT));
+                    } else {
+                        callback.onIdentityUnavailable();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public String getApiKey() {
+            return "Address.API";
+        }
+
+        @Override
+        public void addApis(GoogleApiClient.Builder builder) {
+            builder.addApi(Address.API, new Address.AddressOptions());
+            String accountName = getAccountName();
+            if (accountName != null) {
+                builder.setAccountName(accountName);
+            }
+        }
+
+        @Override
+        public PendingIntent getAccountChooser() {
+            if (getAccountName() != null) {
+                return null;
+            }
+            if (mAccountChooser == null) {
+                Intent intent = AccountPicker.newChooseAccountIntent(null, null,
+                        new String[] {GoogleAuthUtil.GOOGLE_ACCOUNT_TYPE}, false, null, null, null,
+                        null);
+                mAccountChooser = PendingIntent.getActivity(mAppContext, 0, intent,
+                        PendingIntent.FLAG_UPDATE_CURRENT);
+            }
+            return mAccountChooser;
+        }
+
+        @Override
+        public boolean onSignInResolved(Intent data) {
+            if (mConsentRequested) {
+                // The account granted access, so the next client can load its identity.
+                mConsentRequested = false;
+                return true;
+            }
+            String accountName = data != null
+                    ? data.getStringExtra(AccountManager.KEY_ACCOUNT_NAME) : null;
+            if (accountName == null || accountName.equals(getAccountName())) {
+                return false;
+            }
+            mPrefs.edit().putString(PREF_ACCOUNT_NAME, accountName).apply();
+            return true;
+        }
+
+        @Override
+        public void signOut(GoogleApiClient client) {
+            mConsentRequested = false;
+            mPrefs.edit().remove(PREF_ACCOUNT_NAME).apply();
+        }
+
+        @Override
+        public void revokeAccess(GoogleApiClient client) {
+            final String accountName = getAccountName();
+            signOut(client);
+            client.disconnect();
+            if (accountName == null) {
+                return;
+            }
+            // Revoking one token the account granted to the app revokes all of them.
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        String token = GoogleAuthUtil.getToken(mAppContext, accountName,
+                                PROFILE_SCOPE);
+                        HttpURLConnection connection = (HttpURLConnection) new URL(
+                                REVOKE_URL + URLEncoder.encode(token, "UTF-8")).openConnection();
+                        try {
+                            int responseCode = connection.getResponseCode();
+                            Log.i(MainActivity.TAG, "Revoked access: HTTP " + responseCode);
+                        } finally {
+                            connection.disconnect();
+                        }
+                        GoogleAuthUtil.clearToken(mAppContext, token);
+                    } catch (UserRecoverableAuthException e) {
+                        // Signing in grants the scope, so the account never finished signing in
+                        // or already revoked the grant elsewhere: there is nothing to revoke.
+                        Log.i(MainActivity.TAG, "No access to revoke for the account");
+                    } catch (GoogleAuthException e) {
+                        Log.w(MainActivity.TAG, "Could not revoke access", e);
+                    } catch (IOException e) {
+                        Log.w(MainActivity.TAG, "Could not revoke access", e);
+                    }
+                }
+            });
+        }
+    }
+}
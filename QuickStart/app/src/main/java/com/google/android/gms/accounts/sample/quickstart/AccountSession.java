@@ -0,0 +1,58 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Everything kept in memory for one signed in Google Account: its connected client, the cached
+ * profile and the scopes it granted. Sessions are keyed by the Google Account ID.
+ */
+public class AccountSession {
+
+    private final String mAccountId;
+    private final GoogleApiClient mClient;
+    private final String mDisplayName;
+    private final Set<String> mGrantedScopes;
+
+    public AccountSession(String accountId, GoogleApiClient client, String displayName,
+            Set<String> grantedScopes) {
+        mAccountId = accountId;
+        mClient = client;
+        mDisplayName = displayName;
+        mGrantedScopes = Collections.unmodifiableSet(new HashSet<String>(grantedScopes));
+    }
+
+    public String getAccountId() {
+        return mAccountId;
+    }
+
+    public GoogleApiClient getClient() {
+        return mClient;
+    }
+
+    public String getDisplayName() {
+        return mDisplayName;
+    }
+
+    public Set<String> getGrantedScopes() {
+        return mGrantedScopes;
+    }
+}
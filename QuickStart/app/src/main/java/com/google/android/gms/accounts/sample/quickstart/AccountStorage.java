@@ -0,0 +1,267 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Local storage partitioned by Google Account ID.
+ *
+ * Every account gets its own directory, so data can never leak from one account to the next and
+ * switching accounts never has to wipe anything synchronously. When a different account signs
+ * in, the partitions of accounts we no longer keep a session for are handed to the
+ * {@link UserDataPurger}, which moves each one out of the way with a single rename and deletes it
+ * in the background. The cost of a switch therefore does not depend on how much data the
+ * previous account stored.
+ *
+ * Partition directories are named after a hash of the account ID rather than the ID itself. The
+ * directory and the current account are looked up on a background thread started by
+ * {@link #getInstance(Context)}; a method called before that finishes waits for it.
+ */
+public class AccountStorage {
+
+    private static final String TAG = MainActivity.TAG;
+
+    private static final String ACCOUNTS_DIR = "accounts";
+    private static final String SHARED_PREFS = "GoogleAccountSampleStorage";
+    private static final String PREFS_CURRENT_ACCOUNT_ID = "CURRENT_ACCOUNT_ID";
+
+    private static AccountStorage sInstance;
+
+    private final Context mAppContext;
+    private final UserDataPurger mPurger;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private Future<?> mLoad;
+    private boolean mLoaded;
+    // Set by the load, and only read once it has finished.
+    private File mRoot;
+    private SharedPreferences mPrefs;
+    private String mLoadedAccountId;
+
+    private String mCurrentAccountId;
+    private int mSwitches;
+    private long mLastSwitchNanos;
+    private long mMaxSwitchNanos;
+
+    public static synchronized AccountStorage getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AccountStorage(context.getApplicationContext(),
+                    UserDataPurger.getInstance(context));
+            sInstance.preload();
+        }
+        return sInstance;
+    }
+
+    AccountStorage(Context appContext, UserDataPurger purger) {
+        mAppContext = appContext;
+        mPurger = purger;
+    }
+
+    /**
+     * Starts creating the storage directory and reading the current account on a background
+     * thread. Safe to call more than once.
+     */
+    public synchronized void preload() {
+        if (mLoad == null) {
+            mLoad = mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    mRoot = mAppContext.getDir(ACCOUNTS_DIR, Context.MODE_PRIVATE);
+                    mPrefs = mAppContext.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE);
+                    mLoadedAccountId = mPrefs.getString(PREFS_CURRENT_ACCOUNT_ID, null);
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits for {@link #preload()} unless it already finished. The load does not take the lock,
+     * so this is called with it held.
+     */
+    private void awaitLoadLocked() {
+        if (mLoaded) {
+            return;
+        }
+        preload();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mLoad.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Could not load account storage", e.getCause());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        mCurrentAccountId = mLoadedAccountId;
+        mLoaded = true;
+    }
+
+    /**
+     * Makes the account's partition the current one. If another account was current before,
+     * every partition except those of the new account and of {@code retainedAccountIds} is
+     * purged in the background.
+     *
+     * @param accountId the Google Account ID that just signed in
+     * @param retainedAccountIds accounts whose data should survive, such as accounts the user
+     *                           can switch back to without signing in again
+     * @return true if the current account changed
+     */
+    public synchronized boolean activate(String accountId, Collection<String> retainedAccountIds) {
+        awaitLoadLocked();
+        if (accountId.equals(mCurrentAccountId)) {
+            return false;
+        }
+        long start = System.nanoTime();
+        Set<String> retained = new HashSet<String>();
+        retained.add(getPartitionName(accountId));
+        for (String retainedAccountId : retainedAccountIds) {
+            retained.add(getPartitionName(retainedAccountId));
+        }
+        List<File> stale = new ArrayList<File>();
+        String[] partitions = mRoot.list();
+        if (partitions != null) {
+            for (String partition : partitions) {
+                if (!retained.contains(partition)) {
+                    stale.add(new File(mRoot, partition));
+                }
+            }
+        }
+        mPurger.purge(stale.toArray(new File[stale.size()]));
+
+        mCurrentAccountId = accountId;
+        mPrefs.edit().putString(PREFS_CURRENT_ACCOUNT_ID, accountId).apply();
+
+        long elapsed = System.nanoTime() - start;
+        mSwitches++;
+        mLastSwitchNanos = elapsed;
+        mMaxSwitchNanos = Math.max(mMaxSwitchNanos, elapsed);
+        Log.i(TAG, "Switched account storage, purging " + stale.size() + " partitions in "
+                + elapsed / 1000 + "us");
+        return true;
+    }
+
+    /**
+     * Purges an account's partition in the background, for example when the user revokes
+     * access. Close any files in the partition first.
+     */
+    public synchronized void purge(String accountId) {
+        awaitLoadLocked();
+        mPurger.purge(new File(mRoot, getPartitionName(accountId)));
+        if (accountId.equals(mCurrentAccountId)) {
+            mCurrentAccountId = null;
+            mPrefs.edit().remove(PREFS_CURRENT_ACCOUNT_ID).apply();
+        }
+    }
+
+    /**
+     * Leaves no account current but keeps the partition, for example when the user signs out of
+     * an account they can switch back to. The partition is purged the next time a different
+     * account signs in, unless that account is still retained then.
+     */
+    public synchronized void deactivate() {
+        awaitLoadLocked();
+        if (mCurrentAccountId != null) {
+            mCurrentAccountId = null;
+            mPrefs.edit().remove(PREFS_CURRENT_ACCOUNT_ID).apply();
+        }
+    }
+
+    /**
+     * Returns the ID of the account whose partition is current, or null.
+     */
+    public synchronized String getCurrentAccountId() {
+        awaitLoadLocked();
+        return mCurrentAccountId;
+    }
+
+    /**
+     * Returns the current account's partition directory, creating it if needed, or null if no
+     * account is current.
+     */
+    public synchronized File getCurrentDir() {
+        awaitLoadLocked();
+        if (mCurrentAccountId == null) {
+            return null;
+        }
+        File dir = new File(mRoot, getPartitionName(mCurrentAccountId));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Returns a file in the current account's partition, or null if no account is current.
+     */
+    public synchronized File getFile(String name) {
+        File dir = getCurrentDir();
+        return dir != null ? new File(dir, name) : null;
+    }
+
+    /**
+     * Writes the account switch latencies, for {@code adb shell dumpsys activity}.
+     */
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("AccountStorage: switches=");
+        writer.print(mSwitches);
+        writer.print(" lastSwitchUs=");
+        writer.print(mLastSwitchNanos / 1000);
+        writer.print(" maxSwitchUs=");
+        writer.println(mMaxSwitchNanos / 1000);
+    }
+
+    private static String getPartitionName(String accountId) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(accountId.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
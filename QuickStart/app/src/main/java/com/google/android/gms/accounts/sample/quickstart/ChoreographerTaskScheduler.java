@@ -0,0 +1,80 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.accounts.sample.signin.TaskScheduler;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.HashMap;
+
+/**
+ * {@link TaskScheduler} that runs tasks at the start of a frame, before input, animation and
+ * layout, so that view updates made by a task are drawn in that frame. Requires API level 16;
+ * use a {@link HandlerTaskScheduler} on older devices.
+ *
+ * Must be created and used on the main thread.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class ChoreographerTaskScheduler implements TaskScheduler {
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+
+    /**
+     * One frame callback per task, reused so that scheduling does not allocate.
+     */
+    private final HashMap<Runnable, FrameTask> mFrameTasks = new HashMap<Runnable, FrameTask>();
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        FrameTask frameTask = mFrameTasks.get(task);
+        if (frameTask == null) {
+            frameTask = new FrameTask(task);
+            mFrameTasks.put(task, frameTask);
+        }
+        mChoreographer.postFrameCallbackDelayed(frameTask, delayMillis);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        FrameTask frameTask = mFrameTasks.get(task);
+        if (frameTask != null) {
+            mChoreographer.removeFrameCallback(frameTask);
+        }
+    }
+
+    private static final class FrameTask implements Choreographer.FrameCallback {
+        final Runnable task;
+
+        FrameTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            task.run();
+        }
+    }
+}
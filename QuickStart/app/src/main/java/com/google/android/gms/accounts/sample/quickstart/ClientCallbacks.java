@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.GoogleApiClient.ConnectionCallbacks;
+import com.google.android.gms.common.api.GoogleApiClient.OnConnectionFailedListener;
+
+import android.os.Bundle;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Registers an Activity for the callbacks of one pooled client at a time.
+ *
+ * Pooled clients outlive the Activities borrowing them, so a client that still has an Activity
+ * registered keeps the whole Activity and its views in memory. Attaching to a new client always
+ * unregisters from the previous one first, so replacing a client cannot leave callbacks behind,
+ * and the target is only held weakly in case the Activity goes away without detaching.
+ *
+ * @param <T> the type of the target, usually an Activity
+ */
+public class ClientCallbacks<T extends ConnectionCallbacks & OnConnectionFailedListener>
+        implements ConnectionCallbacks, OnConnectionFailedListener {
+
+    private final WeakReference<T> mTarget;
+    private GoogleApiClient mClient;
+
+    public ClientCallbacks(T target) {
+        mTarget = new WeakReference<T>(target);
+    }
+
+    /**
+     * Registers for the callbacks of the client, after unregistering from any previous one.
+     * Registering with a connected client delivers onConnected right away.
+     */
+    public void attach(GoogleApiClient client) {
+        if (client == mClient) {
+            return;
+        }
+        detach();
+        mClient = client;
+        client.registerConnectionCallbacks(this);
+        client.registerConnectionFailedListener(this);
+    }
+
+    /**
+     * Unregisters from the current client, if any.
+     */
+    public void detach() {
+        if (mClient == null) {
+            return;
+        }
+        mClient.unregisterConnectionCallbacks(this);
+        mClient.unregisterConnectionFailedListener(this);
+        mClient = null;
+    }
+
+    /**
+     * Returns the client the callbacks are registered with, or null.
+     */
+    public GoogleApiClient getClient() {
+        return mClient;
+    }
+
+    @Override
+    public void onConnected(Bundle connectionHint) {
+        T target = mTarget.get();
+        if (target != null) {
+            target.onConnected(connectionHint);
+        } else {
+            detach();
+        }
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        T target = mTarget.get();
+        if (target != null) {
+            target.onConnectionSuspended(cause);
+        } else {
+            detach();
+        }
+    }
+
+    @Override
+    public void onConnectionFailed(ConnectionResult result) {
+        T target = mTarget.get();
+        if (target != null) {
+            target.onConnectionFailed(result);
+        } else {
+            detach();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * Process wide pool of GoogleApiClient instances.
+ *
+ * Building and connecting a GoogleApiClient binds to Google Play services and performs a
+ * handshake, which is wasted work when an Activity is simply recreated after a rotation or when
+ * the user moves between screens that use the same APIs. Activities borrow a client with
+ * {@link #acquire(String, ClientFactory)} and hand it back with
+ * {@link #release(String, GoogleApiClient)}. Clients are keyed by the set of APIs and scopes they
+ * were built with and are only disconnected once nobody has borrowed them for
+ * {@link #DEFAULT_IDLE_TIMEOUT_MS}.
+ *
+ * Pooled clients are built with the application context, so Activities must register their own
+ * callbacks with {@link GoogleApiClient#registerConnectionCallbacks} and unregister them before
+ * releasing the client. All methods are expected to be called from the main thread.
+ */
+public class GoogleApiClientPool {
+
+    /**
+     * How long an unused client stays connected before it is disconnected.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30 * 1000;
+
+    /**
+     * Builds a new, un-connected client for a key the pool has not seen yet.
+     */
+    public interface ClientFactory {
+        GoogleApiClient create(Context appContext);
+    }
+
+    private static GoogleApiClientPool sInstance;
+
+    private final Context mAppContext;
+    private final Handler mHandler;
+    private final long mIdleTimeoutMs;
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+
+    private int mClientsBuilt;
+    private int mConnectsStarted;
+    private int mConnectsSaved;
+
+    public static synchronized GoogleApiClientPool getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new GoogleApiClientPool(context.getApplicationContext(),
+                    DEFAULT_IDLE_TIMEOUT_MS);
+        }
+        return sInstance;
+    }
+
+    GoogleApiClientPool(Context appContext, long idleTimeoutMs) {
+        mAppContext = appContext;
+        mHandler = new Handler(Looper.getMainLooper());
+        mIdleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * Borrows the client for the given key, building it with the factory if the pool does not
+     * hold one yet. Every call must be balanced with a call to {@link #release}.
+     *
+     * @param key identifies the APIs and scopes the client was built with
+     * @param factory used to build the client if it is not pooled
+     * @return a client which may already be connected
+     */
+    public synchronized GoogleApiClient acquire(String key, ClientFactory factory) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, factory.create(mAppContext));
+            mEntries.put(key, entry);
+            mClientsBuilt++;
+        }
+        mHandler.removeCallbacks(entry);
+        entry.refCount++;
+        return entry.client;
+    }
+
+    /**
+     * Returns a borrowed client to the pool. When the last borrower releases the client it is
+     * kept connected for the idle timeout so that a new Activity can pick it up again.
+     */
+    public synchronized void release(String key, GoogleApiClient client) {
+        Entry entry = mEntries.get(key);
+        if (entry == null || entry.client != client) {
+            // The client was invalidated while it was borrowed and has already been disconnected.
+            return;
+        }
+        if (--entry.refCount <= 0) {
+            entry.refCount = 0;
+            mHandler.postDelayed(entry, mIdleTimeoutMs);
+        }
+    }
+
+    /**
+     * Disconnects and drops the pooled client for the given key, for example after the user
+     * signs out or revokes access. Current borrowers keep their reference until they release it
+     * but subsequent calls to {@link #acquire} build a new client.
+     */
+    public synchronized void invalidate(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mHandler.removeCallbacks(entry);
+            entry.client.disconnect();
+        }
+    }
+
+    /**
+     * Removes a client from the pool without disconnecting it, handing ownership to the caller.
+     * Does nothing if the pool holds a different client for the key.
+     */
+    public synchronized void detach(String key, GoogleApiClient client) {
+        Entry entry = mEntries.get(key);
+        if (entry != null && entry.client == client) {
+            mHandler.removeCallbacks(entry);
+            mEntries.remove(key);
+        }
+    }
+
+    /**
+     * Puts a client owned by the caller into the pool under the given key and borrows it, as
+     * {@link #acquire} would. Any other client pooled for the key is disconnected.
+     */
+    public synchronized GoogleApiClient adopt(String key, GoogleApiClient client) {
+        Entry entry = mEntries.get(key);
+        if (entry == null || entry.client != client) {
+            invalidate(key);
+            entry = new Entry(key, client);
+            mEntries.put(key, entry);
+        }
+        mHandler.removeCallbacks(entry);
+        entry.refCount++;
+        return client;
+    }
+
+    /**
+     * Connects the client unless it is already connected or connecting.
+     */
+    public synchronized void connect(GoogleApiClient client) {
+        if (client.isConnected() || client.isConnecting()) {
+            mConnectsSaved++;
+        } else {
+            mConnectsStarted++;
+            client.connect();
+        }
+    }
+
+    /**
+     * Returns the number of times {@link #connect} found a warm client and skipped a new
+     * connection to Google Play services.
+     */
+    public synchronized int getConnectsSaved() {
+        return mConnectsSaved;
+    }
+
+    /**
+     * Returns the number of connections actually started through {@link #connect}.
+     */
+    public synchronized int getConnectsStarted() {
+        return mConnectsStarted;
+    }
+
+    /**
+     * Returns the number of clients the pool has built.
+     */
+    public synchronized int getClientsBuilt() {
+        return mClientsBuilt;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "GoogleApiClientPool{clients=" + mEntries.size()
+                + ", built=" + mClientsBuilt
+                + ", connectsStarted=" + mConnectsStarted
+                + ", connectsSaved=" + mConnectsSaved + "}";
+    }
+
+    private void disconnectIdle(Entry entry) {
+        synchronized (this) {
+            if (entry.refCount > 0 || mEntries.get(entry.key) != entry) {
+                return;
+            }
+            mEntries.remove(entry.key);
+        }
+        Log.i(MainActivity.TAG, "Disconnecting idle GoogleApiClient " + entry.key);
+        entry.client.disconnect();
+    }
+
+    /**
+     * A pooled client. Doubles as the idle disconnect task so no Runnable is allocated per
+     * release.
+     */
+    private class Entry implements Runnable {
+        final String key;
+        final GoogleApiClient client;
+        int refCount;
+
+        Entry(String key, GoogleApiClient client) {
+            this.key = key;
+            this.client = client;
+        }
+
+        @Override
+        public void run() {
+            disconnectIdle(this);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.accounts.sample.signin.TaskScheduler;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * {@link TaskScheduler} that runs tasks on a Handler's thread.
+ */
+public class HandlerTaskScheduler implements TaskScheduler {
+
+    private final Handler mHandler;
+
+    public HandlerTaskScheduler(Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        mHandler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        mHandler.removeCallbacks(task);
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+
+/**
+ * Signs clients in and finds out who signed in once a client connects.
+ *
+ * Each build flavor provides its own through {@code IdentityLoaders.create(Context)}, so that
+ * only the full flavor depends on play-services-plus: the full flavor signs in with the Plus API
+ * and reads the Google+ profile with the People API, while the lite flavor lets the user pick
+ * the account with the AccountPicker, asks it to grant the profile scope and only looks up the
+ * Google Account ID.
+ */
+public interface IdentityLoader {
+
+    /**
+     * Called on the main thread with the identity of the signed in account.
+     */
+    interface Callback {
+        /**
+         * @param accountId the Google Account ID, the key for any data kept for the account
+         * @param displayName the name to show for the account
+         */
+        void onIdentityLoaded(String accountId, String displayName);
+
+        /**
+         * The account has not granted the app access yet, so nobody is signed in. Resolve it
+         * like a sign in error; {@link #onSignInResolved} then asks for a new client.
+         *
+         * @param consent asks the user to grant access
+         */
+        void onConsentRequired(PendingIntent consent);
+
+        /**
+         * The identity could not be loaded, for example because the network is down.
+         */
+        void onIdentityUnavailable();
+    }
+
+    /**
+     * Loads the identity of the account the client is connected with. A loader that finishes
+     * later only holds the callback weakly, so the caller must keep a reference to it until then.
+     *
+     * @param client a connected client
+     */
+    void load(GoogleApiClient client, Callback callback);
+
+    /**
+     * Identifies the APIs {@link #addApis} adds, in the keys of pooled clients.
+     */
+    String getApiKey();
+
+    /**
+     * Adds the APIs a client signs in with, along with the account to sign in with if the loader
+     * chooses it rather than Google Play services.
+     */
+    void addApis(GoogleApiClient.Builder builder);
+
+    /**
+     * Returns an intent for the user to choose the account to sign in with, or null if an
+     * account is chosen. A client that connects while this returns an intent has not signed
+     * anybody in.
+     */
+    PendingIntent getAccountChooser();
+
+    /**
+     * Takes the result of a resolution the user completed, which may be the account chooser or
+     * the consent screen from {@link Callback#onConsentRequired}.
+     *
+     * @param data the result of the resolution, may be null
+     * @return true if the account to sign in with changed or just granted access, in which case
+     *         the current client has to be replaced
+     */
+    boolean onSignInResolved(Intent data);
+
+    /**
+     * Forgets the account, so that the next client does not connect without user interaction.
+     */
+    void signOut(GoogleApiClient client);
+
+    /**
+     * Revokes the access the account granted to the app, forgets the account and disconnects
+     * the client, which must then be replaced.
+     */
+    void revokeAccess(GoogleApiClient client);
+}
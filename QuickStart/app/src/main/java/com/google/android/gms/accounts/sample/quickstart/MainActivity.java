@@ -16,6 +16,16 @@
 
 package com.google.android.gms.accounts.sample.quickstart;
 
+import com.google.android.gms.accounts.sample.signin.ConnectionCoordinator;
+import com.google.android.gms.accounts.sample.signin.ConnectionMetrics;
+import com.google.android.gms.accounts.sample.signin.LeakWatcher;
+import com.google.android.gms.accounts.sample.signin.ReconnectScheduler;
+import com.google.android.gms.accounts.sample.signin.ResolutionCache;
+import com.google.android.gms.accounts.sample.signin.SessionJournal;
+import com.google.android.gms.accounts.sample.signin.SignInStateMachine;
+import com.google.android.gms.accounts.sample.signin.SignInStateStore;
+import com.google.android.gms.accounts.sample.signin.SignInViewRenderer;
+import com.google.android.gms.accounts.sample.signin.SignInViewState;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.common.Scopes;
@@ -24,22 +34,35 @@ import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.GoogleApiClient.ConnectionCallbacks;
 import com.google.android.gms.common.api.GoogleApiClient.OnConnectionFailedListener;
 import com.google.android.gms.common.api.Scope;
-import com.google.android.gms.plus.Plus;
-import com.google.android.gms.plus.model.people.Person;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.PendingIntent;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentSender.SendIntentException;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 import android.support.v4.app.FragmentActivity;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Google Play Services Accounts sample.
  *
@@ -60,17 +83,85 @@ import android.widget.TextView;
  * Detailed instructions can be found here: https://developers.google.com/+/quickstart/android
  */
 public class MainActivity extends FragmentActivity implements
-        ConnectionCallbacks, OnConnectionFailedListener, View.OnClickListener {
+        ConnectionCallbacks, OnConnectionFailedListener, View.OnClickListener,
+        SignInStateMachine.ConnectionPort, SignInStateMachine.UiPort<PendingIntent> {
 
     protected static final String TAG = "google-account-sample";
 
-    protected static final int STATE_DEFAULT = 0;
-    protected static final int STATE_SIGN_IN = 1;
-    protected static final int STATE_IN_PROGRESS = 2;
+    protected static final int STATE_DEFAULT = SignInStateMachine.STATE_DEFAULT;
+    protected static final int STATE_SIGN_IN = SignInStateMachine.STATE_SIGN_IN;
+    protected static final int STATE_IN_PROGRESS = SignInStateMachine.STATE_IN_PROGRESS;
     protected static final int RC_SIGN_IN = 0;
+
+    /**
+     * The error dialog for {@code ConnectionResult} error code N has the ID
+     * DIALOG_PLAY_SERVICES_ERROR + N, so the Activity builds and classifies each error's dialog
+     * once and shows the same one again if the error comes back.
+     */
     protected static final int DIALOG_PLAY_SERVICES_ERROR = 0;
+    protected static final int DIALOG_PLAY_SERVICES_ERROR_LAST =
+            DIALOG_PLAY_SERVICES_ERROR + ConnectionMetrics.MAX_ERROR_CODE;
+
+    /**
+     * Lists the parked sessions when the user clicks 'switch account', or 'sign in' while any are
+     * parked, so they can switch back to one.
+     */
+    protected static final int DIALOG_ACCOUNT_SWITCHER = DIALOG_PLAY_SERVICES_ERROR_LAST + 1;
+
     protected static final String SAVED_PROGRESS = "sign_in_progress";
 
+    /**
+     * Intent extras that override {@code R.bool.defer_client_until_idle} and
+     * {@code R.bool.prefetch_resolution} for one launch, for example
+     * {@code adb shell am start -W --ez defer_client_until_idle false <component>}.
+     */
+    public static final String EXTRA_DEFER_CLIENT_UNTIL_IDLE = "defer_client_until_idle";
+    public static final String EXTRA_PREFETCH_RESOLUTION = "prefetch_resolution";
+
+    /**
+     * The scopes every client is built with. Further scopes are requested incrementally with
+     * {@link #requestScopes(String...)} when a feature first needs them.
+     */
+    protected static final List<String> BASE_SCOPES = Collections.singletonList(Scopes.PROFILE);
+
+    /**
+     * Shares connected clients between Activity instances so that rotations and switching
+     * between screens do not reconnect to Google Play services.
+     */
+    protected GoogleApiClientPool mClientPool;
+
+    /**
+     * Keeps recently signed out accounts connected so switching back to them is instant.
+     */
+    protected SessionManager mSessionManager;
+
+    /**
+     * Remembers whether a user was signed in, see {@link #isSignedInHint()}.
+     */
+    protected SignInStateStore mSignInStateStore;
+
+    /**
+     * Remembers the scopes each account has granted so connects only ask for those.
+     */
+    protected ScopeAuthorizer mScopeAuthorizer;
+
+    /**
+     * Scopes requested through {@link #requestScopes(String...)} that have not been granted yet.
+     */
+    protected final Set<String> mRequestedScopes = new HashSet<String>();
+
+    /**
+     * The scopes the current client was built with and its key in the pool.
+     */
+    protected Set<String> mClientScopes;
+    protected String mClientKey;
+
+    /**
+     * Clients for APIs the app can work without. They connect alongside the sign in client, so
+     * an unavailable or slow optional API never delays sign in.
+     */
+    protected OptionalApiClients mOptionalApis;
+
     /**
      * GoogleApiClient wraps our service connection to Google Play Services and provides access
      * to the user's sign in state as well as the Google's APIs.
@@ -78,90 +169,487 @@ public class MainActivity extends FragmentActivity implements
     protected GoogleApiClient mGoogleApiClient;
 
     /**
-     * We use mSignInProgress to track whether user has clicked sign in. mSignInProgress can be
-     * one of three values:
-     * <p/>
-     * STATE_DEFAULT: The default state of the application before the user has clicked 'sign in',
-     * or after they have clicked 'sign out'.  In this state we will not attempt to resolve sign
-     * in errors so we will display our Activity in a signed out state.
-     *
-     * STATE_SIGN_IN: This state indicates that the user has clicked 'sign in', so resolve
-     * successive errors preventing sign in until the user has successfully authorized an account
-     * for our app.
-     *
-     * STATE_IN_PROGRESS: This state indicates that we have started an intent to resolve an
-     * error, and so we should not start further intents until the current intent completes.
+     * Registers this Activity for the callbacks of {@link #mGoogleApiClient}, and only that
+     * client, without the pool holding on to the Activity.
+     */
+    protected ClientCallbacks<MainActivity> mClientCallbacks;
+
+    /**
+     * Starts every connection of {@link #mGoogleApiClient}, so that the many places asking to
+     * connect share one attempt and rebuilding the client and connecting it cannot be split.
+     * Rebuilding swaps the client under this Activity's lock, so the Activity is always locked
+     * before the coordinator: only synchronized methods may ask it to rebuild.
+     */
+    protected ConnectionCoordinator<GoogleApiClient> mConnectionCoordinator;
+
+    /**
+     * Whether the GoogleApiClient is only built once the first frame is on screen. Turn it off to
+     * compare cold start times, see {@link #EXTRA_DEFER_CLIENT_UNTIL_IDLE}.
+     */
+    protected boolean mDeferClientUntilIdle;
+
+    /**
+     * Whether a signed out Activity still connects once the first frame is on screen, so that
+     * the account picker's resolution is ready before the user clicks 'sign in'. Turn it off to
+     * compare the tapToResolution latency in {@link SampleApplication#METRICS_FILE}, see
+     * {@link #EXTRA_PREFETCH_RESOLUTION}.
+     */
+    protected boolean mPrefetchResolution;
+
+    /**
+     * Builds and connects the client once the main thread has nothing left to do after drawing
+     * the first frame.
      */
-    protected int mSignInProgress;
+    private final MessageQueue.IdleHandler mStartClientWhenIdle = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            if (mGoogleApiClient == null) {
+                Log.i(TAG, "Starting GoogleApiClient "
+                        + (SystemClock.uptimeMillis() - mCreatedAtMs) + "ms after onCreate");
+                startGoogleApiClient();
+            }
+            return false;
+        }
+    };
+
+    private long mCreatedAtMs;
 
     /**
-     * Used to store the PendingIntent most recently returned by Google Play Services until the
-     * user clicks 'sign in'.
+     * Whether this Activity replaces one destroyed by a configuration change, in which case the
+     * pooled client is still connected and is picked up again straight away.
      */
-    protected PendingIntent mSignInIntent;
+    private boolean mRecreated;
 
     /**
-     * Used to store the error code most recently returned by Google Play Services until the user
+     * Tracks whether the user has clicked sign in and which errors still need to be resolved.
+     * See {@link SignInStateMachine} for the states it can be in. It also stores the
+     * PendingIntent and error code most recently returned by Google Play Services until the user
      * clicks 'sign in'.
      */
-    protected int mSignInError;
+    protected SignInStateMachine<PendingIntent> mSignInStateMachine;
+
+    /**
+     * Spaces out the reconnects requested by the sign in flow with exponential backoff so we do
+     * not spin while Google Play services is unavailable.
+     */
+    protected ReconnectScheduler mReconnectScheduler;
+
+    /**
+     * Resolutions by account and error code, kept so 'sign in' can start one without waiting.
+     */
+    protected ResolutionCache<PendingIntent> mResolutionCache;
+
+    /**
+     * A click on 'sign out' or 'revoke access' made while connecting, replayed once connected.
+     */
+    private int mQueuedClickId = View.NO_ID;
+
+    /**
+     * Deletes user data in the background when the user signs out or revokes access.
+     */
+    protected UserDataPurger mUserDataPurger;
+
+    /**
+     * Identifies the account of a new sign in, with the Google+ profile in the full flavor.
+     */
+    protected IdentityLoader mIdentityLoader;
+
+    /**
+     * The callback of the identity being loaded. Loaders only hold it weakly, so this Activity
+     * keeps it for as long as it is around.
+     */
+    private IdentityLoader.Callback mIdentityCallback;
+
+    /**
+     * Local storage partitioned by Google Account ID.
+     */
+    protected AccountStorage mAccountStorage;
+
+    /**
+     * The process wide collaborators owned by {@link SampleApplication}.
+     */
+    protected SignInTracer mSignInTracer;
+    protected ConnectionMetrics mConnectionMetrics;
+    protected SessionJournal mSessionJournal;
+    protected LeakWatcher mLeakWatcher;
 
     protected SignInButton mSignInButton;
     protected Button mSignOutButton;
+    protected Button mSwitchAccountButton;
     protected Button mRevokeButton;
     protected TextView mStatus;
 
+    /**
+     * Applies sign in state changes to the views above at most once per frame.
+     */
+    protected SignInViewRenderer mViewRenderer;
+    protected SignInViews mSignInViews;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mCreatedAtMs = SystemClock.uptimeMillis();
         setContentView(R.layout.main_activity);
 
+        SampleApplication application = (SampleApplication) getApplication();
+        mSignInTracer = application.getSignInTracer();
+        mConnectionMetrics = application.getConnectionMetrics();
+        mSessionJournal = application.getSessionJournal();
+        mLeakWatcher = application.getLeakWatcher();
+        mSignInStateStore = application.getSignInStateStore();
+        Intent intent = getIntent();
+        mDeferClientUntilIdle = intent.getBooleanExtra(EXTRA_DEFER_CLIENT_UNTIL_IDLE,
+                getResources().getBoolean(R.bool.defer_client_until_idle));
+        mPrefetchResolution = intent.getBooleanExtra(EXTRA_PREFETCH_RESOLUTION,
+                getResources().getBoolean(R.bool.prefetch_resolution));
+
         mSignInButton = (SignInButton) findViewById(R.id.sign_in_button);
         mSignOutButton = (Button) findViewById(R.id.sign_out_button);
+        mSwitchAccountButton = (Button) findViewById(R.id.switch_account_button);
         mRevokeButton = (Button) findViewById(R.id.revoke_access_button);
         mStatus = (TextView) findViewById(R.id.sign_in_status);
 
         mSignInButton.setOnClickListener(this);
         mSignOutButton.setOnClickListener(this);
+        mSwitchAccountButton.setOnClickListener(this);
         mRevokeButton.setOnClickListener(this);
 
-        if (savedInstanceState != null) {
-            mSignInProgress = savedInstanceState.getInt(SAVED_PROGRESS, STATE_DEFAULT);
+        mSignInViews = new SignInViews(getResources(), mSignInButton, mSignOutButton,
+                mSwitchAccountButton, mRevokeButton, mStatus);
+        mViewRenderer = new SignInViewRenderer(mSignInViews,
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                        ? new ChoreographerTaskScheduler()
+                        : new HandlerTaskScheduler(new Handler()));
+
+        mReconnectScheduler = new ReconnectScheduler(this, new HandlerTaskScheduler(new Handler()));
+        mSignInStateMachine = new SignInStateMachine<PendingIntent>(mReconnectScheduler, this);
+        mSignInStateMachine.setListener(new SignInStateMachine.Listener() {
+            @Override
+            public void onStateChanged(int oldState, int newState) {
+                mSignInTracer.transition(newState);
+            }
+        });
+        RetainedState retained = (RetainedState) getLastCustomNonConfigurationInstance();
+        if (retained != null) {
+            // A configuration change: pick up the sign in flow where the previous instance left
+            // it, including the resolution we would otherwise have to reconnect to get again.
+            mSignInStateMachine.restore(retained.state, retained.error, retained.resolution);
+            mRequestedScopes.addAll(retained.requestedScopes);
+            mResolutionCache = retained.resolutionCache;
+            mRecreated = true;
+        } else if (savedInstanceState != null) {
+            mSignInStateMachine.restoreState(
+                    savedInstanceState.getInt(SAVED_PROGRESS, STATE_DEFAULT));
+        }
+        if (savedInstanceState == null
+                || mSignInTracer.getPhase() != mSignInStateMachine.getState()) {
+            // A fresh start, or a restore in a process that has not traced the flow so far. A
+            // recreation in the same process keeps timing the phase in progress.
+            mSignInTracer.reset(mSignInStateMachine.getState());
+        }
+        if (mResolutionCache == null) {
+            mResolutionCache = new ResolutionCache<PendingIntent>(
+                    new HandlerTaskScheduler(new Handler()));
         }
+        mSignInStateMachine.setResolutionCache(mResolutionCache);
 
-        rebuildGoogleApiClient();
+        mClientPool = GoogleApiClientPool.getInstance(this);
+        mSessionManager = SessionManager.getInstance(this);
+        mScopeAuthorizer = new ScopeAuthorizer(this, BASE_SCOPES);
+        mUserDataPurger = UserDataPurger.getInstance(this);
+        mAccountStorage = AccountStorage.getInstance(this);
+        mIdentityLoader = IdentityLoaders.create(this);
+        mClientCallbacks = new ClientCallbacks<MainActivity>(this);
+        mConnectionCoordinator = new ConnectionCoordinator<GoogleApiClient>(
+                new ConnectionCoordinator.Connector<GoogleApiClient>() {
+                    @Override
+                    public GoogleApiClient rebuild() {
+                        // Taking the Activity's lock here, inside the coordinator's, could
+                        // deadlock with a thread that locked the Activity first.
+                        if (!Thread.holdsLock(MainActivity.this)) {
+                            throw new IllegalStateException(
+                                    "Lock the Activity before rebuilding through the coordinator");
+                        }
+                        return replaceGoogleApiClient();
+                    }
+
+                    @Override
+                    public void connect(GoogleApiClient client) {
+                        mConnectionMetrics.onConnectStarted();
+                        journal(SessionJournal.EVENT_CONNECT, 0);
+                        mClientPool.connect(client);
+                    }
+
+                    @Override
+                    public boolean isConnected(GoogleApiClient client) {
+                        return client.isConnected();
+                    }
+                });
+
+        mOptionalApis = new OptionalApiClients(this);
+        // TODO(developer): Add any APIs the app can work without here rather than to the sign in
+        // client, each with its own client, for example:
+        // mOptionalApis.add("Wearable.API", new GoogleApiClientPool.ClientFactory() {
+        //     @Override
+        //     public GoogleApiClient create(Context appContext) {
+        //         return new GoogleApiClient.Builder(appContext).addApi(Wearable.API).build();
+        //     }
+        // });
+        // Then check mOptionalApis.isAvailable("Wearable.API") or use mOptionalApis.await()
+        // before calling the API.
     }
 
     /**
-     * Construct a client.
-     *
-     * @return un-connected client.
+     * Borrow a client from the pool and register this Activity for its callbacks.
+     */
+    protected synchronized void acquireGoogleApiClient() {
+        borrowGoogleApiClient();
+        // A pooled client may already be connected and call back as soon as we register, so the
+        // coordinator has to know it first.
+        mConnectionCoordinator.setClient(mGoogleApiClient);
+        mClientCallbacks.attach(mGoogleApiClient);
+    }
+
+    /**
+     * Borrow a client from the pool for the current account and scopes.
+     */
+    private void borrowGoogleApiClient() {
+        // When we build the GoogleApiClient we specify which Google APIs our app uses and which
+        // OAuth 2.0 scopes our app requests. We only ask for the base scopes, the scopes the
+        // account granted before and the scopes a feature has just requested. The pool builds
+        // the client with the application context so we register for the connected and
+        // connection failed callbacks ourselves.
+        // Until an account is signed in we cannot tell which one the client will connect with,
+        // and it may not be the last one, so the client only asks for the base scopes and its
+        // resolutions and journal events belong to no account.
+        AccountSession active = mSessionManager.getActive();
+        String accountId = active != null ? active.getAccountId() : null;
+        final Set<String> scopes = mScopeAuthorizer.getClientScopes(accountId, mRequestedScopes);
+        mClientScopes = scopes;
+        mClientKey = ScopeAuthorizer.getClientKey(getClientApi(), scopes);
+        mSignInStateMachine.setAccountKey(accountId);
+        mSessionJournal.setAccount(accountId);
+        mGoogleApiClient = mClientPool.acquire(mClientKey, new GoogleApiClientPool.ClientFactory() {
+            @Override
+            public GoogleApiClient create(Context appContext) {
+                // TODO(developer): Specify any additional APIs you need here and in
+                // getClientApi(). The GoogleApiClient will ensure these APIs are available, and
+                // the Scopes are approved before invoking the onConnected callbacks. The build
+                // flavor adds the API to sign in with, see IdentityLoader.
+                GoogleApiClient.Builder builder = new GoogleApiClient.Builder(appContext);
+                mIdentityLoader.addApis(builder);
+                for (String scope : scopes) {
+                    builder.addScope(new Scope(scope));
+                }
+                return builder.build();
+            }
+        });
+    }
+
+    /**
+     * Identifies the APIs our client is built with in the {@link GoogleApiClientPool} key.
+     */
+    protected String getClientApi() {
+        return mIdentityLoader.getApiKey();
+    }
+
+    /**
+     * Unregister this Activity's callbacks and hand the client back to the pool.
+     */
+    protected synchronized void releaseGoogleApiClient() {
+        if (mGoogleApiClient == null) {
+            return;
+        }
+        mClientCallbacks.detach();
+        mClientPool.release(mClientKey, mGoogleApiClient);
+    }
+
+    /**
+     * Discard the current client and borrow a new, un-connected one.
      */
     protected synchronized void rebuildGoogleApiClient() {
-        // When we build the GoogleApiClient we specify where connected and connection failed
-        // callbacks should be returned, which Google APIs our app uses and which OAuth 2.0
-        // scopes our app requests.
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .addApi(Plus.API)
-                .addScope(new Scope(Scopes.PROFILE))
-                // TODO(developer): Specify any additional API Scopes or APIs you need here.
-                // The GoogleApiClient will ensure these APIs are available, and the Scopes
-                // are approved before invoking the onConnected callbacks.
-                .build();
+        mConnectionCoordinator.setClient(replaceGoogleApiClient());
+    }
+
+    /**
+     * Discard the current client and borrow a new, un-connected one registered for callbacks,
+     * without making it the coordinator's client. The coordinator's connector uses this to
+     * rebuild, and makes the client current itself.
+     */
+    private synchronized GoogleApiClient replaceGoogleApiClient() {
+        GoogleApiClient discarded = mGoogleApiClient;
+        releaseGoogleApiClient();
+        mClientPool.invalidate(mClientKey);
+        borrowGoogleApiClient();
+        // The pool just built the client, so it cannot call back before the coordinator knows
+        // about it.
+        mClientCallbacks.attach(mGoogleApiClient);
+        if (discarded != null && discarded != mGoogleApiClient) {
+            // Nothing should hold on to a client once it has been replaced.
+            mLeakWatcher.watch(discarded, "GoogleApiClient " + Integer.toHexString(
+                    System.identityHashCode(discarded)));
+        }
+        return mGoogleApiClient;
+    }
+
+    /**
+     * Leave the active account by parking its session, which keeps its client connected so
+     * that {@link #switchToAccount(String)} can return to it, and borrow a new client for the
+     * next sign in. Only 'switch account' parks; 'sign out' disconnects.
+     */
+    protected synchronized void parkGoogleApiClient() {
+        if (!mSessionManager.isActiveClient(mGoogleApiClient)) {
+            rebuildGoogleApiClient();
+            return;
+        }
+        mSessionManager.parkActive();
+        releaseGoogleApiClient();
+        mClientPool.detach(mClientKey, mGoogleApiClient);
+        acquireGoogleApiClient();
+    }
+
+    /**
+     * Switch to a recently used account without reconnecting to Google Play services. The
+     * account switcher shown on 'switch account' and 'sign in' calls this with one of the parked
+     * sessions.
+     *
+     * @return false if the account has no session to return to
+     */
+    protected synchronized boolean switchToAccount(String accountId) {
+        AccountSession active = mSessionManager.getActive();
+        if (active != null && active.getAccountId().equals(accountId)) {
+            return true;
+        }
+        if (mSessionManager.switchTo(accountId) == null) {
+            return false;
+        }
+        // The session we leave is still remembered by the session manager, so take its client
+        // out of the pool before the pool disconnects it.
+        releaseGoogleApiClient();
+        if (active != null) {
+            mClientPool.detach(mClientKey, active.getClient());
+        }
+        AccountSession session = mSessionManager.getActive();
+        mClientScopes = session.getGrantedScopes();
+        mClientKey = ScopeAuthorizer.getClientKey(getClientApi(), mClientScopes);
+        mSignInStateMachine.setAccountKey(accountId);
+        mSessionJournal.setAccount(accountId);
+        mGoogleApiClient = mClientPool.adopt(mClientKey, session.getClient());
+        mConnectionCoordinator.setClient(mGoogleApiClient);
+        // The client is connected, so registering delivers onConnected right away.
+        mClientCallbacks.attach(mGoogleApiClient);
+        return true;
+    }
+
+    /**
+     * Make sure the signed in account has granted the given scopes, asking for them if it has
+     * not. Asking replaces the client with one that also requests the new scopes and shows the
+     * consent screen; onConnected is called once the user approves.
+     *
+     * TODO(developer): Call this the first time a feature needs a scope beyond BASE_SCOPES,
+     * for example requestScopes(Scopes.DRIVE_FILE).
+     *
+     * @return true if the scopes are already granted and the client is connected
+     */
+    protected boolean requestScopes(String... scopes) {
+        List<String> requested = Arrays.asList(scopes);
+        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()
+                && mClientScopes.containsAll(requested)) {
+            return true;
+        }
+        mRequestedScopes.addAll(requested);
+        mSignInStateMachine.onAuthorizationRequested();
+        rebuildAndConnectGoogleApiClient();
+        return false;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mViewRenderer.cancel();
+        mLeakWatcher.watch(this, "MainActivity " + Integer.toHexString(
+                System.identityHashCode(this)));
     }
 
     @Override
     protected void onStart() {
         super.onStart();
-        mGoogleApiClient.connect();
+        if (mRecreated && mSignInStateMachine.getResolution() != null) {
+            // The previous instance could not connect and retained the resolution for a click on
+            // 'sign in', or is waiting for its result, so connecting again would only return the
+            // same error.
+            mRecreated = false;
+            acquireGoogleApiClient();
+            mOptionalApis.connect();
+            onSignedOut();
+        } else if (!mDeferClientUntilIdle || mRecreated) {
+            // After a configuration change the pool still holds our connected client, so this is
+            // cheap and avoids showing the signed out state for a frame.
+            mRecreated = false;
+            startGoogleApiClient();
+        } else if (isSignedInHint()
+                || mSignInStateMachine.getState() != SignInStateMachine.STATE_DEFAULT) {
+            // Building the client and binding to Google Play services would delay the first
+            // frame, so pre-warm the connection as soon as it is on screen instead.
+            Looper.myQueue().addIdleHandler(mStartClientWhenIdle);
+        } else {
+            // Nobody was signed in, so the client can only fail to connect. Show the signed out
+            // state straight away and, once the first frame is drawn, connect anyway to get the
+            // account picker's resolution ready for a click on 'sign in'.
+            mViewRenderer.render(SignInViewState.SIGNED_OUT);
+            if (mPrefetchResolution) {
+                Looper.myQueue().addIdleHandler(mStartClientWhenIdle);
+            }
+        }
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        mGoogleApiClient.disconnect();
+        Looper.myQueue().removeIdleHandler(mStartClientWhenIdle);
+        mOptionalApis.disconnect();
+        mReconnectScheduler.cancel();
+        releaseGoogleApiClient();
+        mGoogleApiClient = null;
+        mConnectionCoordinator.setClient(null);
+        // The process may be killed once we are in the background, so write what we have.
+        ((SampleApplication) getApplication()).getMetricsExporter().flush();
+    }
+
+    /**
+     * Borrow the client and connect it, along with the optional API clients.
+     */
+    protected void startGoogleApiClient() {
+        acquireGoogleApiClient();
+        // A client kept warm by the pool delivers onConnected as soon as we register for it, so
+        // this only starts a new connection when the pool had nothing connected for us.
+        connectGoogleApiClient();
+        mOptionalApis.connect();
+    }
+
+    /**
+     * Connect the client unless it is already connected or connecting.
+     */
+    protected void connectGoogleApiClient() {
+        mConnectionCoordinator.connect();
+    }
+
+    /**
+     * Discard the current client and connect a new one, with no other connect in between. The
+     * Activity is locked before the coordinator, as in {@link #acquireGoogleApiClient()}.
+     */
+    protected synchronized void rebuildAndConnectGoogleApiClient() {
+        mConnectionCoordinator.rebuildAndConnect();
+    }
+
+    /**
+     * Returns whether a user was signed in when the app last ran, in which case the client is
+     * likely to connect without any user interaction.
+     */
+    protected boolean isSignedInHint() {
+        // Set when an account signs in and cleared when the user signs out, switches accounts or
+        // revokes access. It is usually in memory by now; only if it is not does this wait.
+        return mSignInStateStore.isSignedIn();
     }
 
     /**
@@ -169,46 +657,153 @@ public class MainActivity extends FragmentActivity implements
      */
     protected void deleteUserData() {
         // This sample caches no user data however we would normally delete user data so that we
-        // comply with Google developer policies.
+        // comply with Google developer policies. The purger moves the data out of the way at once
+        // and deletes it on a background thread, so this is safe to call from onClick.
+        // TODO(developer): Close any files you keep in mAccountStorage first.
+        AccountSession active = mSessionManager.getActive();
+        if (active != null) {
+            mAccountStorage.purge(active.getAccountId());
+        }
+    }
+
+    /**
+     * Appends an event to the session journal, along with the current sign in state.
+     */
+    private void journal(int event, int code) {
+        mSessionJournal.append(event, mSignInStateMachine.getState(), code);
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        mSignInTracer.dump(prefix, writer);
+        writer.print(prefix);
+        writer.println(mClientPool);
+        writer.print(prefix);
+        writer.println(mConnectionCoordinator);
+        writer.print(prefix);
+        writer.println(mResolutionCache);
+        mSignInViews.dump(prefix, writer, mViewRenderer);
+        mUserDataPurger.dump(prefix, writer);
+        mAccountStorage.dump(prefix, writer);
+        writer.print(prefix);
+        writer.println(mSignInStateStore);
+        // Dumps are rare, so they can afford the garbage collection that finding leaks takes.
+        List<String> retained = mLeakWatcher.check();
+        writer.print(prefix);
+        writer.println(mLeakWatcher);
+        for (String leak : retained) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.println(leak);
+        }
+        writer.print(prefix);
+        writer.println(mSessionJournal);
+    }
+
+    /**
+     * Hands the sign in flow to the Activity that replaces this one after a configuration change.
+     * The client itself survives in the pool, so only plain state is retained and no View or
+     * Activity is leaked.
+     */
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return new RetainedState(mSignInStateMachine.getState(), mSignInStateMachine.getError(),
+                mSignInStateMachine.getResolution(), mRequestedScopes, mResolutionCache);
     }
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putInt(SAVED_PROGRESS, mSignInProgress);
+        outState.putInt(SAVED_PROGRESS, mSignInStateMachine.getState());
     }
 
     @Override
     public void onClick(View view) {
-        if (!mGoogleApiClient.isConnecting()) {
-            // We only process button clicks when GoogleApiClient is not transitioning between
-            // connected and not connected.
+        if (view.getId() == R.id.sign_in_button) {
+            mConnectionMetrics.onSignInClicked();
+            journal(SessionJournal.EVENT_SIGN_IN_CLICKED, 0);
+            if (mSessionManager.getActive() == null && !mSessionManager.getParked().isEmpty()) {
+                // Offer the accounts the user switched away from before a new sign in.
+                removeDialog(DIALOG_ACCOUNT_SWITCHER);
+                showDialog(DIALOG_ACCOUNT_SWITCHER);
+            } else {
+                signIn();
+            }
+            return;
+        }
+        if (mGoogleApiClient == null) {
+            return;
+        }
+        if (mGoogleApiClient.isConnecting()) {
+            // GoogleApiClient is transitioning between connected and not connected, so act on
+            // the click once it is done rather than dropping it.
+            mQueuedClickId = view.getId();
+        } else {
             switch (view.getId()) {
-                case R.id.sign_in_button:
-                    mStatus.setText(R.string.status_signing_in);
-                    resolveSignInError();
-                    break;
                 case R.id.sign_out_button:
-                    // We clear the default account on sign out so that Google Play Services will
-                    // not return an onConnected callback without user interaction.
-                    deleteUserData();
-                    Plus.AccountApi.clearDefaultAccount(mGoogleApiClient);
-                    rebuildGoogleApiClient();
-                    mGoogleApiClient.connect();
+                    // The account is forgotten on sign out so that Google Play Services will
+                    // not return an onConnected callback without user interaction. Its session
+                    // is dropped and its client disconnected, so nothing stays signed in for
+                    // the next person to use the device.
+                    journal(SessionJournal.EVENT_SIGNED_OUT, 0);
+                    mSignInStateStore.setSignedIn(false);
+                    mAccountStorage.deactivate();
+                    AccountSession signedOut = mSessionManager.getActive();
+                    if (signedOut != null) {
+                        mSessionManager.remove(signedOut.getAccountId());
+                    }
+                    mIdentityLoader.signOut(mGoogleApiClient);
+                    rebuildAndConnectGoogleApiClient();
+                    break;
+                case R.id.switch_account_button:
+                    // Like signing out, except that the session is parked so the user can
+                    // switch back to it without reconnecting. Its data stays until the session
+                    // is evicted.
+                    journal(SessionJournal.EVENT_SIGNED_OUT, 0);
+                    mSignInStateStore.setSignedIn(false);
+                    mAccountStorage.deactivate();
+                    mIdentityLoader.signOut(mGoogleApiClient);
+                    parkGoogleApiClient();
+                    connectGoogleApiClient();
+                    removeDialog(DIALOG_ACCOUNT_SWITCHER);
+                    showDialog(DIALOG_ACCOUNT_SWITCHER);
                     break;
                 case R.id.revoke_access_button:
                     // After we revoke permissions for the user with a GoogleApiClient instance,
                     // we must discard it and create a new one.
+                    journal(SessionJournal.EVENT_REVOKED, 0);
+                    mSignInStateStore.setSignedIn(false);
                     deleteUserData();
-                    Plus.AccountApi.revokeAccessAndDisconnect(mGoogleApiClient);
-                    Plus.AccountApi.clearDefaultAccount(mGoogleApiClient);
-                    rebuildGoogleApiClient();
-                    mGoogleApiClient.connect();
+                    AccountSession revoked = mSessionManager.getActive();
+                    if (revoked != null) {
+                        mSessionManager.remove(revoked.getAccountId());
+                        mScopeAuthorizer.forget(revoked.getAccountId());
+                    }
+                    mIdentityLoader.revokeAccess(mGoogleApiClient);
+                    rebuildAndConnectGoogleApiClient();
                     break;
             }
         }
     }
 
+    /**
+     * Start signing in, with whichever account the user picks if no client is connected yet.
+     */
+    private void signIn() {
+        mViewRenderer.render(SignInViewState.SIGNING_IN);
+        if (mGoogleApiClient == null) {
+            // The client was not started because nobody was signed in. Connect now and
+            // resolve whatever error comes back as if 'sign in' had been clicked with it.
+            mSignInStateMachine.onAuthorizationRequested();
+            startGoogleApiClient();
+        } else {
+            // While GoogleApiClient is connecting, the state machine resolves the failure as soon
+            // as it arrives.
+            mSignInStateMachine.onSignInClicked();
+        }
+    }
+
     /**
      * Called when the Activity successfully connects to Google Play Services. When the function
      * is triggered, an account was selected on the device, the selected account has granted
@@ -223,25 +818,96 @@ public class MainActivity extends FragmentActivity implements
         // specified are available.
         Log.i(TAG, "onConnected");
 
+        PendingIntent accountChooser = mIdentityLoader.getAccountChooser();
+        if (accountChooser != null) {
+            // The client connected without an account, so nobody is signed in yet. Treat it as a
+            // failed sign in whose resolution lets the user choose the account.
+            onSignInFailed(ConnectionResult.SIGN_IN_REQUIRED, accountChooser);
+            return;
+        }
+
         // IMPORTANT NOTE: If you are storing any user data locally or even in a remote
         // application DO NOT associate it to the accountName (which is also an email address).
         // Associate the user data to the Google Account ID. Under some circumstances it is possible
         // for a Google Account to have the primary email address change.
 
-        Person currentPerson = Plus.PeopleApi.getCurrentPerson(mGoogleApiClient);
+        AccountSession session = mSessionManager.getActive();
+        if (session != null && session.getClient() == mGoogleApiClient) {
+            onSignedIn(session);
+        } else {
+            // A new sign in rather than a switch back to a session we already know. The build
+            // flavor decides how the account is identified, see IdentityLoader.
+            final GoogleApiClient client = mGoogleApiClient;
+            final boolean signingIn = mSignInStateMachine.getState() == STATE_SIGN_IN;
+            mIdentityCallback = new IdentityLoader.Callback() {
+                @Override
+                public void onIdentityLoaded(String accountId, String displayName) {
+                    if (client != mGoogleApiClient || !client.isConnected()) {
+                        // Signed out or switched accounts while the identity was loading.
+                        return;
+                    }
+                    AccountSession session = new AccountSession(accountId, client, displayName,
+                            mClientScopes);
+                    mSessionManager.activate(session);
+                    onSignedIn(session);
+                }
 
-        // TODO(developer): Check the account ID against any previous login locally.
-        // TODO(developer): Delete the local data if the account ID differs.
-        // TODO(developer): Construct local storage keyed on the account ID.
+                @Override
+                public void onConsentRequired(PendingIntent consent) {
+                    if (client != mGoogleApiClient) {
+                        return;
+                    }
+                    if (signingIn) {
+                        // The user clicked 'sign in' for this client, so show the consent
+                        // screen straight away rather than wait for another click.
+                        mSignInStateMachine.onAuthorizationRequested();
+                    }
+                    onSignInFailed(ConnectionResult.SIGN_IN_REQUIRED, consent);
+                }
 
-        mStatus.setText(String.format(getResources().getString(R.string
-                .signed_in_as), currentPerson.getDisplayName()));
-        mSignInButton.setEnabled(false);
-        mSignOutButton.setEnabled(true);
-        mRevokeButton.setEnabled(true);
+                @Override
+                public void onIdentityUnavailable() {
+                    Log.w(TAG, "Connected but could not identify the account");
+                    if (client == mGoogleApiClient) {
+                        onSignedOut();
+                    }
+                }
+            };
+            mIdentityLoader.load(client, mIdentityCallback);
+        }
 
         // Indicate that the sign in process is complete.
-        mSignInProgress = STATE_DEFAULT;
+        mConnectionCoordinator.onConnected(mGoogleApiClient);
+        mConnectionMetrics.onConnected();
+        journal(SessionJournal.EVENT_CONNECTED, 0);
+        mReconnectScheduler.onConnected();
+        mSignInStateMachine.onConnected();
+
+        if (mQueuedClickId != View.NO_ID) {
+            View queued = findViewById(mQueuedClickId);
+            mQueuedClickId = View.NO_ID;
+            onClick(queued);
+        }
+    }
+
+    /**
+     * Shows the account of a connected client as signed in and keeps its scopes and local data.
+     */
+    protected void onSignedIn(AccountSession session) {
+        mSessionJournal.setAccount(session.getAccountId());
+        mSignInStateStore.setSignedIn(true);
+        // Connecting means every scope the client asked for was granted, so later connects can
+        // ask for them up front without another consent screen.
+        mScopeAuthorizer.onConnected(session.getAccountId(), mClientScopes);
+        mRequestedScopes.clear();
+
+        // Keep local data keyed on the account ID. If a different account signed in before, its
+        // data is deleted in the background unless we keep a session to switch back to it.
+        // Store the user's data under mAccountStorage.getCurrentDir().
+        mAccountStorage.activate(session.getAccountId(), mSessionManager.getAccountIds());
+
+        mViewRenderer.render(SignInViewState.signedIn(session.getDisplayName(),
+                mViewRenderer.getState()));
     }
 
     /**
@@ -258,84 +924,99 @@ public class MainActivity extends FragmentActivity implements
         Log.i(TAG, "onConnectionFailed: ConnectionResult.getErrorCode() = "
                 + result.getErrorCode());
 
-        if (result.getErrorCode() == ConnectionResult.API_UNAVAILABLE) {
-            // An API requested for GoogleApiClient is not available. The device's current
-            // configuration might not be supported with the requested API or a required component
-            // may not be installed, such as the Android Wear application. You may need to use a
-            // second GoogleApiClient to manage the application's optional APIs.
-        } else if (mSignInProgress != STATE_IN_PROGRESS) {
-            // We do not have an intent in progress so we should store the latest error
-            // resolution intent for use when the sign in button is clicked.
-            mSignInIntent = result.getResolution();
-            mSignInError = result.getErrorCode();
-
-            if (mSignInProgress == STATE_SIGN_IN) {
-                // STATE_SIGN_IN indicates the user already clicked the sign in button so we
-                // should continue processing errors until the user is signed in or they click
-                // cancel.
-                resolveSignInError();
-            }
+        // The state machine decides whether to store the resolution for when the sign in button
+        // is clicked or to continue resolving errors, and shows the user as signed out. An
+        // API_UNAVAILABLE result means an API the sign in client depends on is missing; APIs the
+        // app can work without belong in mOptionalApis instead.
+        onSignInFailed(result.getErrorCode(), result.getResolution());
+    }
+
+    /**
+     * Shows the user as signed out and keeps the resolution for the error, or resolves it
+     * straight away if the user already clicked 'sign in'.
+     */
+    private void onSignInFailed(int errorCode, PendingIntent resolution) {
+        // We are signed out, so a queued 'sign out' or 'revoke access' has nothing left to do.
+        mQueuedClickId = View.NO_ID;
+        mConnectionCoordinator.onConnectionFailed(mGoogleApiClient, errorCode);
+        mConnectionMetrics.onConnectionFailed(errorCode);
+        journal(SessionJournal.EVENT_FAILED, errorCode);
+        mSignInStateMachine.onConnectionFailed(errorCode, resolution);
+    }
+
+    /**
+     * Starts the intent returned by Google Play services for user interaction to resolve the
+     * current error preventing the user from being signed in. This could be a dialog allowing the
+     * user to select an account, an activity allowing the user to consent to the permissions
+     * being requested by your app, a setting to enable device networking, etc.
+     */
+    @Override
+    public boolean startResolution(PendingIntent resolution) {
+        try {
+            // Send the pending intent that we stored on the most recent OnConnectionFailed
+            // callback.  This will allow the user to resolve the error currently preventing
+            // our connection to Google Play Services.
+            startIntentSenderForResult(resolution.getIntentSender(),
+                    RC_SIGN_IN, null, 0, 0, 0);
+            mConnectionMetrics.onResolutionStarted();
+            journal(SessionJournal.EVENT_RESOLUTION_STARTED, mSignInStateMachine.getError());
+            return true;
+        } catch (SendIntentException e) {
+            Log.i(TAG, "Sign in intent could not be sent: "
+                    + e.getLocalizedMessage());
+            return false;
         }
+    }
+
+    /**
+     * Shows the default Google Play services error dialog for errors that Google Play services
+     * could not provide an intent for.
+     */
+    @Override
+    public void showErrorDialog(int errorCode) {
+        mConnectionMetrics.onSignInClickAbandoned();
+        showDialog(DIALOG_PLAY_SERVICES_ERROR
+                + Math.max(0, Math.min(errorCode, ConnectionMetrics.MAX_ERROR_CODE)));
+    }
 
-        // In this sample we consider the user signed out when they do not have a connection to
-        // Google Play services.
+    @Override
+    public void showSignedOut() {
         onSignedOut();
     }
 
-    /**
-     * Starts an appropriate intent or dialog for user interaction to resolve the current error
-     * preventing the user from being signed in.  This could be a dialog allowing the user to
-     * select an account, an activity allowing the user to consent to the permissions being
-     * requested by your app, a setting to enable device networking, etc.
-     */
-    protected void resolveSignInError() {
-        if (mSignInIntent != null) {
-            // We have an intent which will allow our user to sign in or resolve an error. For
-            // example if the user needs to select an account to sign in with,
-            // or if they need to  consent to the permissions your app is requesting.
-
-            try {
-                // Send the pending intent that we stored on the most recent OnConnectionFailed
-                // callback.  This will allow the user to resolve the error currently preventing
-                // our connection to Google Play Services.
-                mSignInProgress = STATE_IN_PROGRESS;
-                startIntentSenderForResult(mSignInIntent.getIntentSender(),
-                        RC_SIGN_IN, null, 0, 0, 0);
-            } catch (SendIntentException e) {
-                Log.i(TAG, "Sign in intent could not be sent: "
-                        + e.getLocalizedMessage());
-                // The intent was canceled before it was sent.  Attempt to
-                // connect to get an updated ConnectionResult.
-                mSignInProgress = STATE_SIGN_IN;
-                mGoogleApiClient.connect();
-            }
+    @Override
+    public void connect() {
+        if (mGoogleApiClient == null) {
+            startGoogleApiClient();
         } else {
-            // Google Play Services wasn't able to provide an intent for some error types,
-            // so we show the default Google Play services error dialog which may still start an
-            // intent on our behalf if the user can resolve the issue.
-            showDialog(DIALOG_PLAY_SERVICES_ERROR);
+            connectGoogleApiClient();
         }
     }
 
+    @Override
+    public boolean isConnecting() {
+        return mGoogleApiClient != null && mGoogleApiClient.isConnecting();
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode,
             Intent data) {
         switch (requestCode) {
             case RC_SIGN_IN:
+                // Continue processing errors if the resolution was successful, otherwise stop.
+                // Either way reconnect, since onStart is not called when Google Play services
+                // resolved the issue with a dialog.
+                mConnectionMetrics.onResolutionFinished(resultCode == RESULT_OK);
+                journal(SessionJournal.EVENT_RESOLUTION_RESULT, resultCode);
                 if (resultCode == RESULT_OK) {
-                    // If the error resolution was successful we should continue processing errors.
-                    mSignInProgress = STATE_SIGN_IN;
-                } else {
-                    // If the error resolution was not successful or the user canceled,
-                    // we should stop processing errors.
-                    mSignInProgress = STATE_DEFAULT;
-                }
-
-                if (!mGoogleApiClient.isConnecting()) {
-                    // If Google Play services resolved the issue with a dialog then onStart is
-                    // not called so we need to re-attempt connection here.
-                    mGoogleApiClient.connect();
+                    mReconnectScheduler.onUserResolved();
+                    if (mIdentityLoader.onSignInResolved(data)) {
+                        // The user chose the account to sign in with, which the client is built
+                        // with, or granted it access, so the state machine connects a new one.
+                        rebuildGoogleApiClient();
+                    }
                 }
+                mSignInStateMachine.onResolutionResult(resultCode == RESULT_OK);
                 break;
         }
     }
@@ -344,55 +1025,130 @@ public class MainActivity extends FragmentActivity implements
      * Update the UI to reflect that the user is signed out.
      */
     protected void onSignedOut() {
-        mSignInButton.setEnabled(true);
-        mSignOutButton.setEnabled(false);
-        mRevokeButton.setEnabled(false);
-
-        mStatus.setText(R.string.status_signed_out);
+        mViewRenderer.render(SignInViewState.SIGNED_OUT);
     }
 
     @Override
     public void onConnectionSuspended(int cause) {
-        // The connection to Google Play services was lost for some reason. We call connect() to
-        // attempt to re-establish the connection or get a ConnectionResult that we can attempt
-        // to resolve.
-        mGoogleApiClient.connect();
+        // The connection to Google Play services was lost for some reason. The state machine
+        // reconnects to re-establish the connection or get a ConnectionResult that we can
+        // attempt to resolve.
+        mConnectionMetrics.onConnectionSuspended();
+        journal(SessionJournal.EVENT_SUSPENDED, cause);
+        mSignInStateMachine.onConnectionSuspended();
     }
 
     @Override
     protected Dialog onCreateDialog(int id) {
-        switch (id) {
-            case DIALOG_PLAY_SERVICES_ERROR:
-                if (GooglePlayServicesUtil.isUserRecoverableError(mSignInError)) {
-                    return GooglePlayServicesUtil.getErrorDialog(
-                            mSignInError,
-                            this,
-                            RC_SIGN_IN,
-                            new DialogInterface.OnCancelListener() {
-                                @Override
-                                public void onCancel(DialogInterface dialog) {
-                                    Log.e(TAG, "Google Play services resolution"
-                                            + " cancelled");
-                                    mSignInProgress = STATE_DEFAULT;
-                                    mStatus.setText(R.string.status_signed_out);
-                                }
-                            });
-                } else {
-                    return new AlertDialog.Builder(this)
-                            .setMessage(R.string.play_services_error)
-                            .setPositiveButton(R.string.close,
-                                    new DialogInterface.OnClickListener() {
-                                        @Override
-                                        public void onClick(DialogInterface dialog, int which) {
-                                            Log.e(TAG, "Google Play services error could not be "
-                                                    + "resolved: " + mSignInError);
-                                            mSignInProgress = STATE_DEFAULT;
-                                            mStatus.setText(R.string.status_signed_out);
-                                        }
-                                    }).create();
-                }
-            default:
-                return super.onCreateDialog(id);
+        if (id == DIALOG_ACCOUNT_SWITCHER) {
+            List<AccountSession> parked = mSessionManager.getParked();
+            String[] accountIds = new String[parked.size()];
+            CharSequence[] items = new CharSequence[parked.size() + 1];
+            for (int i = 0; i < accountIds.length; i++) {
+                AccountSession session = parked.get(i);
+                accountIds[i] = session.getAccountId();
+                items[i] = session.getDisplayName() != null
+                        ? session.getDisplayName() : getString(R.string.unknown_person);
+            }
+            items[accountIds.length] = getString(R.string.use_another_account);
+            return new AlertDialog.Builder(this)
+                    .setTitle(R.string.account_switcher_title)
+                    .setItems(items, new AccountSwitcherListener(this, accountIds))
+                    .create();
+        }
+        if (id < DIALOG_PLAY_SERVICES_ERROR || id > DIALOG_PLAY_SERVICES_ERROR_LAST) {
+            return super.onCreateDialog(id);
+        }
+        int errorCode = id - DIALOG_PLAY_SERVICES_ERROR;
+        ErrorDialogListener listener = new ErrorDialogListener(this, errorCode);
+        if (GooglePlayServicesUtil.isUserRecoverableError(errorCode)) {
+            return GooglePlayServicesUtil.getErrorDialog(errorCode, this, RC_SIGN_IN, listener);
+        } else {
+            return new AlertDialog.Builder(this)
+                    .setMessage(R.string.play_services_error)
+                    .setOnCancelListener(listener)
+                    .setPositiveButton(R.string.close, listener)
+                    .create();
+        }
+    }
+
+    /**
+     * Tells the sign in flow that an error dialog went away without resolving the error. The
+     * dialog only holds this Activity weakly, since Google Play services may keep it longer.
+     */
+    private static final class ErrorDialogListener
+            implements DialogInterface.OnCancelListener, DialogInterface.OnClickListener {
+        private final WeakReference<MainActivity> mActivity;
+        private final int mErrorCode;
+
+        ErrorDialogListener(MainActivity activity, int errorCode) {
+            mActivity = new WeakReference<MainActivity>(activity);
+            mErrorCode = errorCode;
+        }
+
+        @Override
+        public void onCancel(DialogInterface dialog) {
+            Log.e(TAG, "Google Play services resolution cancelled: " + mErrorCode);
+            dismissed();
+        }
+
+        @Override
+        public void onClick(DialogInterface dialog, int which) {
+            Log.e(TAG, "Google Play services error could not be resolved: " + mErrorCode);
+            dismissed();
+        }
+
+        private void dismissed() {
+            MainActivity activity = mActivity.get();
+            if (activity != null) {
+                activity.mSignInStateMachine.onErrorDialogDismissed();
+            }
+        }
+    }
+
+    /**
+     * Switches to the parked session the user picked, or signs in with another account. Like
+     * {@link ErrorDialogListener} it only holds this Activity weakly.
+     */
+    private static final class AccountSwitcherListener implements DialogInterface.OnClickListener {
+        private final WeakReference<MainActivity> mActivity;
+        private final String[] mAccountIds;
+
+        AccountSwitcherListener(MainActivity activity, String[] accountIds) {
+            mActivity = new WeakReference<MainActivity>(activity);
+            mAccountIds = accountIds;
+        }
+
+        @Override
+        public void onClick(DialogInterface dialog, int which) {
+            MainActivity activity = mActivity.get();
+            if (activity == null) {
+                return;
+            }
+            // A parked client that disconnected since the list was built is signed in again.
+            if (which >= mAccountIds.length || !activity.switchToAccount(mAccountIds[which])) {
+                activity.signIn();
+            }
+        }
+    }
+
+    /**
+     * What survives a configuration change besides the pooled client.
+     */
+    private static final class RetainedState {
+        final int state;
+        final int error;
+        final PendingIntent resolution;
+        final Set<String> requestedScopes;
+        final ResolutionCache<PendingIntent> resolutionCache;
+
+        RetainedState(int state, int error, PendingIntent resolution,
+                Set<String> requestedScopes, ResolutionCache<PendingIntent> resolutionCache) {
+            this.state = state;
+            this.error = error;
+            this.resolution = resolution;
+            this.requestedScopes = new HashSet<String>(requestedScopes);
+            this.resolutionCache = resolutionCache;
         }
     }
 }
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.GoogleApiClient.ConnectionCallbacks;
+import com.google.android.gms.common.api.GoogleApiClient.OnConnectionFailedListener;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A group of GoogleApiClients for APIs the app can live without.
+ *
+ * If an API added to the sign in client is unavailable on the device, for example because a
+ * required component such as the Android Wear application is not installed, the whole connection
+ * fails with {@link ConnectionResult#API_UNAVAILABLE}. Giving each optional API its own client
+ * means the sign in client only waits for the APIs it really needs, while the optional clients
+ * connect at the same time and report their availability as they become ready. Callers can wait
+ * for any subset of them with {@link #await(Collection, AwaitCallback)}.
+ *
+ * All methods and callbacks run on the main thread.
+ */
+public class OptionalApiClients {
+
+    /**
+     * Notified every time an optional API becomes available or unavailable.
+     */
+    public interface Listener {
+        void onApiAvailabilityChanged(String name, boolean available);
+    }
+
+    /**
+     * Called once every awaited API has either connected or failed.
+     */
+    public interface AwaitCallback {
+        /**
+         * @param availability whether each awaited API is available, by name
+         */
+        void onSettled(Map<String, Boolean> availability);
+    }
+
+    private final Context mAppContext;
+    private final LinkedHashMap<String, Member> mMembers = new LinkedHashMap<String, Member>();
+    private final List<Waiter> mWaiters = new ArrayList<Waiter>();
+    private Listener mListener;
+
+    public OptionalApiClients(Context context) {
+        mAppContext = context.getApplicationContext();
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Adds an optional API. The factory should build a client with just that API.
+     */
+    public void add(String name, GoogleApiClientPool.ClientFactory factory) {
+        GoogleApiClient client = factory.create(mAppContext);
+        Member member = new Member(name, client);
+        client.registerConnectionCallbacks(member);
+        client.registerConnectionFailedListener(member);
+        mMembers.put(name, member);
+    }
+
+    /**
+     * Returns the client for an optional API, or null if there is no such API. Check
+     * {@link #isAvailable(String)} before using it.
+     */
+    public GoogleApiClient getClient(String name) {
+        Member member = mMembers.get(name);
+        return member != null ? member.client : null;
+    }
+
+    /**
+     * Returns whether the optional API is connected and usable.
+     */
+    public boolean isAvailable(String name) {
+        Member member = mMembers.get(name);
+        return member != null && member.settled && member.available;
+    }
+
+    /**
+     * Starts connecting every optional client at once.
+     */
+    public void connect() {
+        for (Member member : mMembers.values()) {
+            if (!member.client.isConnected() && !member.client.isConnecting()) {
+                member.settled = false;
+                member.client.connect();
+            }
+        }
+    }
+
+    /**
+     * Disconnects every optional client and drops anybody still waiting.
+     */
+    public void disconnect() {
+        mWaiters.clear();
+        for (Member member : mMembers.values()) {
+            member.client.disconnect();
+            member.settled = false;
+            member.available = false;
+        }
+    }
+
+    /**
+     * Calls back once all of the named APIs have either connected or failed to connect. Names
+     * that were never added are reported as unavailable.
+     */
+    public void await(Collection<String> names, AwaitCallback callback) {
+        Waiter waiter = new Waiter(new ArrayList<String>(names), callback);
+        if (!waiter.tryComplete()) {
+            mWaiters.add(waiter);
+        }
+    }
+
+    private void onSettled(Member member, boolean available) {
+        boolean changed = !member.settled || member.available != available;
+        member.settled = true;
+        member.available = available;
+        if (changed && mListener != null) {
+            mListener.onApiAvailabilityChanged(member.name, available);
+        }
+        // Copy the waiters since a callback may start waiting again.
+        for (Waiter waiter : new ArrayList<Waiter>(mWaiters)) {
+            if (waiter.tryComplete()) {
+                mWaiters.remove(waiter);
+            }
+        }
+    }
+
+    private final class Member implements ConnectionCallbacks, OnConnectionFailedListener {
+        final String name;
+        final GoogleApiClient client;
+        boolean settled;
+        boolean available;
+
+        Member(String name, GoogleApiClient client) {
+            this.name = name;
+            this.client = client;
+        }
+
+        @Override
+        public void onConnected(Bundle connectionHint) {
+            onSettled(this, true);
+        }
+
+        @Override
+        public void onConnectionSuspended(int cause) {
+            // Not available until it reconnects, but not settled as failed either.
+            settled = false;
+            available = false;
+            if (mListener != null) {
+                mListener.onApiAvailabilityChanged(name, false);
+            }
+            client.connect();
+        }
+
+        @Override
+        public void onConnectionFailed(ConnectionResult result) {
+            Log.i(MainActivity.TAG, "Optional API " + name + " unavailable: "
+                    + result.getErrorCode());
+            onSettled(this, false);
+        }
+    }
+
+    private final class Waiter {
+        final List<String> names;
+        final AwaitCallback callback;
+
+        Waiter(List<String> names, AwaitCallback callback) {
+            this.names = names;
+            this.callback = callback;
+        }
+
+        boolean tryComplete() {
+            Map<String, Boolean> availability = new HashMap<String, Boolean>();
+            for (String name : names) {
+                Member member = mMembers.get(name);
+                if (member != null && !member.settled) {
+                    return false;
+                }
+                availability.put(name, member != null && member.available);
+            }
+            callback.onSettled(availability);
+            return true;
+        }
+    }
+}
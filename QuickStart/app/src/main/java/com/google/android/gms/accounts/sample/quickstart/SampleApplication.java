@@ -0,0 +1,134 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.accounts.sample.signin.BatchingSignInStateStore;
+import com.google.android.gms.accounts.sample.signin.ConnectionMetrics;
+import com.google.android.gms.accounts.sample.signin.LeakWatcher;
+import com.google.android.gms.accounts.sample.signin.MetricsExporter;
+import com.google.android.gms.accounts.sample.signin.SessionJournal;
+import com.google.android.gms.accounts.sample.signin.SignInStateMachine;
+import com.google.android.gms.accounts.sample.signin.SignInStateStore;
+
+import android.app.Application;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+
+/**
+ * Owns the state that outlives {@link MainActivity} instances and starts loading what the first
+ * Activity needs as soon as the process is created, so that it is usually in memory by the time
+ * {@link MainActivity#onCreate} runs.
+ */
+public class SampleApplication extends Application {
+
+    /**
+     * How long sign in state changes are collected before they are written to disk.
+     */
+    private static final long SIGN_IN_STATE_BATCH_WINDOW_MS = 250;
+
+    /**
+     * The connection metrics file in the app's files directory, in line protocol.
+     */
+    static final String METRICS_FILE = "connection_metrics.lp";
+
+    /**
+     * The session journal file in the app's files directory. Replay it on a computer with
+     * {@code ./gradlew :signin:replayJournal}.
+     */
+    static final String JOURNAL_FILE = "session.journal";
+
+    private final SignInTracer mSignInTracer = new SignInTracer(
+            new String[] {"STATE_DEFAULT", "STATE_SIGN_IN", "STATE_IN_PROGRESS"},
+            SignInStateMachine.STATE_DEFAULT, SignInTracer.DEFAULT_CAPACITY);
+    private final LeakWatcher mLeakWatcher = new LeakWatcher();
+    private BatchingSignInStateStore mSignInStateStore;
+    private ConnectionMetrics mConnectionMetrics;
+    private MetricsExporter mMetricsExporter;
+    private SessionJournal mSessionJournal;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mSignInStateStore = new BatchingSignInStateStore(new SharedPreferencesBackend(this),
+                Executors.newSingleThreadScheduledExecutor(), SIGN_IN_STATE_BATCH_WINDOW_MS);
+        mSignInStateStore.preload();
+        // Also starts loading the purger, which resumes a purge the last process left behind.
+        AccountStorage.getInstance(this);
+
+        mConnectionMetrics = new ConnectionMetrics();
+        mMetricsExporter = new MetricsExporter(mConnectionMetrics,
+                new File(getFilesDir(), METRICS_FILE),
+                ConnectionMetrics.tags("app", "quickstart"),
+                Executors.newSingleThreadScheduledExecutor());
+        mMetricsExporter.start(MetricsExporter.DEFAULT_PERIOD_MS);
+
+        mSessionJournal = new SessionJournal(new File(getFilesDir(), JOURNAL_FILE),
+                SessionJournal.DEFAULT_MAX_BYTES, Executors.newSingleThreadExecutor());
+        mSessionJournal.openInBackground();
+    }
+
+    /**
+     * Returns the process wide store of whether the user was last signed in. Changes are written
+     * at most once per {@link #SIGN_IN_STATE_BATCH_WINDOW_MS}.
+     */
+    public SignInStateStore getSignInStateStore() {
+        return mSignInStateStore;
+    }
+
+    /**
+     * Returns the tracer that times the sign in flow across Activity instances. Dump it with
+     * {@code adb shell dumpsys activity com.google.android.gms.accounts.sample.quickstart}.
+     */
+    public SignInTracer getSignInTracer() {
+        return mSignInTracer;
+    }
+
+    /**
+     * Returns the process wide connection failures, latencies and resolutions.
+     */
+    public ConnectionMetrics getConnectionMetrics() {
+        return mConnectionMetrics;
+    }
+
+    /**
+     * Returns the exporter that writes the connection metrics to {@link #METRICS_FILE} every
+     * minute.
+     */
+    public MetricsExporter getMetricsExporter() {
+        return mMetricsExporter;
+    }
+
+    /**
+     * Returns the journal of every connect, failure, resolution, sign in, sign out and
+     * revocation, kept on disk so field latency complaints can be investigated without verbose
+     * logging. It is mapped, and later rotated, in the background, and events written while it
+     * is not mapped are dropped.
+     */
+    public SessionJournal getSessionJournal() {
+        return mSessionJournal;
+    }
+
+    /**
+     * Returns the watcher that reports destroyed Activities and replaced clients that are still
+     * in memory, along with the heap kept per rotation or account switch.
+     */
+    public LeakWatcher getLeakWatcher() {
+        return mLeakWatcher;
+    }
+}
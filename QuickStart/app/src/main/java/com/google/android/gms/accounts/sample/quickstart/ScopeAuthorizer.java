@@ -0,0 +1,134 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.accounts.sample.quickstart;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tracks which OAuth 2.0 scopes each Google Account has granted so the app can ask for scopes
+ * incrementally.
+ *
+ * The client connects with the minimal base scopes plus whatever the signed in account has
+ * already granted, so Google Play services never has to show a consent screen for them again.
+ * Extra scopes are only added to the client when a feature first needs them, see
+ * {@link MainActivity#requestScopes(String...)}.
+ */
+public class ScopeAuthorizer {
+
+    private static final String SHARED_PREFS = "GoogleAccountSampleScopes";
+    private static final String PREFS_LAST_ACCOUNT_ID = "LAST_ACCOUNT_ID";
+    private static final String PREFS_GRANTED_PREFIX = "GRANTED_";
+
+    private final SharedPreferences mPrefs;
+    private final Set<String> mBaseScopes;
+
+    public ScopeAuthorizer(Context context, Collection<String> baseScopes) {
+        mPrefs = context.getApplicationContext().getSharedPreferences(SHARED_PREFS,
+                Context.MODE_PRIVATE);
+        mBaseScopes = Collections.unmodifiableSet(new TreeSet<String>(baseScopes));
+    }
+
+    /**
+     * Returns the scopes every client is built with.
+     */
+    public Set<String> getBaseScopes() {
+        return mBaseScopes;
+    }
+
+    /**
+     * Returns the ID of the account that last connected, or null.
+     */
+    public String getLastAccountId() {
+        return mPrefs.getString(PREFS_LAST_ACCOUNT_ID, null);
+    }
+
+    /**
+     * Returns the scopes the given account has granted, or an empty set if it is unknown.
+     */
+    public Set<String> getGrantedScopes(String accountId) {
+        if (accountId == null) {
+            return Collections.emptySet();
+        }
+        String granted = mPrefs.getString(PREFS_GRANTED_PREFIX + accountId, null);
+        if (TextUtils.isEmpty(granted)) {
+            return Collections.emptySet();
+        }
+        Set<String> scopes = new TreeSet<String>();
+        Collections.addAll(scopes, TextUtils.split(granted, " "));
+        return scopes;
+    }
+
+    /**
+     * Returns the scopes to build a client with for the given account: the base scopes, the
+     * scopes it already granted and any extra scopes requested now.
+     */
+    public Set<String> getClientScopes(String accountId, Collection<String> extraScopes) {
+        Set<String> scopes = new TreeSet<String>(mBaseScopes);
+        scopes.addAll(getGrantedScopes(accountId));
+        scopes.addAll(extraScopes);
+        return scopes;
+    }
+
+    /**
+     * Returns whether the given account has granted all of the scopes.
+     */
+    public boolean hasGranted(String accountId, Collection<String> scopes) {
+        Set<String> granted = new HashSet<String>(mBaseScopes);
+        granted.addAll(getGrantedScopes(accountId));
+        return granted.containsAll(scopes);
+    }
+
+    /**
+     * Records that the account connected with the given scopes, which means it granted them.
+     */
+    public void onConnected(String accountId, Collection<String> scopes) {
+        Set<String> granted = new TreeSet<String>(getGrantedScopes(accountId));
+        boolean changed = granted.addAll(scopes);
+        if (!changed && accountId.equals(getLastAccountId())) {
+            return;
+        }
+        mPrefs.edit()
+                .putString(PREFS_LAST_ACCOUNT_ID, accountId)
+                .putString(PREFS_GRANTED_PREFIX + accountId, TextUtils.join(" ", granted))
+                .apply();
+    }
+
+    /**
+     * Forgets the scopes granted by an account, for example when it revokes access.
+     */
+    public void forget(String accountId) {
+        SharedPreferences.Editor editor = mPrefs.edit().remove(PREFS_GRANTED_PREFIX + accountId);
+        if (accountId.equals(getLastAccountId())) {
+            editor.remove(PREFS_LAST_ACCOUNT_ID);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Returns the {@link GoogleApiClientPool} key for a client built with the given scopes.
+     */
+    public static String getClientKey(String api, Set<String> scopes) {
+        return api + ":" + TextUtils.join(" ", new TreeSet<String>(scopes));
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the sessions of recently used Google Accounts so switching back to one of them is an
+ * in-memory swap instead of a full reconnect and consent check.
+ *
+ * One session is active at a time. Switching accounts parks the active session: its client stays
+ * connected and is kept, least recently used first, until more than {@link #DEFAULT_MAX_PARKED}
+ * sessions are parked or the system reports memory pressure. Signing out removes the session
+ * instead, so a signed out account leaves nothing connected. All methods are expected to be
+ * called from the main thread.
+ */
+public class SessionManager {
+
+    /**
+     * How many sessions switched away from are kept connected.
+     */
+    public static final int DEFAULT_MAX_PARKED = 3;
+
+    private static SessionManager sInstance;
+
+    private final int mMaxParked;
+
+    // In access order, so the eldest entry is the least recently used session.
+    private final LinkedHashMap<String, AccountSession> mSessions =
+            new LinkedHashMap<String, AccountSession>(8, 0.75f, true);
+    private AccountSession mActive;
+
+    public static synchronized SessionManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SessionManager(DEFAULT_MAX_PARKED);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+                context.getApplicationContext().registerComponentCallbacks(
+                        new MemoryCallbacks(sInstance));
+            }
+        }
+        return sInstance;
+    }
+
+    SessionManager(int maxParked) {
+        mMaxParked = maxParked;
+    }
+
+    /**
+     * Makes the session the active one, replacing any session stored for the same account.
+     */
+    public synchronized void activate(AccountSession session) {
+        AccountSession previous = mSessions.put(session.getAccountId(), session);
+        if (previous != null && previous.getClient() != session.getClient()) {
+            previous.getClient().disconnect();
+        }
+        mActive = session;
+    }
+
+    /**
+     * Returns the active session, or null if nobody is signed in.
+     */
+    public synchronized AccountSession getActive() {
+        return mActive;
+    }
+
+    /**
+     * Returns whether the given client belongs to the active session.
+     */
+    public synchronized boolean isActiveClient(GoogleApiClient client) {
+        return mActive != null && mActive.getClient() == client;
+    }
+
+    /**
+     * Parks the active session so it can be switched back to later.
+     *
+     * @return the parked session, or null if there was no active session
+     */
+    public synchronized AccountSession parkActive() {
+        AccountSession parked = mActive;
+        mActive = null;
+        trimParked(mMaxParked);
+        return parked;
+    }
+
+    /**
+     * Makes a recently used account's session active again.
+     *
+     * @return the session, or null if the account has no session or its client is no longer
+     *         connected
+     */
+    public synchronized AccountSession switchTo(String accountId) {
+        AccountSession session = mSessions.get(accountId);
+        if (session == null) {
+            return null;
+        }
+        if (!session.getClient().isConnected()) {
+            mSessions.remove(accountId);
+            return null;
+        }
+        mActive = session;
+        return session;
+    }
+
+    /**
+     * Removes and disconnects an account's session, for example when access is revoked.
+     */
+    public synchronized void remove(String accountId) {
+        AccountSession session = mSessions.remove(accountId);
+        if (session == null) {
+            return;
+        }
+        if (session == mActive) {
+            mActive = null;
+        } else {
+            session.getClient().disconnect();
+        }
+    }
+
+    /**
+     * Returns the IDs of the accounts with a session, most recently used last.
+     */
+    public synchronized List<String> getAccountIds() {
+        return new ArrayList<String>(mSessions.keySet());
+    }
+
+    /**
+     * Returns the parked sessions, most recently used first.
+     */
+    public synchronized List<AccountSession> getParked() {
+        List<AccountSession> parked = new ArrayList<AccountSession>(mSessions.size());
+        for (AccountSession session : mSessions.values()) {
+            if (session != mActive) {
+                parked.add(0, session);
+            }
+        }
+        return parked;
+    }
+
+    /**
+     * Disconnects parked sessions, least recently used first, until at most maxParked remain.
+     */
+    public synchronized void trimParked(int maxParked) {
+        int parked = mSessions.size() - (mActive != null ? 1 : 0);
+        Iterator<Map.Entry<String, AccountSession>> it = mSessions.entrySet().iterator();
+        while (parked > maxParked && it.hasNext()) {
+            AccountSession session = it.next().getValue();
+            if (session == mActive) {
+                continue;
+            }
+            Log.i(MainActivity.TAG, "Evicting session " + session.getAccountId());
+            it.remove();
+            session.getClient().disconnect();
+            parked--;
+        }
+    }
+
+    /**
+     * Evicts parked sessions when the system is short on memory.
+     *
+     * @param level one of the {@link ComponentCallbacks2} TRIM_MEMORY levels
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            trimParked(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimParked(1);
+        }
+    }
+
+    /**
+     * Forwards memory pressure to the manager. Kept separate so the manager itself still loads
+     * on API levels without {@link ComponentCallbacks2}.
+     */
+    private static class MemoryCallbacks implements ComponentCallbacks2 {
+        private final SessionManager mManager;
+
+        MemoryCallbacks(SessionManager manager) {
+            mManager = manager;
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            mManager.onTrimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            mManager.trimParked(0);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    }
+}
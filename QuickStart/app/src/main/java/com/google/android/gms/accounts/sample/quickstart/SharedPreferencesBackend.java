@@ -0,0 +1,57 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.accounts.sample.signin.BatchingSignInStateStore;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Persists the sign in state in the app's SharedPreferences.
+ */
+public class SharedPreferencesBackend implements BatchingSignInStateStore.Backend {
+
+    private static final String SHARED_PREFS = "GoogleAccountSamplePrefs";
+
+    /**
+     * Preference that tracks whether the user was signed into the app when it last ran. It is
+     * used to decide whether the first client is likely to connect without user interaction.
+     */
+    private static final String PREFS_IS_SIGNED_IN = "IS_SIGNED_IN";
+
+    private final Context mAppContext;
+
+    public SharedPreferencesBackend(Context context) {
+        mAppContext = context.getApplicationContext();
+    }
+
+    @Override
+    public boolean read() {
+        return getPrefs().getBoolean(PREFS_IS_SIGNED_IN, false);
+    }
+
+    @Override
+    public void write(boolean signedIn) {
+        // We are already off the main thread so commit rather than queueing another write.
+        getPrefs().edit().putBoolean(PREFS_IS_SIGNED_IN, signedIn).commit();
+    }
+
+    private SharedPreferences getPrefs() {
+        return mAppContext.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.accounts.sample.quickstart;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long the sign in flow spends in each of its phases.
+ *
+ * Every transition is timestamped with {@link System#nanoTime()} into preallocated ring
+ * buffers, so recording does not allocate and older samples are simply overwritten. Percentiles
+ * are only computed, and only allocate, when they are asked for. The tracer is not thread safe;
+ * like the sign in state it traces, it should only be used from the main thread.
+ */
+public class SignInTracer {
+
+    /**
+     * Number of transitions and per phase durations kept.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final String[] mPhaseNames;
+    private final int mCapacity;
+
+    // The most recent transitions.
+    private final long[] mTransitionTimes;
+    private final int[] mTransitionFrom;
+    private final int[] mTransitionTo;
+    private long mTransitionCount;
+
+    // The most recent durations spent in each phase.
+    private final long[][] mDurations;
+    private final long[] mDurationCounts;
+
+    private int mPhase;
+    private long mPhaseStartNanos;
+
+    /**
+     * @param phaseNames display names of the phases, indexed by phase
+     * @param initialPhase the phase the flow starts in
+     * @param capacity how many transitions and durations per phase to keep
+     */
+    public SignInTracer(String[] phaseNames, int initialPhase, int capacity) {
+        mPhaseNames = phaseNames.clone();
+        mCapacity = capacity;
+        mTransitionTimes = new long[capacity];
+        mTransitionFrom = new int[capacity];
+        mTransitionTo = new int[capacity];
+        mDurations = new long[phaseNames.length][capacity];
+        mDurationCounts = new long[phaseNames.length];
+        mPhase = initialPhase;
+        mPhaseStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a move to the given phase. Moving to the current phase is ignored.
+     */
+    public void transition(int phase) {
+        if (phase == mPhase) {
+            return;
+        }
+        long now = System.nanoTime();
+
+        int slot = (int) (mTransitionCount % mCapacity);
+        mTransitionTimes[slot] = now;
+        mTransitionFrom[slot] = mPhase;
+        mTransitionTo[slot] = phase;
+        mTransitionCount++;
+
+        int durationSlot = (int) (mDurationCounts[mPhase] % mCapacity);
+        mDurations[mPhase][durationSlot] = now - mPhaseStartNanos;
+        mDurationCounts[mPhase]++;
+
+        mPhase = phase;
+        mPhaseStartNanos = now;
+    }
+
+    /**
+     * Restarts timing in the given phase without recording a transition, for example when the
+     * flow starts afresh, or when it was restored from saved instance state in a new process.
+     */
+    public void reset(int phase) {
+        mPhase = phase;
+        mPhaseStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the phase the flow is in.
+     */
+    public int getPhase() {
+        return mPhase;
+    }
+
+    /**
+     * Returns the total number of transitions recorded.
+     */
+    public long getTransitionCount() {
+        return mTransitionCount;
+    }
+
+    /**
+     * Returns the given percentile of the recorded time spent in a phase.
+     *
+     * @param phase the phase to report on
+     * @param percentile between 0 and 100
+     * @return the duration in nanoseconds, or -1 if the phase was never left
+     */
+    public long getPercentileNanos(int phase, double percentile) {
+        long[] sorted = sortedDurations(phase);
+        if (sorted.length == 0) {
+            return -1;
+        }
+        return percentile(sorted, percentile);
+    }
+
+    /**
+     * Writes p50/p95/p99 for every phase followed by the most recent transitions, in the same
+     * style as the output of {@code adb shell dumpsys activity}.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("SignInTracer: transitions=" + mTransitionCount
+                + " current=" + mPhaseNames[mPhase]);
+        String innerPrefix = prefix + "  ";
+        for (int phase = 0; phase < mPhaseNames.length; phase++) {
+            long[] sorted = sortedDurations(phase);
+            writer.print(innerPrefix);
+            writer.print(mPhaseNames[phase]);
+            writer.print(": n=");
+            writer.print(mDurationCounts[phase]);
+            if (sorted.length > 0) {
+                writer.print(" p50=");
+                writer.print(toMillis(percentile(sorted, 50)));
+                writer.print("ms p95=");
+                writer.print(toMillis(percentile(sorted, 95)));
+                writer.print("ms p99=");
+                writer.print(toMillis(percentile(sorted, 99)));
+                writer.print("ms");
+            }
+            writer.println();
+        }
+
+        long first = Math.max(0, mTransitionCount - mCapacity);
+        long lastTime = -1;
+        for (long i = first; i < mTransitionCount; i++) {
+            int slot = (int) (i % mCapacity);
+            writer.print(innerPrefix);
+            writer.print(mPhaseNames[mTransitionFrom[slot]]);
+            writer.print(" -> ");
+            writer.print(mPhaseNames[mTransitionTo[slot]]);
+            if (lastTime >= 0) {
+                writer.print(" +");
+                writer.print(toMillis(mTransitionTimes[slot] - lastTime));
+                writer.print("ms");
+            }
+            writer.println();
+            lastTime = mTransitionTimes[slot];
+        }
+    }
+
+    private long[] sortedDurations(int phase) {
+        int size = (int) Math.min(mDurationCounts[phase], mCapacity);
+        long[] sorted = Arrays.copyOf(mDurations[phase], size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
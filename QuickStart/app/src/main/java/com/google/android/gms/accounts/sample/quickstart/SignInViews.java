@@ -0,0 +1,128 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import com.google.android.gms.accounts.sample.signin.SignInViewRenderer;
+import com.google.android.gms.accounts.sample.signin.SignInViewState;
+
+import android.content.res.Resources;
+import android.text.TextUtils;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.TextView;
+
+import java.io.PrintWriter;
+
+/**
+ * The views of the sign in screen as seen by {@link SignInViewRenderer}.
+ *
+ * Status strings are looked up once and the "signed in as" line is only formatted again when the
+ * display name changes, so flapping between signed in and signed out does not allocate. Layout
+ * passes of the window are counted so that they can be compared with the number of state
+ * changes in {@code adb shell dumpsys activity}.
+ */
+public class SignInViews implements SignInViewRenderer.Views {
+
+    private final Resources mResources;
+    private final View mSignInButton;
+    private final View mSignOutButton;
+    private final View mSwitchAccountButton;
+    private final View mRevokeButton;
+    private final TextView mStatus;
+
+    private final String mSignedOutText;
+    private final String mSigningInText;
+    private String mSignedInName;
+    private String mSignedInText;
+
+    private int mLayouts;
+    private int mFormats;
+
+    public SignInViews(Resources resources, View signInButton, View signOutButton,
+            View switchAccountButton, View revokeButton, TextView status) {
+        mResources = resources;
+        mSignInButton = signInButton;
+        mSignOutButton = signOutButton;
+        mSwitchAccountButton = switchAccountButton;
+        mRevokeButton = revokeButton;
+        mStatus = status;
+        mSignedOutText = resources.getString(R.string.status_signed_out);
+        mSigningInText = resources.getString(R.string.status_signing_in);
+
+        status.getViewTreeObserver().addOnGlobalLayoutListener(
+                new ViewTreeObserver.OnGlobalLayoutListener() {
+                    @Override
+                    public void onGlobalLayout() {
+                        mLayouts++;
+                    }
+                });
+    }
+
+    @Override
+    public void setSignInEnabled(boolean enabled) {
+        mSignInButton.setEnabled(enabled);
+    }
+
+    @Override
+    public void setSignOutEnabled(boolean enabled) {
+        // Switching accounts leaves the signed in account the same way signing out does.
+        mSignOutButton.setEnabled(enabled);
+        mSwitchAccountButton.setEnabled(enabled);
+    }
+
+    @Override
+    public void setRevokeEnabled(boolean enabled) {
+        mRevokeButton.setEnabled(enabled);
+    }
+
+    @Override
+    public void setStatus(SignInViewState state) {
+        switch (state.getStatus()) {
+            case SignInViewState.STATUS_SIGNED_IN:
+                mStatus.setText(getSignedInText(state.getDisplayName()));
+                break;
+            case SignInViewState.STATUS_SIGNING_IN:
+                mStatus.setText(mSigningInText);
+                break;
+            default:
+                mStatus.setText(mSignedOutText);
+                break;
+        }
+    }
+
+    private String getSignedInText(String displayName) {
+        if (mSignedInText == null || !TextUtils.equals(displayName, mSignedInName)) {
+            mSignedInName = displayName;
+            mSignedInText = mResources.getString(R.string.signed_in_as, displayName);
+            mFormats++;
+        }
+        return mSignedInText;
+    }
+
+    /**
+     * Writes the layout and string formatting counts next to the renderer's own counts.
+     */
+    public void dump(String prefix, PrintWriter writer, SignInViewRenderer renderer) {
+        writer.print(prefix);
+        writer.print("SignInViews: layouts=");
+        writer.print(mLayouts);
+        writer.print(" formats=");
+        writer.print(mFormats);
+        writer.print(" ");
+        writer.println(renderer);
+    }
+}
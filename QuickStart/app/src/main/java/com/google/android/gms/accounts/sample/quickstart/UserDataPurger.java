@@ -0,0 +1,521 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.quickstart;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deletes user data on background threads so that signing out or revoking access never waits on
+ * the file system.
+ *
+ * {@link #purge(File...)} only renames the given files and directories into a private trash
+ * directory, which takes a single rename per root, so the app sees the data as gone at once and
+ * can start writing new data for the next account. The trash is then deleted by at most
+ * {@link #MAX_PARALLELISM} worker threads, which share the directories of a root between them,
+ * so a single large root is not left to one thread. The trash directory itself is the
+ * checkpoint: if the process is killed half way, whatever is left in it is deleted again the next
+ * time the purger is loaded. The purger loads its directory and counters on a worker thread as
+ * soon as it is created, and {@link #purge(File...)} only waits for that if it is called first.
+ * Roots that cannot be renamed, for example because they are on another volume, are recorded in
+ * SharedPreferences and deleted in place.
+ *
+ * Each worker walks directories one at a time with an explicit stack, deleting files as each
+ * directory is listed, so memory use is bounded by the largest single directory rather than by
+ * the size of the tree. Whenever a worker is idle, the next directory another worker would have
+ * listed is handed to it instead. A directory is removed by whichever worker finishes its last
+ * subdirectory. Symbolic links are deleted, never followed.
+ *
+ * Close any databases and files before purging them.
+ */
+public class UserDataPurger {
+
+    private static final String TAG = MainActivity.TAG;
+
+    public static final int MAX_PARALLELISM = 2;
+
+    private static final String TRASH_DIR = "purge_trash";
+    private static final String SHARED_PREFS = "GoogleAccountSamplePurge";
+    private static final String PREFS_IN_PLACE = "IN_PLACE";
+    private static final String PREFS_FILES_DELETED = "FILES_DELETED";
+    private static final String PREFS_BYTES_DELETED = "BYTES_DELETED";
+
+    /**
+     * How many deletions happen between two progress checkpoints.
+     */
+    private static final int CHECKPOINT_INTERVAL = 512;
+
+    /**
+     * How often progress is reported to the listener, at most.
+     */
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    /**
+     * Notified on the main thread as data is deleted.
+     */
+    public interface Listener {
+        /**
+         * @param filesDeleted files and directories deleted since the app was installed
+         * @param bytesDeleted bytes freed since the app was installed
+         * @param pendingRoots roots still waiting to be deleted, 0 once the purge is done
+         */
+        void onPurgeProgress(long filesDeleted, long bytesDeleted, int pendingRoots);
+    }
+
+    private static UserDataPurger sInstance;
+
+    private final Context mAppContext;
+    private final ThreadPoolExecutor mExecutor;
+    private Future<?> mLoad;
+    private boolean mLoaded;
+    // Set by the load, and only read once it has finished.
+    private File mTrashDir;
+    private SharedPreferences mPrefs;
+    private long mLoadedFilesDeleted;
+    private long mLoadedBytesDeleted;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Listener mListener;
+
+    private long mFilesDeleted;
+    private long mBytesDeleted;
+    private long mUncheckpointed;
+    private int mPendingRoots;
+    private int mRunning;
+    private long mActiveSinceNanos;
+    private long mActiveNanos;
+    private long mSessionFilesDeleted;
+    private long mSessionBytesDeleted;
+    private long mLastProgressMs;
+    private int mTrashSequence;
+
+    public static synchronized UserDataPurger getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UserDataPurger(context.getApplicationContext());
+            sInstance.preload();
+        }
+        return sInstance;
+    }
+
+    UserDataPurger(Context appContext) {
+        mAppContext = appContext;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLELISM, MAX_PARALLELISM,
+                10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private int mCount;
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "user-data-purger-" + ++mCount);
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    /**
+     * Starts loading the trash directory and the counters on a worker, and then resumes the
+     * deletion of anything a previous process left behind. Safe to call more than once.
+     */
+    public synchronized void preload() {
+        if (mLoad != null) {
+            return;
+        }
+        mLoad = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                mTrashDir = mAppContext.getDir(TRASH_DIR, Context.MODE_PRIVATE);
+                mPrefs = mAppContext.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE);
+                mLoadedFilesDeleted = mPrefs.getLong(PREFS_FILES_DELETED, 0);
+                mLoadedBytesDeleted = mPrefs.getLong(PREFS_BYTES_DELETED, 0);
+            }
+        });
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (UserDataPurger.this) {
+                    awaitLoadLocked();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the load started by {@link #preload()} unless it already finished, and resumes
+     * the previous process's purge the first time. The load does not take the lock, so this is
+     * called with it held.
+     */
+    private void awaitLoadLocked() {
+        if (mLoaded) {
+            return;
+        }
+        preload();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mLoad.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Could not load the purger", e.getCause());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        mFilesDeleted += mLoadedFilesDeleted;
+        mBytesDeleted += mLoadedBytesDeleted;
+        mLoaded = true;
+        resume();
+    }
+
+    /**
+     * Sets the listener notified of progress on the main thread, or null.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Moves the given files and directories out of the way and deletes them in the background.
+     * Roots that do not exist are ignored.
+     */
+    public synchronized void purge(File... roots) {
+        awaitLoadLocked();
+        for (File root : roots) {
+            if (root == null || !root.exists()) {
+                continue;
+            }
+            File trash = new File(mTrashDir, System.currentTimeMillis() + "-" + mTrashSequence++);
+            if (root.renameTo(trash)) {
+                submit(trash);
+            } else {
+                Log.i(TAG, "Could not move " + root + " to the trash, deleting it in place");
+                addInPlace(root.getAbsolutePath());
+                submit(root);
+            }
+        }
+    }
+
+    /**
+     * Restarts the deletion of anything a previous process left behind.
+     */
+    private void resume() {
+        String[] leftovers = mTrashDir.list();
+        if (leftovers != null) {
+            for (String name : leftovers) {
+                submit(new File(mTrashDir, name));
+            }
+        }
+        for (String path : getInPlace()) {
+            submit(new File(path));
+        }
+        if (mPendingRoots > 0) {
+            Log.i(TAG, "Resuming purge of " + mPendingRoots + " roots");
+        }
+    }
+
+    private void submit(File root) {
+        mPendingRoots++;
+        execute(new Node(root, null));
+    }
+
+    /**
+     * Deletes the tree under the given node on a worker.
+     */
+    private void execute(final Node start) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onTaskStarted();
+                try {
+                    deleteTree(start);
+                } finally {
+                    onTaskFinished();
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes a file or directory tree without recursion. A directory is listed, its files are
+     * deleted, and it is pushed back below its subdirectories so it is released once they are
+     * listed. Subdirectories still waiting on the stack are handed to idle workers.
+     */
+    private void deleteTree(Node start) {
+        ArrayDeque<Node> stack = new ArrayDeque<Node>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (node.listed) {
+                release(node);
+                continue;
+            }
+            if (node != start && hasIdleWorker()) {
+                execute(node);
+                continue;
+            }
+            File file = node.file;
+            if (!file.isDirectory() || isSymlink(file)) {
+                // Only a root can be a file or a link.
+                release(node);
+                continue;
+            }
+            String[] names = file.list();
+            node.listed = true;
+            stack.push(node);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                File child = new File(file, name);
+                if (child.isDirectory() && !isSymlink(child)) {
+                    node.pending.incrementAndGet();
+                    stack.push(new Node(child, node));
+                } else {
+                    delete(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops one of the things a node waits for, and deletes it and then its parents as they have
+     * nothing left to wait for.
+     */
+    private void release(Node node) {
+        while (node != null && node.pending.decrementAndGet() == 0) {
+            delete(node.file);
+            if (node.parent == null) {
+                onRootFinished(node.file);
+            }
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Returns whether a worker would pick up a task straight away. Only a hint, since the pool
+     * may change before the task is queued.
+     */
+    private boolean hasIdleWorker() {
+        return mExecutor.getActiveCount() < MAX_PARALLELISM && mExecutor.getQueue().isEmpty();
+    }
+
+    private void delete(File file) {
+        long length = file.length();
+        if (file.delete() || !file.exists()) {
+            onDeleted(length);
+        } else {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+
+    private static boolean isSymlink(File file) {
+        try {
+            File parent = file.getParentFile();
+            File canonicalParent = parent != null ? parent.getCanonicalFile() : null;
+            File inCanonicalParent = canonicalParent != null
+                    ? new File(canonicalParent, file.getName()) : file;
+            return !inCanonicalParent.getCanonicalFile().equals(
+                    inCanonicalParent.getAbsoluteFile());
+        } catch (IOException e) {
+            // Err on the side of not following it.
+            return true;
+        }
+    }
+
+    private synchronized void onTaskStarted() {
+        if (mRunning++ == 0) {
+            mActiveSinceNanos = System.nanoTime();
+        }
+    }
+
+    private synchronized void onDeleted(long bytes) {
+        mFilesDeleted++;
+        mBytesDeleted += bytes;
+        mSessionFilesDeleted++;
+        mSessionBytesDeleted += bytes;
+        if (++mUncheckpointed >= CHECKPOINT_INTERVAL) {
+            checkpoint();
+        }
+        long now = SystemClock.uptimeMillis();
+        if (now - mLastProgressMs >= PROGRESS_INTERVAL_MS) {
+            mLastProgressMs = now;
+            postProgress();
+        }
+    }
+
+    private synchronized void onTaskFinished() {
+        if (--mRunning == 0) {
+            mActiveNanos += System.nanoTime() - mActiveSinceNanos;
+        }
+    }
+
+    private synchronized void onRootFinished(File root) {
+        mPendingRoots--;
+        removeInPlace(root.getAbsolutePath());
+        checkpoint();
+        postProgress();
+        if (mPendingRoots == 0) {
+            Log.i(TAG, "Purge complete: " + this);
+        }
+    }
+
+    private void checkpoint() {
+        mUncheckpointed = 0;
+        mPrefs.edit()
+                .putLong(PREFS_FILES_DELETED, mFilesDeleted)
+                .putLong(PREFS_BYTES_DELETED, mBytesDeleted)
+                .apply();
+    }
+
+    private void postProgress() {
+        final long filesDeleted = mFilesDeleted;
+        final long bytesDeleted = mBytesDeleted;
+        final int pendingRoots = mPendingRoots;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onPurgeProgress(filesDeleted, bytesDeleted, pendingRoots);
+                }
+            }
+        });
+    }
+
+    private List<String> getInPlace() {
+        String paths = mPrefs.getString(PREFS_IN_PLACE, null);
+        if (TextUtils.isEmpty(paths)) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, TextUtils.split(paths, "\n"));
+        return list;
+    }
+
+    private void addInPlace(String path) {
+        List<String> paths = getInPlace();
+        if (!paths.contains(path)) {
+            paths = new ArrayList<String>(paths);
+            paths.add(path);
+            // Applied, so the caller does not wait for the disk. If the process dies before it is
+            // written, the root is not resumed, but a partition left behind is purged again the
+            // next time a different account signs in.
+            mPrefs.edit().putString(PREFS_IN_PLACE, TextUtils.join("\n", paths)).apply();
+        }
+    }
+
+    private void removeInPlace(String path) {
+        List<String> paths = getInPlace();
+        if (paths.contains(path)) {
+            paths = new ArrayList<String>(paths);
+            paths.remove(path);
+            mPrefs.edit().putString(PREFS_IN_PLACE, TextUtils.join("\n", paths)).apply();
+        }
+    }
+
+    /**
+     * Returns the number of roots still waiting to be deleted.
+     */
+    public synchronized int getPendingRoots() {
+        return mPendingRoots;
+    }
+
+    /**
+     * Returns the files and directories deleted per second of purging by this process.
+     */
+    public synchronized double getFilesPerSecond() {
+        long nanos = getActiveNanos();
+        return nanos == 0 ? 0 : mSessionFilesDeleted * 1e9 / nanos;
+    }
+
+    /**
+     * Returns the bytes freed per second of purging by this process.
+     */
+    public synchronized double getBytesPerSecond() {
+        long nanos = getActiveNanos();
+        return nanos == 0 ? 0 : mSessionBytesDeleted * 1e9 / nanos;
+    }
+
+    private long getActiveNanos() {
+        return mRunning > 0
+                ? mActiveNanos + System.nanoTime() - mActiveSinceNanos : mActiveNanos;
+    }
+
+    /**
+     * Writes the purge progress, for {@code adb shell dumpsys activity}.
+     */
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        awaitLoadLocked();
+        writer.print(prefix);
+        writer.println(this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "UserDataPurger{pendingRoots=" + mPendingRoots
+                + ", filesDeleted=" + mFilesDeleted
+                + ", bytesDeleted=" + mBytesDeleted
+                + ", filesPerSecond=" + (long) getFilesPerSecond()
+                + ", bytesPerSecond=" + (long) getBytesPerSecond() + "}";
+    }
+
+    /**
+     * A file or directory waiting to be deleted. Only the worker that lists it reads or sets
+     * {@link #listed}.
+     */
+    private static final class Node {
+        final File file;
+        final Node parent;
+        // One for its own listing, plus one for every subdirectory not yet deleted.
+        final AtomicInteger pending = new AtomicInteger(1);
+        boolean listed;
+
+        Node(File file, Node parent) {
+            this.file = file;
+            this.parent = parent;
+        }
+    }
+}
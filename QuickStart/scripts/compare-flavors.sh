@@ -0,0 +1,75 @@
+#!/bin/bash
+#
+# Copyright 2014 Google Inc. All Rights Reserved.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Builds the full and lite release APKs and prints their size, dex size and method count as a
+# markdown table. With a device attached, it also installs each one and reports the median cold
+# start time of MainActivity over RUNS launches.
+#
+# Usage: scripts/compare-flavors.sh   (from the QuickStart directory)
+
+set -e
+
+RUNS=${RUNS:-10}
+PACKAGE=com.google.android.gms.accounts.sample.quickstart
+ACTIVITY=$PACKAGE/.MainActivity
+OUT=app/build/outputs/apk
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+./gradlew -q assembleFullRelease assembleLiteRelease
+
+# Reads a little endian 32 bit value at an offset of a file.
+read_u32() {
+    od -An -tu4 -j "$2" -N4 "$1" | tr -d ' '
+}
+
+# Release APKs are unsigned, so sign them with the debug key to be able to install them.
+sign() {
+    local apk=$WORK/$1.apk
+    cp "$OUT/app-$1-release-unsigned.apk" "$apk.unaligned"
+    jarsigner -sigalg SHA1withRSA -digestalg SHA1 -keystore ~/.android/debug.keystore \
+        -storepass android -keypass android "$apk.unaligned" androiddebugkey > /dev/null
+    zipalign -f 4 "$apk.unaligned" "$apk"
+    echo "$apk"
+}
+
+cold_start_ms() {
+    local apk=$1
+    adb install -r "$apk" > /dev/null
+    local times=()
+    for i in $(seq "$RUNS"); do
+        adb shell am force-stop $PACKAGE
+        times+=($(adb shell am start -W -n $ACTIVITY | tr -d '\r' | awk '/TotalTime/ {print $2}'))
+    done
+    printf '%s\n' "${times[@]}" | sort -n | awk '{t[NR] = $1} END {print t[int((NR + 1) / 2)]}'
+}
+
+HAS_DEVICE=$(adb get-state 2> /dev/null || true)
+
+echo "| Flavor | APK bytes | classes.dex bytes | Methods | Cold start ms |"
+echo "|--------|-----------|-------------------|---------|---------------|"
+for flavor in full lite; do
+    apk=$(sign $flavor)
+    unzip -o -q "$apk" classes.dex -d "$WORK/$flavor"
+    dex=$WORK/$flavor/classes.dex
+    # method_ids_size in the dex header.
+    methods=$(read_u32 "$dex" 88)
+    start="-"
+    if [ "$HAS_DEVICE" = "device" ]; then
+        start=$(cold_start_ms "$apk")
+    fi
+    echo "| $flavor | $(wc -c < "$apk") | $(wc -c < "$dex") | $methods | $start |"
+done
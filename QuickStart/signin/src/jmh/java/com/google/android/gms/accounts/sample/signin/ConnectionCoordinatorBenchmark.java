@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hammers a {@link ConnectionCoordinator} with connect requests from many threads, alone and
+ * while another thread keeps rebuilding the client. The connector never calls back, so every
+ * attempt stays in flight and exactly one connection may be started per rebuild; each iteration
+ * fails if any more were.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Group)
+public class ConnectionCoordinatorBenchmark {
+
+    private final AtomicLong mBuilds = new AtomicLong();
+    private final AtomicLong mConnects = new AtomicLong();
+    private ConnectionCoordinator<Long> mCoordinator;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        mBuilds.set(0);
+        mConnects.set(0);
+        mCoordinator = new ConnectionCoordinator<Long>(new ConnectionCoordinator.Connector<Long>() {
+            @Override
+            public Long rebuild() {
+                return mBuilds.incrementAndGet();
+            }
+
+            @Override
+            public void connect(Long client) {
+                mConnects.incrementAndGet();
+            }
+
+            @Override
+            public boolean isConnected(Long client) {
+                return false;
+            }
+        });
+        mCoordinator.rebuildAndConnect();
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkSingleFlight() {
+        if (mConnects.get() != mCoordinator.getRebuildCount()) {
+            throw new IllegalStateException(mConnects.get() + " connection attempts for "
+                    + mCoordinator.getRebuildCount() + " rebuilds: " + mCoordinator);
+        }
+    }
+
+    @Benchmark
+    @Group("connecting")
+    @GroupThreads(8)
+    public Object connect() {
+        return mCoordinator.connect();
+    }
+
+    @Benchmark
+    @Group("rebuilding")
+    @GroupThreads(7)
+    public Object connectWhileRebuilding() {
+        return mCoordinator.connect();
+    }
+
+    @Benchmark
+    @Group("rebuilding")
+    @GroupThreads(1)
+    public Object rebuild() {
+        return mCoordinator.rebuildAndConnect();
+    }
+}
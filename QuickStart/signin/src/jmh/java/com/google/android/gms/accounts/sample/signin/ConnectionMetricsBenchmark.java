@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what recording {@link ConnectionMetrics} costs the callbacks, on one thread and with
+ * four threads recording at once. Expected to report zero bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConnectionMetricsBenchmark {
+
+    private static final int SIGN_IN_REQUIRED = 4;
+
+    private final ConnectionMetrics mMetrics = new ConnectionMetrics();
+
+    /**
+     * A failed attempt, its resolution, a connect, a suspend and a reconnect.
+     */
+    @Benchmark
+    public long signInCycle() {
+        return recordCycle();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long signInCycleContended() {
+        return recordCycle();
+    }
+
+    private long recordCycle() {
+        mMetrics.onConnectStarted();
+        mMetrics.onConnectionFailed(SIGN_IN_REQUIRED);
+        mMetrics.onResolutionStarted();
+        mMetrics.onResolutionFinished(true);
+        mMetrics.onConnectStarted();
+        mMetrics.onConnected();
+        mMetrics.onConnectionSuspended();
+        mMetrics.onConnectStarted();
+        mMetrics.onConnected();
+        return mMetrics.getFailureCount(SIGN_IN_REQUIRED);
+    }
+}
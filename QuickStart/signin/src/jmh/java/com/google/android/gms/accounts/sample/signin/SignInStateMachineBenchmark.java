@@ -0,0 +1,153 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives {@link SignInStateMachine} through the event sequences it sees on a device. Run with
+ * {@code ./gradlew :signin:jmh}; every benchmark is expected to report zero bytes allocated per
+ * operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class SignInStateMachineBenchmark {
+
+    private static final int SIGN_IN_REQUIRED = 4;
+    private static final int NETWORK_ERROR = 7;
+
+    private static final Object RESOLUTION = new Object();
+
+    private SignInStateMachine<Object> mStateMachine;
+    private Ports mPorts;
+
+    @Setup
+    public void setUp() {
+        mPorts = new Ports();
+        mStateMachine = new SignInStateMachine<Object>(mPorts, mPorts);
+        mStateMachine.setListener(mPorts);
+    }
+
+    /**
+     * A first sign in: the account picker, then the consent screen, then connected.
+     */
+    @Benchmark
+    public int signInWithResolution() {
+        mStateMachine.onConnectionFailed(SIGN_IN_REQUIRED, RESOLUTION);
+        mStateMachine.onSignInClicked();
+        mStateMachine.onResolutionResult(true);
+        mStateMachine.onConnectionFailed(SIGN_IN_REQUIRED, RESOLUTION);
+        mStateMachine.onResolutionResult(true);
+        mStateMachine.onConnected();
+        return mStateMachine.getState() + mPorts.events;
+    }
+
+    /**
+     * A connected client that is repeatedly suspended and reconnected.
+     */
+    @Benchmark
+    public int suspendAndReconnect() {
+        mStateMachine.onConnected();
+        mStateMachine.onConnectionSuspended();
+        mStateMachine.onConnected();
+        mStateMachine.onConnectionSuspended();
+        mStateMachine.onConnected();
+        return mStateMachine.getState() + mPorts.events;
+    }
+
+    /**
+     * Errors without a resolution, which end in the error dialog being dismissed.
+     */
+    @Benchmark
+    public int failWithoutResolution() {
+        mStateMachine.onConnectionFailed(NETWORK_ERROR, null);
+        mStateMachine.onSignInClicked();
+        mStateMachine.onErrorDialogDismissed();
+        mStateMachine.onConnectionFailed(SignInStateMachine.ERROR_API_UNAVAILABLE, null);
+        return mStateMachine.getState() + mPorts.events;
+    }
+
+    /**
+     * A resolution that cannot be sent, so the state machine reconnects, and then the user
+     * cancels.
+     */
+    @Benchmark
+    public int resolutionNotSentThenCancelled() {
+        mPorts.resolutionSendable = false;
+        mStateMachine.onConnectionFailed(SIGN_IN_REQUIRED, RESOLUTION);
+        mStateMachine.onSignInClicked();
+        mPorts.resolutionSendable = true;
+        mStateMachine.onConnectionFailed(SIGN_IN_REQUIRED, RESOLUTION);
+        mStateMachine.onResolutionResult(false);
+        return mStateMachine.getState() + mPorts.events;
+    }
+
+    /**
+     * Ports that only count what they are asked to do.
+     */
+    private static final class Ports implements SignInStateMachine.ConnectionPort,
+            SignInStateMachine.UiPort<Object>, SignInStateMachine.Listener {
+        int events;
+        boolean resolutionSendable = true;
+
+        @Override
+        public void connect() {
+            events++;
+        }
+
+        @Override
+        public boolean isConnecting() {
+            return false;
+        }
+
+        @Override
+        public boolean startResolution(Object resolution) {
+            events++;
+            return resolutionSendable;
+        }
+
+        @Override
+        public void showErrorDialog(int errorCode) {
+            events++;
+        }
+
+        @Override
+        public void showSignedOut() {
+            events++;
+        }
+
+        @Override
+        public void onStateChanged(int oldState, int newState) {
+            events++;
+        }
+    }
+}
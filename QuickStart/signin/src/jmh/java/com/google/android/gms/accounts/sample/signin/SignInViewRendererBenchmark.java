@@ -0,0 +1,145 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a flapping connection costs the sign in screen. Each operation is one burst of
+ * state changes between two frames, as seen while GoogleApiClient reconnects. Each operation
+ * returns the renderer's running count of view updates, which approximates layout passes since
+ * every enabled state or text change requests a layout, and {@code -prof gc} reports allocations
+ * per burst.
+ *
+ * {@code immediate} applies every state as soon as it is asked for, the way the Activity used
+ * to set its views directly; {@code coalesced} lets the renderer apply the burst on one frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class SignInViewRendererBenchmark {
+
+    private SignInViewRenderer mRenderer;
+    private Frames mFrames;
+    private SignInViewState mSignedIn;
+
+    @Setup
+    public void setUp() {
+        mFrames = new Frames();
+        mRenderer = new SignInViewRenderer(new NoViews(), mFrames);
+        mSignedIn = SignInViewState.signedIn("Jane Doe", null);
+    }
+
+    @Benchmark
+    public long immediate() {
+        for (SignInViewState state : burst()) {
+            mRenderer.render(state);
+            mRenderer.applyPending();
+        }
+        return mRenderer.getViewUpdates();
+    }
+
+    @Benchmark
+    public long coalesced() {
+        for (SignInViewState state : burst()) {
+            mRenderer.render(state);
+        }
+        mFrames.doFrame();
+        return mRenderer.getViewUpdates();
+    }
+
+    private final SignInViewState[] mBurst = new SignInViewState[5];
+
+    /**
+     * Suspended, reconnecting, connected, suspended again and finally connected.
+     */
+    private SignInViewState[] burst() {
+        mBurst[0] = SignInViewState.SIGNED_OUT;
+        mBurst[1] = SignInViewState.SIGNING_IN;
+        mBurst[2] = SignInViewState.signedIn("Jane Doe", mSignedIn);
+        mBurst[3] = SignInViewState.SIGNED_OUT;
+        mBurst[4] = SignInViewState.signedIn("Jane Doe", mSignedIn);
+        return mBurst;
+    }
+
+    /**
+     * Holds the single frame task the renderer schedules, without allocating.
+     */
+    private static final class Frames implements TaskScheduler {
+        Runnable task;
+
+        @Override
+        public long uptimeMillis() {
+            return 0;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            this.task = task;
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            if (this.task == task) {
+                this.task = null;
+            }
+        }
+
+        void doFrame() {
+            Runnable frame = task;
+            task = null;
+            if (frame != null) {
+                frame.run();
+            }
+        }
+    }
+
+    /**
+     * Views that do nothing; the renderer counts the updates itself.
+     */
+    private static final class NoViews implements SignInViewRenderer.Views {
+        @Override
+        public void setSignInEnabled(boolean enabled) {
+        }
+
+        @Override
+        public void setSignOutEnabled(boolean enabled) {
+        }
+
+        @Override
+        public void setRevokeEnabled(boolean enabled) {
+        }
+
+        @Override
+        public void setStatus(SignInViewState state) {
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.accounts.sample.signin;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SignInStateStore} that loads the persisted state on a background executor and merges
+ * bursts of writes into a single write to the {@link Backend}.
+ *
+ * GoogleApiClient can flap between connected and suspended several times in a row while Google
+ * Play services restarts. Each change is applied in memory immediately, and only the value
+ * current at the end of the batch window is persisted, and only if it differs from what was last
+ * written. The counters show up in {@code adb shell dumpsys activity} through
+ * {@link #toString()}.
+ */
+public class BatchingSignInStateStore implements SignInStateStore {
+
+    /**
+     * Durable storage for the sign in state. Called on the executor only.
+     */
+    public interface Backend {
+        boolean read();
+
+        void write(boolean signedIn);
+    }
+
+    private final Backend mBackend;
+    private final ScheduledExecutorService mExecutor;
+    private final long mBatchWindowMs;
+
+    private Future<?> mLoad;
+    private boolean mLoaded;
+    private boolean mSignedIn;
+    private boolean mPersistedSignedIn;
+    private boolean mPersistedKnown;
+    private boolean mWriteScheduled;
+
+    private long mRequestedWrites;
+    private long mBackendWrites;
+    private long mBackendWriteNanos;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param backend durable storage for the state
+     * @param executor runs loads and writes off the calling thread
+     * @param batchWindowMs how long to collect changes before writing them
+     */
+    public BatchingSignInStateStore(Backend backend, ScheduledExecutorService executor,
+            long batchWindowMs) {
+        mBackend = backend;
+        mExecutor = executor;
+        mBatchWindowMs = batchWindowMs;
+    }
+
+    /**
+     * Starts loading the persisted state on the executor. Safe to call more than once.
+     */
+    public synchronized void preload() {
+        if (mLoad == null) {
+            mLoad = mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    boolean signedIn = mBackend.read();
+                    synchronized (BatchingSignInStateStore.this) {
+                        if (!mPersistedKnown) {
+                            mPersistedSignedIn = signedIn;
+                            mPersistedKnown = true;
+                        }
+                        if (!mLoaded) {
+                            mSignedIn = signedIn;
+                            mLoaded = true;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the state from memory. Only if {@link #preload()} has not finished yet does this
+     * wait for it.
+     */
+    @Override
+    public boolean isSignedIn() {
+        Future<?> load;
+        synchronized (this) {
+            if (mLoaded) {
+                return mSignedIn;
+            }
+            preload();
+            load = mLoad;
+        }
+        try {
+            load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not load sign in state", e.getCause());
+        }
+        synchronized (this) {
+            return mSignedIn;
+        }
+    }
+
+    @Override
+    public synchronized void setSignedIn(boolean signedIn) {
+        // A write before the load finished is newer than whatever is on disk.
+        mLoaded = true;
+        mSignedIn = signedIn;
+        mRequestedWrites++;
+        if (!mWriteScheduled) {
+            mWriteScheduled = true;
+            mExecutor.schedule(mFlushTask, mBatchWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        boolean signedIn;
+        synchronized (this) {
+            mWriteScheduled = false;
+            signedIn = mSignedIn;
+            if (mPersistedKnown && signedIn == mPersistedSignedIn) {
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        mBackend.write(signedIn);
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            mPersistedSignedIn = signedIn;
+            mPersistedKnown = true;
+            mBackendWrites++;
+            mBackendWriteNanos += elapsed;
+        }
+    }
+
+    /**
+     * Returns how many times {@link #setSignedIn(boolean)} was called.
+     */
+    public synchronized long getRequestedWriteCount() {
+        return mRequestedWrites;
+    }
+
+    /**
+     * Returns how many writes actually reached the backend.
+     */
+    public synchronized long getBackendWriteCount() {
+        return mBackendWrites;
+    }
+
+    /**
+     * Returns the total time spent in {@link Backend#write(boolean)}, in nanoseconds.
+     */
+    public synchronized long getBackendWriteNanos() {
+        return mBackendWriteNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BatchingSignInStateStore{requestedWrites=" + mRequestedWrites
+                + ", backendWrites=" + mBackendWrites
+                + ", backendWriteUs=" + mBackendWriteNanos / 1000 + "}";
+    }
+}
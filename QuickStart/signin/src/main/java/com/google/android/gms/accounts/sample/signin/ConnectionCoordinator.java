@@ -0,0 +1,297 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes sure there is at most one connection attempt in flight for the current client.
+ *
+ * Connects are requested from many places: starting the Activity, a suspended connection, a
+ * returned resolution, a resolution that could not be sent, signing out and revoking access.
+ * Requests made while an attempt is in flight share it instead of starting another, and all of
+ * them get the same {@link Attempt} to wait on. Rebuilding the client and connecting the new one
+ * happen atomically, and an attempt for a client that has since been replaced is cancelled, so
+ * late callbacks from the old client are ignored.
+ *
+ * The class is thread safe. Connector methods are called with the coordinator's lock held and
+ * must neither block nor call back into the coordinator; attempt callbacks are called without
+ * it. A connector that takes a lock of its own, for example to swap the client it hands out,
+ * must only be used by callers that hold that lock before they call into the coordinator, so
+ * that both locks are always taken in the same order. Such a connector should check that its
+ * lock is held, see {@link Connector#rebuild()}.
+ *
+ * @param <C> the type of client, a GoogleApiClient on Android
+ */
+public class ConnectionCoordinator<C> {
+
+    /**
+     * Builds and connects clients.
+     */
+    public interface Connector<C> {
+        /**
+         * Discards the current client, if any, and returns a new un-connected one. The
+         * coordinator makes it current, so this must not call
+         * {@link ConnectionCoordinator#setClient}. If it takes a lock of its own, it should throw
+         * an {@link IllegalStateException} when called without that lock already held, since
+         * taking it here would invert the lock order.
+         */
+        C rebuild();
+
+        /**
+         * Starts connecting the client. Must not block.
+         */
+        void connect(C client);
+
+        boolean isConnected(C client);
+    }
+
+    /**
+     * Notified once when an attempt settles.
+     */
+    public interface Callback {
+        /**
+         * @param connected whether the client connected
+         * @param errorCode the error code if it did not connect, or 0 if the attempt was
+         *                  cancelled because the client was replaced
+         */
+        void onSettled(boolean connected, int errorCode);
+    }
+
+    /**
+     * One connection attempt, shared by every request made while it was in flight.
+     */
+    public final class Attempt {
+        private final C mClient;
+        private boolean mDone;
+        private boolean mConnected;
+        private int mErrorCode;
+        private List<Callback> mCallbacks;
+
+        Attempt(C client) {
+            mClient = client;
+        }
+
+        /**
+         * Calls back once the attempt settles, straight away if it already has.
+         */
+        public void addCallback(Callback callback) {
+            synchronized (ConnectionCoordinator.this) {
+                if (!mDone) {
+                    if (mCallbacks == null) {
+                        mCallbacks = new ArrayList<Callback>(1);
+                    }
+                    mCallbacks.add(callback);
+                    return;
+                }
+            }
+            callback.onSettled(mConnected, mErrorCode);
+        }
+
+        public boolean isDone() {
+            synchronized (ConnectionCoordinator.this) {
+                return mDone;
+            }
+        }
+
+        public boolean isConnected() {
+            synchronized (ConnectionCoordinator.this) {
+                return mConnected;
+            }
+        }
+
+        /**
+         * Marks the attempt settled and returns the callbacks to notify outside the lock.
+         */
+        List<Callback> settle(boolean connected, int errorCode) {
+            mDone = true;
+            mConnected = connected;
+            mErrorCode = errorCode;
+            List<Callback> callbacks = mCallbacks;
+            mCallbacks = null;
+            return callbacks;
+        }
+    }
+
+    private final Connector<C> mConnector;
+    private C mClient;
+    private Attempt mInFlight;
+
+    private long mRequests;
+    private long mAttempts;
+    private long mRebuilds;
+    private long mStaleCallbacks;
+
+    public ConnectionCoordinator(Connector<C> connector) {
+        mConnector = connector;
+    }
+
+    /**
+     * Sets the client to connect, for example after borrowing a different one. An attempt in
+     * flight for the previous client is cancelled.
+     */
+    public void setClient(C client) {
+        List<Callback> cancelled = null;
+        Attempt attempt;
+        synchronized (this) {
+            if (client == mClient) {
+                return;
+            }
+            attempt = mInFlight;
+            if (attempt != null) {
+                cancelled = attempt.settle(false, 0);
+                mInFlight = null;
+            }
+            mClient = client;
+        }
+        notifySettled(cancelled, attempt);
+    }
+
+    /**
+     * Connects the current client unless it is connected or an attempt is already in flight.
+     *
+     * @return the attempt in flight, or a settled attempt if the client is already connected
+     */
+    public Attempt connect() {
+        synchronized (this) {
+            mRequests++;
+            if (mInFlight != null) {
+                return mInFlight;
+            }
+            Attempt attempt = new Attempt(mClient);
+            if (mClient != null && mConnector.isConnected(mClient)) {
+                attempt.settle(true, 0);
+                return attempt;
+            }
+            return start(attempt);
+        }
+    }
+
+    /**
+     * Replaces the client with a new one and connects it, cancelling any attempt in flight for
+     * the old client. No other connect can slip in between the two.
+     */
+    public Attempt rebuildAndConnect() {
+        List<Callback> cancelled = null;
+        Attempt previous;
+        Attempt attempt;
+        synchronized (this) {
+            mRequests++;
+            mRebuilds++;
+            previous = mInFlight;
+            if (previous != null) {
+                cancelled = previous.settle(false, 0);
+                mInFlight = null;
+            }
+            // The new client is not connected, so it cannot call back before it is current.
+            mClient = mConnector.rebuild();
+            attempt = start(new Attempt(mClient));
+        }
+        notifySettled(cancelled, previous);
+        return attempt;
+    }
+
+    private Attempt start(Attempt attempt) {
+        if (attempt.mClient == null) {
+            attempt.settle(false, 0);
+            return attempt;
+        }
+        mAttempts++;
+        mInFlight = attempt;
+        mConnector.connect(attempt.mClient);
+        if (mInFlight == attempt && mConnector.isConnected(attempt.mClient)) {
+            // A client that was already connected does not call back again.
+            mInFlight = null;
+            attempt.settle(true, 0);
+        }
+        return attempt;
+    }
+
+    /**
+     * Must be called when a client connects.
+     */
+    public void onConnected(C client) {
+        settle(client, true, 0);
+    }
+
+    /**
+     * Must be called when a client fails to connect.
+     */
+    public void onConnectionFailed(C client, int errorCode) {
+        settle(client, false, errorCode);
+    }
+
+    private void settle(C client, boolean connected, int errorCode) {
+        List<Callback> callbacks;
+        Attempt attempt;
+        synchronized (this) {
+            attempt = mInFlight;
+            if (client != mClient) {
+                mStaleCallbacks++;
+                return;
+            }
+            if (attempt == null) {
+                return;
+            }
+            mInFlight = null;
+            callbacks = attempt.settle(connected, errorCode);
+        }
+        notifySettled(callbacks, attempt);
+    }
+
+    private static void notifySettled(List<Callback> callbacks,
+            ConnectionCoordinator<?>.Attempt attempt) {
+        if (callbacks == null) {
+            return;
+        }
+        for (Callback callback : callbacks) {
+            callback.onSettled(attempt.mConnected, attempt.mErrorCode);
+        }
+    }
+
+    /**
+     * Returns how many connects were requested.
+     */
+    public synchronized long getRequestCount() {
+        return mRequests;
+    }
+
+    /**
+     * Returns how many connection attempts were actually started.
+     */
+    public synchronized long getAttemptCount() {
+        return mAttempts;
+    }
+
+    public synchronized long getRebuildCount() {
+        return mRebuilds;
+    }
+
+    /**
+     * Returns how many callbacks arrived from clients that had already been replaced.
+     */
+    public synchronized long getStaleCallbackCount() {
+        return mStaleCallbacks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConnectionCoordinator{requests=" + mRequests + ", attempts=" + mAttempts
+                + ", rebuilds=" + mRebuilds + ", staleCallbacks=" + mStaleCallbacks + "}";
+    }
+}
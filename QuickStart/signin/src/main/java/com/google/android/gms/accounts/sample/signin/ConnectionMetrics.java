@@ -0,0 +1,306 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Aggregate numbers about the connection to Google Play services: failures per
+ * {@code ConnectionResult} error code, time to connect, time spent suspended, how often
+ * resolutions succeed, how many a sign in takes and how long a click on 'sign in' takes to start
+ * one.
+ *
+ * Every method is lock free and allocation free, so the metrics can be recorded from any thread
+ * and left on in release builds. Counters are cumulative since the process started; snapshots
+ * written with {@link #writeLineProtocol(Appendable, String, long)} are diffed by whoever reads
+ * them.
+ */
+public class ConnectionMetrics {
+
+    /**
+     * Error codes at or above this are counted together.
+     */
+    public static final int MAX_ERROR_CODE = 32;
+
+    private final TaskScheduler mClock;
+
+    private final AtomicLong mConnectsStarted = new AtomicLong();
+    private final AtomicLong mConnects = new AtomicLong();
+    private final AtomicLong mFailures = new AtomicLong();
+    private final AtomicLongArray mFailuresByCode = new AtomicLongArray(MAX_ERROR_CODE + 1);
+    private final AtomicLong mSuspends = new AtomicLong();
+    private final AtomicLong mResolutionsStarted = new AtomicLong();
+    private final AtomicLong mResolutionsSucceeded = new AtomicLong();
+
+    private final LatencyHistogram mConnectLatency = new LatencyHistogram();
+    private final LatencyHistogram mSuspendedTime = new LatencyHistogram();
+    private final LatencyHistogram mResolutionTime = new LatencyHistogram();
+    private final LatencyHistogram mTapToResolution = new LatencyHistogram();
+    // Not a latency: the number of resolutions each sign in took.
+    private final LatencyHistogram mResolutionsPerSignIn = new LatencyHistogram();
+
+    // Start times of the intervals in progress, 0 if none.
+    private final AtomicLong mConnectingSince = new AtomicLong();
+    private final AtomicLong mSuspendedSince = new AtomicLong();
+    private final AtomicLong mResolvingSince = new AtomicLong();
+    private final AtomicLong mClickedSince = new AtomicLong();
+    private final AtomicLong mResolutionsSinceConnected = new AtomicLong();
+
+    /**
+     * Measures latencies with {@link System#nanoTime()}.
+     */
+    public ConnectionMetrics() {
+        this(null);
+    }
+
+    /**
+     * @param clock the source of time for latencies, for example a ManualTaskScheduler in a
+     *              simulation, or null to use {@link System#nanoTime()}
+     */
+    public ConnectionMetrics(TaskScheduler clock) {
+        mClock = clock;
+    }
+
+    /**
+     * A connection attempt started. Further calls before it ends are ignored.
+     */
+    public void onConnectStarted() {
+        mConnectsStarted.incrementAndGet();
+        mConnectingSince.compareAndSet(0, now());
+    }
+
+    public void onConnected() {
+        mConnects.incrementAndGet();
+        long now = now();
+        long since = mConnectingSince.getAndSet(0);
+        if (since != 0) {
+            mConnectLatency.record(now - since);
+        }
+        since = mSuspendedSince.getAndSet(0);
+        if (since != 0) {
+            mSuspendedTime.record(now - since);
+        }
+        // A connect after a click on 'sign in' or a resolution is a sign in, even if it took no
+        // resolution; other connects are returning users and reconnects.
+        long resolutions = mResolutionsSinceConnected.getAndSet(0);
+        if (mClickedSince.getAndSet(0) != 0 || resolutions > 0) {
+            mResolutionsPerSignIn.record(resolutions);
+        }
+    }
+
+    public void onConnectionFailed(int errorCode) {
+        mFailures.incrementAndGet();
+        mFailuresByCode.incrementAndGet(Math.max(0, Math.min(errorCode, MAX_ERROR_CODE)));
+        mConnectingSince.set(0);
+    }
+
+    public void onConnectionSuspended() {
+        mSuspends.incrementAndGet();
+        mSuspendedSince.compareAndSet(0, now());
+    }
+
+    /**
+     * The user clicked 'sign in'. Further clicks before a resolution starts are ignored.
+     */
+    public void onSignInClicked() {
+        mClickedSince.compareAndSet(0, now());
+    }
+
+    /**
+     * The click on 'sign in' will not start a resolution, for example because an error dialog
+     * is shown instead.
+     */
+    public void onSignInClickAbandoned() {
+        mClickedSince.set(0);
+    }
+
+    /**
+     * The resolution of a failed connection, such as the account picker, was started.
+     */
+    public void onResolutionStarted() {
+        mResolutionsStarted.incrementAndGet();
+        mResolutionsSinceConnected.incrementAndGet();
+        long now = now();
+        mResolvingSince.set(now);
+        long since = mClickedSince.getAndSet(0);
+        if (since != 0) {
+            mTapToResolution.record(now - since);
+        }
+    }
+
+    /**
+     * The resolution returned, in {@code onActivityResult}.
+     */
+    public void onResolutionFinished(boolean resolved) {
+        if (resolved) {
+            mResolutionsSucceeded.incrementAndGet();
+        }
+        long since = mResolvingSince.getAndSet(0);
+        if (since != 0) {
+            mResolutionTime.record(now() - since);
+        }
+    }
+
+    public long getFailureCount(int errorCode) {
+        return mFailuresByCode.get(Math.max(0, Math.min(errorCode, MAX_ERROR_CODE)));
+    }
+
+    /**
+     * Returns the fraction of connection attempts that failed.
+     */
+    public double getFailureRate() {
+        long attempts = mConnects.get() + mFailures.get();
+        return attempts == 0 ? 0 : (double) mFailures.get() / attempts;
+    }
+
+    /**
+     * Returns the fraction of started resolutions the user completed.
+     */
+    public double getResolutionSuccessRate() {
+        long started = mResolutionsStarted.get();
+        return started == 0 ? 0 : (double) mResolutionsSucceeded.get() / started;
+    }
+
+    public LatencyHistogram getConnectLatency() {
+        return mConnectLatency;
+    }
+
+    public LatencyHistogram getSuspendedTime() {
+        return mSuspendedTime;
+    }
+
+    public LatencyHistogram getResolutionTime() {
+        return mResolutionTime;
+    }
+
+    /**
+     * Returns the time from a click on 'sign in' to the resolution it started.
+     */
+    public LatencyHistogram getTapToResolution() {
+        return mTapToResolution;
+    }
+
+    /**
+     * Returns how many resolutions, such as the account picker and the consent screen, each
+     * sign in took. The values are counts, not milliseconds.
+     */
+    public LatencyHistogram getResolutionsPerSignIn() {
+        return mResolutionsPerSignIn;
+    }
+
+    /**
+     * Appends a snapshot in InfluxDB line protocol, one line per measurement, for example:
+     * <pre>
+     * connection,app=quickstart connectsStarted=3i,connects=2i,failures=1i,... 1420070400000
+     * connection_failure,app=quickstart,code=4 count=1i 1420070400000
+     * connection_latency,app=quickstart,phase=connect count=2i,p50=180i,... 1420070400000
+     * connection_resolutions,app=quickstart count=1i,p50=2i,... 1420070400000
+     * </pre>
+     * Timestamps are in milliseconds, so write them with {@code precision=ms}.
+     *
+     * @param tags tags added to every line, such as {@code app=quickstart}, or null. Build them
+     *             with {@link #tags(String...)} so reserved characters are escaped.
+     */
+    public void writeLineProtocol(Appendable out, String tags, long timestampMillis)
+            throws IOException {
+        String suffix = tags != null ? "," + tags : "";
+        out.append("connection").append(suffix)
+                .append(" connectsStarted=").append(Long.toString(mConnectsStarted.get()))
+                .append("i,connects=").append(Long.toString(mConnects.get()))
+                .append("i,failures=").append(Long.toString(mFailures.get()))
+                .append("i,suspends=").append(Long.toString(mSuspends.get()))
+                .append("i,resolutionsStarted=").append(Long.toString(mResolutionsStarted.get()))
+                .append("i,resolutionsSucceeded=")
+                .append(Long.toString(mResolutionsSucceeded.get()))
+                .append("i ").append(Long.toString(timestampMillis)).append('\n');
+        for (int code = 0; code <= MAX_ERROR_CODE; code++) {
+            long count = mFailuresByCode.get(code);
+            if (count > 0) {
+                out.append("connection_failure").append(suffix)
+                        .append(",code=").append(Integer.toString(code))
+                        .append(" count=").append(Long.toString(count))
+                        .append("i ").append(Long.toString(timestampMillis)).append('\n');
+            }
+        }
+        String latency = "connection_latency" + suffix + ",phase=";
+        writeHistogram(out, latency + "connect", mConnectLatency, timestampMillis);
+        writeHistogram(out, latency + "suspended", mSuspendedTime, timestampMillis);
+        writeHistogram(out, latency + "resolution", mResolutionTime, timestampMillis);
+        writeHistogram(out, latency + "tapToResolution", mTapToResolution, timestampMillis);
+        writeHistogram(out, "connection_resolutions" + suffix, mResolutionsPerSignIn,
+                timestampMillis);
+    }
+
+    /**
+     * Formats tags for {@link #writeLineProtocol(Appendable, String, long)}, escaping the commas,
+     * equals signs and spaces that line protocol reserves in tag keys and values.
+     *
+     * @param keysAndValues tag keys, each followed by its value
+     */
+    public static String tags(String... keysAndValues) {
+        if (keysAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Every tag key needs a value");
+        }
+        StringBuilder tags = new StringBuilder();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            if (i > 0) {
+                tags.append(',');
+            }
+            appendEscaped(tags, keysAndValues[i]);
+            tags.append('=');
+            appendEscaped(tags, keysAndValues[i + 1]);
+        }
+        return tags.toString();
+    }
+
+    private static void appendEscaped(StringBuilder out, String tag) {
+        for (int i = 0; i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            if (c == ',' || c == '=' || c == ' ') {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+    }
+
+    /**
+     * @param series the measurement and its tags
+     */
+    private static void writeHistogram(Appendable out, String series,
+            LatencyHistogram histogram, long timestampMillis) throws IOException {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        out.append(series)
+                .append(" count=").append(Long.toString(histogram.getCount()))
+                .append("i,p50=").append(Long.toString(histogram.getPercentile(0.5)))
+                .append("i,p90=").append(Long.toString(histogram.getPercentile(0.9)))
+                .append("i,p99=").append(Long.toString(histogram.getPercentile(0.99)))
+                .append("i,max=").append(Long.toString(histogram.getMax()))
+                .append("i ").append(Long.toString(timestampMillis)).append('\n');
+    }
+
+    private long now() {
+        // Never 0, which marks an interval that is not in progress.
+        long now = mClock != null
+                ? mClock.uptimeMillis() : TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        return Math.max(1, now);
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * An in-process stand-in for a GoogleApiClient connection, for running the sign in flow on the
+ * JVM without a device, Google Play services or a network.
+ *
+ * Each call to {@link #connect()} takes the next scripted {@link Outcome} and delivers it to the
+ * {@link Callbacks} after a latency drawn from the outcome's {@link LatencyModel}. Time passes on
+ * a {@link TaskScheduler}, normally a {@link ManualTaskScheduler}, so thousands of simulated
+ * sessions run in well under a second and a seeded run is repeatable. Like GoogleApiClient,
+ * connecting while already connected or connecting does nothing.
+ */
+public class FakeConnection implements SignInStateMachine.ConnectionPort {
+
+    /**
+     * Mirrors {@code ConnectionResult.SIGN_IN_REQUIRED}.
+     */
+    public static final int ERROR_SIGN_IN_REQUIRED = 4;
+
+    /**
+     * Mirrors {@code ConnectionResult.RESOLUTION_REQUIRED}.
+     */
+    public static final int ERROR_RESOLUTION_REQUIRED = 6;
+
+    /**
+     * Mirrors {@code ConnectionResult.NETWORK_ERROR}.
+     */
+    public static final int ERROR_NETWORK_ERROR = 7;
+
+    /**
+     * Receives what a GoogleApiClient would deliver to its callbacks.
+     */
+    public interface Callbacks {
+        void onConnected();
+
+        void onConnectionFailed(int errorCode, Resolution resolution);
+
+        void onConnectionSuspended();
+    }
+
+    /**
+     * Stands in for the PendingIntent returned with a failed connection.
+     */
+    public static final class Resolution {
+        private final int mErrorCode;
+
+        Resolution(int errorCode) {
+            mErrorCode = errorCode;
+        }
+
+        public int getErrorCode() {
+            return mErrorCode;
+        }
+
+        @Override
+        public String toString() {
+            return "Resolution{errorCode=" + mErrorCode + "}";
+        }
+    }
+
+    /**
+     * The scripted result of one connection attempt. Instances are immutable.
+     */
+    public static final class Outcome {
+        final int errorCode;
+        final boolean hasResolution;
+        final LatencyModel latency;
+        final long suspendAfterMs;
+
+        private Outcome(int errorCode, boolean hasResolution, LatencyModel latency,
+                long suspendAfterMs) {
+            this.errorCode = errorCode;
+            this.hasResolution = hasResolution;
+            this.latency = latency;
+            this.suspendAfterMs = suspendAfterMs;
+        }
+
+        /**
+         * The attempt connects.
+         */
+        public static Outcome connected(LatencyModel latency) {
+            return new Outcome(0, false, latency, -1);
+        }
+
+        /**
+         * The attempt fails with the given error code, with or without a resolution.
+         */
+        public static Outcome failed(int errorCode, boolean hasResolution, LatencyModel latency) {
+            return new Outcome(errorCode, hasResolution, latency, -1);
+        }
+
+        /**
+         * Returns a copy of this connected outcome where the connection is suspended the given
+         * time after connecting.
+         */
+        public Outcome thenSuspendAfter(long millis) {
+            if (errorCode != 0) {
+                throw new IllegalStateException("Only a connected outcome can be suspended");
+            }
+            return new Outcome(errorCode, hasResolution, latency, millis);
+        }
+
+        @Override
+        public String toString() {
+            return errorCode == 0
+                    ? "connected(" + latency + ", suspendAfterMs=" + suspendAfterMs + ")"
+                    : "failed(" + errorCode + ", " + hasResolution + ", " + latency + ")";
+        }
+    }
+
+    private final TaskScheduler mScheduler;
+    private final Random mRandom;
+    private final ArrayDeque<Outcome> mScript = new ArrayDeque<Outcome>();
+    private Outcome mDefaultOutcome = Outcome.connected(LatencyModel.fixed(0));
+    private Callbacks mCallbacks;
+
+    private boolean mConnecting;
+    private boolean mConnected;
+    private Runnable mPending;
+
+    private int mAttempts;
+    private int mFailures;
+    private int mSuspends;
+
+    public FakeConnection(TaskScheduler scheduler, Random random) {
+        mScheduler = scheduler;
+        mRandom = random;
+    }
+
+    public void setCallbacks(Callbacks callbacks) {
+        mCallbacks = callbacks;
+    }
+
+    /**
+     * Adds outcomes for the next connection attempts, in order.
+     */
+    public FakeConnection script(Outcome... outcomes) {
+        for (Outcome outcome : outcomes) {
+            mScript.add(outcome);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the outcome of attempts made once the script has run out. Defaults to connecting
+     * straight away.
+     */
+    public FakeConnection setDefaultOutcome(Outcome outcome) {
+        mDefaultOutcome = outcome;
+        return this;
+    }
+
+    @Override
+    public void connect() {
+        if (mConnecting || mConnected) {
+            return;
+        }
+        mAttempts++;
+        mConnecting = true;
+        final Outcome outcome = mScript.isEmpty() ? mDefaultOutcome : mScript.poll();
+        mPending = new Runnable() {
+            @Override
+            public void run() {
+                mPending = null;
+                mConnecting = false;
+                deliver(outcome);
+            }
+        };
+        mScheduler.schedule(mPending, Math.max(0, outcome.latency.nextMillis(mRandom)));
+    }
+
+    @Override
+    public boolean isConnecting() {
+        return mConnecting;
+    }
+
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    /**
+     * Drops the connection, or the attempt in progress, without calling back.
+     */
+    public void disconnect() {
+        if (mPending != null) {
+            mScheduler.cancel(mPending);
+            mPending = null;
+        }
+        mConnecting = false;
+        mConnected = false;
+    }
+
+    private void deliver(Outcome outcome) {
+        if (outcome.errorCode != 0) {
+            mFailures++;
+            if (mCallbacks != null) {
+                mCallbacks.onConnectionFailed(outcome.errorCode,
+                        outcome.hasResolution ? new Resolution(outcome.errorCode) : null);
+            }
+            return;
+        }
+        mConnected = true;
+        if (outcome.suspendAfterMs >= 0) {
+            mPending = new Runnable() {
+                @Override
+                public void run() {
+                    mPending = null;
+                    mConnected = false;
+                    mSuspends++;
+                    if (mCallbacks != null) {
+                        mCallbacks.onConnectionSuspended();
+                    }
+                }
+            };
+            mScheduler.schedule(mPending, outcome.suspendAfterMs);
+        }
+        if (mCallbacks != null) {
+            mCallbacks.onConnected();
+        }
+    }
+
+    public int getAttemptCount() {
+        return mAttempts;
+    }
+
+    public int getFailureCount() {
+        return mFailures;
+    }
+
+    public int getSuspendCount() {
+        return mSuspends;
+    }
+
+    @Override
+    public String toString() {
+        return "FakeConnection{attempts=" + mAttempts + ", failures=" + mFailures
+                + ", suspends=" + mSuspends + ", scripted=" + mScript.size() + "}";
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import java.util.Random;
+
+/**
+ * A distribution of latencies, in milliseconds, used to script {@link FakeConnection}. Samples are
+ * drawn from the caller's Random so a seeded run is repeatable.
+ */
+public abstract class LatencyModel {
+
+    /**
+     * Returns the next latency, never negative.
+     */
+    public abstract long nextMillis(Random random);
+
+    /**
+     * Always the same latency.
+     */
+    public static LatencyModel fixed(final long millis) {
+        return new LatencyModel() {
+            @Override
+            public long nextMillis(Random random) {
+                return millis;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed(" + millis + ")";
+            }
+        };
+    }
+
+    /**
+     * Uniformly distributed between the bounds, inclusive.
+     */
+    public static LatencyModel uniform(final long minMillis, final long maxMillis) {
+        return new LatencyModel() {
+            @Override
+            public long nextMillis(Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+            }
+
+            @Override
+            public String toString() {
+                return "uniform(" + minMillis + ", " + maxMillis + ")";
+            }
+        };
+    }
+
+    /**
+     * Log-normally distributed around the median, the usual shape of network and IPC latencies
+     * with their long tail. A sigma of 0.5 puts the 99th percentile at about 3.2 times the
+     * median.
+     */
+    public static LatencyModel logNormal(final long medianMillis, final double sigma) {
+        return new LatencyModel() {
+            @Override
+            public long nextMillis(Random random) {
+                return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+            }
+
+            @Override
+            public String toString() {
+                return "logNormal(" + medianMillis + ", " + sigma + ")";
+            }
+        };
+    }
+}
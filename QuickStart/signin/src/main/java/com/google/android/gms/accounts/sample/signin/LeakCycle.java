@@ -0,0 +1,118 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.accounts.sample.signin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the same steps over and over, for example rotate, sign in, sign out and revoke access,
+ * and uses a {@link LeakWatcher} to check that nothing the steps destroy stays in memory and
+ * that the heap does not keep growing from one cycle to the next.
+ *
+ * The steps drive the app and wait for it to settle themselves; the cycle only orders them,
+ * collects garbage and checks the bounds, so the instrumentation tests of both samples share it
+ * and it can be tested without a device.
+ */
+public class LeakCycle {
+
+    /**
+     * One action of a cycle.
+     */
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    private final LeakWatcher mWatcher;
+    private final long mSettleMs;
+    private final List<String> mNames = new ArrayList<String>();
+    private final List<Step> mSteps = new ArrayList<Step>();
+
+    /**
+     * @param watcher the watcher the app reports destroyed objects to
+     * @param settleMs how long to wait after the last step before collecting garbage, at least
+     *     the watcher's grace period
+     */
+    public LeakCycle(LeakWatcher watcher, long settleMs) {
+        mWatcher = watcher;
+        mSettleMs = settleMs;
+    }
+
+    /**
+     * Adds a step to the end of the cycle.
+     *
+     * @param name how the step is reported if it fails
+     */
+    public LeakCycle addStep(String name, Step step) {
+        mNames.add(name);
+        mSteps.add(step);
+        return this;
+    }
+
+    /**
+     * Runs one cycle to warm up, so classes and caches loaded on first use do not count as
+     * growth, and then the given number of cycles.
+     *
+     * @param minWatchesPerCycle how many objects the app should destroy and watch per cycle, to
+     *     catch a cycle that silently stopped doing anything
+     * @param maxHeapGrowthPerWatch how much heap each watched object may leave behind, in bytes
+     * @throws AssertionError if an object was retained, too few objects were watched or the heap
+     *     grew by more than the bound
+     */
+    public void run(int cycles, int minWatchesPerCycle, long maxHeapGrowthPerWatch)
+            throws Exception {
+        runCycle(0);
+        List<String> retained = settleAndCheck();
+        long watched = mWatcher.getWatchCount();
+
+        for (int i = 1; i <= cycles; i++) {
+            runCycle(i);
+        }
+        retained.addAll(settleAndCheck());
+        watched = mWatcher.getWatchCount() - watched;
+
+        if (watched < (long) cycles * minWatchesPerCycle) {
+            throw new AssertionError("only " + watched + " objects were watched in " + cycles
+                    + " cycles, expected at least " + minWatchesPerCycle + " per cycle");
+        }
+        if (!retained.isEmpty()) {
+            throw new AssertionError("retained after " + cycles + " cycles: " + retained);
+        }
+        long growth = mWatcher.getHeapGrowthPerWatch();
+        if (growth > maxHeapGrowthPerWatch) {
+            throw new AssertionError("heap grew by " + growth + " bytes per watched object, more"
+                    + " than " + maxHeapGrowthPerWatch + ": " + mWatcher);
+        }
+    }
+
+    private void runCycle(int cycle) throws Exception {
+        for (int i = 0; i < mSteps.size(); i++) {
+            try {
+                mSteps.get(i).run();
+            } catch (Exception e) {
+                throw new Exception(
+                        "step '" + mNames.get(i) + "' of cycle " + cycle + " failed", e);
+            }
+        }
+    }
+
+    private List<String> settleAndCheck() throws InterruptedException {
+        Thread.sleep(mSettleMs);
+        return mWatcher.check();
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Watches objects that should be garbage collected soon, such as destroyed Activities, and
+ * reports the ones that are still reachable.
+ *
+ * Each watched object is held weakly. Once it is collected it is forgotten; if it is still
+ * around {@link #DEFAULT_GRACE_MS} after it was watched and a garbage collection has run, it is
+ * reported as retained. The watcher also samples the used heap every time an object is watched
+ * and after every {@link #check()}, so the growth per cycle, for example per rotation or per
+ * account switch, can be read off {@link #toString()}. Only {@link #check()} runs a garbage
+ * collection. The methods are thread safe.
+ */
+public class LeakWatcher {
+
+    /**
+     * How long an object may stay reachable after it was watched, for example while a message
+     * posted before an Activity was destroyed is still in the queue.
+     */
+    public static final long DEFAULT_GRACE_MS = 5000;
+
+    private final long mGraceNanos;
+    private final List<Watched> mWatched = new ArrayList<Watched>();
+
+    private long mWatchCount;
+    private long mCollectedCount;
+    private int mLastRetainedCount;
+    private long mFirstUsedHeap = -1;
+    private long mLastUsedHeap;
+    private long mFirstCheckedHeap = -1;
+    private long mFirstCheckedWatchCount;
+    private long mLastCheckedHeap;
+    private long mLastCheckedWatchCount;
+
+    public LeakWatcher() {
+        this(DEFAULT_GRACE_MS);
+    }
+
+    /**
+     * @param graceMs how long an object may stay reachable after it was watched
+     */
+    public LeakWatcher(long graceMs) {
+        mGraceNanos = graceMs * 1000000L;
+    }
+
+    /**
+     * Starts watching an object that nothing should reference any more.
+     *
+     * @param description how the object is reported if it is retained
+     */
+    public synchronized void watch(Object instance, String description) {
+        removeCollected();
+        mWatched.add(new Watched(instance, description, System.nanoTime()));
+        mWatchCount++;
+        mLastUsedHeap = usedHeap();
+        if (mFirstUsedHeap < 0) {
+            mFirstUsedHeap = mLastUsedHeap;
+        }
+    }
+
+    /**
+     * Runs a garbage collection and returns the descriptions of the objects still reachable
+     * after their grace period. This blocks while the collector runs, so call it from a dump or
+     * a test rather than on every frame.
+     */
+    public List<String> check() {
+        Runtime.getRuntime().gc();
+        System.runFinalization();
+        Runtime.getRuntime().gc();
+        synchronized (this) {
+            removeCollected();
+            long now = System.nanoTime();
+            List<String> retained = new ArrayList<String>();
+            for (Watched watched : mWatched) {
+                if (now - watched.watchedAtNanos > mGraceNanos) {
+                    retained.add(watched.description + " retained for "
+                            + (now - watched.watchedAtNanos) / 1000000L + "ms");
+                }
+            }
+            mLastRetainedCount = retained.size();
+            mLastCheckedHeap = usedHeap();
+            mLastCheckedWatchCount = mWatchCount;
+            if (mFirstCheckedHeap < 0) {
+                mFirstCheckedHeap = mLastCheckedHeap;
+                mFirstCheckedWatchCount = mWatchCount;
+            }
+            return retained;
+        }
+    }
+
+    /**
+     * Returns the number of objects watched so far.
+     */
+    public synchronized long getWatchCount() {
+        return mWatchCount;
+    }
+
+    /**
+     * Returns by how much the used heap grew, on average, between two watched objects, in bytes.
+     * With one object watched per cycle, for example per Activity destroyed by a rotation, this
+     * is the heap each cycle keeps.
+     *
+     * Once objects have been watched between two calls to {@link #check()}, only the samples
+     * taken right after those garbage collections are compared, so garbage that was not yet
+     * collected when an object was watched does not count as growth.
+     */
+    public synchronized long getHeapGrowthPerWatch() {
+        if (mLastCheckedWatchCount > mFirstCheckedWatchCount) {
+            return (mLastCheckedHeap - mFirstCheckedHeap)
+                    / (mLastCheckedWatchCount - mFirstCheckedWatchCount);
+        }
+        return mWatchCount > 1 ? (mLastUsedHeap - mFirstUsedHeap) / (mWatchCount - 1) : 0;
+    }
+
+    private void removeCollected() {
+        for (Iterator<Watched> it = mWatched.iterator(); it.hasNext(); ) {
+            if (it.next().get() == null) {
+                it.remove();
+                mCollectedCount++;
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Describes the counters as of the last {@link #check()}, without collecting garbage.
+     */
+    @Override
+    public synchronized String toString() {
+        return "LeakWatcher{watched=" + mWatchCount + ", collected=" + mCollectedCount
+                + ", retained=" + mLastRetainedCount + ", usedHeap=" + usedHeap()
+                + ", heapGrowthPerWatch=" + getHeapGrowthPerWatch() + "}";
+    }
+
+    private static final class Watched extends WeakReference<Object> {
+        final String description;
+        final long watchedAtNanos;
+
+        Watched(Object instance, String description, long watchedAtNanos) {
+            super(instance);
+            this.description = description;
+            this.watchedAtNanos = watchedAtNanos;
+        }
+    }
+}
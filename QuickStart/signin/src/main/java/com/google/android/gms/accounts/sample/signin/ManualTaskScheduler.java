@@ -0,0 +1,107 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.accounts.sample.signin;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Deterministic {@link TaskScheduler} whose clock only moves when {@link #advanceBy(long)} or
+ * {@link #runUntilIdle()} is called. Tasks due at the same time run in the order they were
+ * scheduled. Intended for driving the sign in classes on the JVM.
+ */
+public class ManualTaskScheduler implements TaskScheduler {
+
+    private final PriorityQueue<Pending> mQueue = new PriorityQueue<Pending>();
+    private long mNowMillis;
+    private long mSequence;
+
+    @Override
+    public long uptimeMillis() {
+        return mNowMillis;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        mQueue.add(new Pending(task, mNowMillis + Math.max(0, delayMillis), mSequence++));
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        Iterator<Pending> it = mQueue.iterator();
+        while (it.hasNext()) {
+            if (it.next().task == task) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Moves the clock forward, running every task that becomes due on the way.
+     */
+    public void advanceBy(long millis) {
+        long target = mNowMillis + millis;
+        while (!mQueue.isEmpty() && mQueue.peek().dueMillis <= target) {
+            Pending next = mQueue.poll();
+            mNowMillis = next.dueMillis;
+            next.task.run();
+        }
+        mNowMillis = target;
+    }
+
+    /**
+     * Runs tasks, moving the clock to each one's due time, until none are left.
+     *
+     * @return the number of tasks run
+     */
+    public int runUntilIdle() {
+        int ran = 0;
+        while (!mQueue.isEmpty()) {
+            Pending next = mQueue.poll();
+            mNowMillis = Math.max(mNowMillis, next.dueMillis);
+            next.task.run();
+            ran++;
+        }
+        return ran;
+    }
+
+    /**
+     * Returns the number of tasks waiting to run.
+     */
+    public int getPendingCount() {
+        return mQueue.size();
+    }
+
+    private static final class Pending implements Comparable<Pending> {
+        final Runnable task;
+        final long dueMillis;
+        final long sequence;
+
+        Pending(Runnable task, long dueMillis, long sequence) {
+            this.task = task;
+            this.dueMillis = dueMillis;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Pending other) {
+            if (dueMillis != other.dueMillis) {
+                return dueMillis < other.dueMillis ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
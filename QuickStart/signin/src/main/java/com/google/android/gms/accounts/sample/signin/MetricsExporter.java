@@ -0,0 +1,121 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically appends a {@link ConnectionMetrics} snapshot to a local file in line protocol.
+ *
+ * Snapshots are written on the given executor, never on the caller's thread. When the file grows
+ * past its size limit it is renamed with a ".1" suffix, replacing the previous one, so at most
+ * twice the limit is kept on disk.
+ */
+public class MetricsExporter {
+
+    private static final Logger LOG = Logger.getLogger(MetricsExporter.class.getName());
+
+    public static final long DEFAULT_PERIOD_MS = 60 * 1000;
+    public static final long DEFAULT_MAX_FILE_BYTES = 256 * 1024;
+
+    private final ConnectionMetrics mMetrics;
+    private final File mFile;
+    private final String mTags;
+    private final ScheduledExecutorService mExecutor;
+    private final long mMaxFileBytes;
+    private ScheduledFuture<?> mSchedule;
+
+    private final Runnable mExport = new Runnable() {
+        @Override
+        public void run() {
+            export();
+        }
+    };
+
+    /**
+     * @param tags tags added to every line, such as {@code app=quickstart}, or null
+     */
+    public MetricsExporter(ConnectionMetrics metrics, File file, String tags,
+            ScheduledExecutorService executor) {
+        this(metrics, file, tags, executor, DEFAULT_MAX_FILE_BYTES);
+    }
+
+    public MetricsExporter(ConnectionMetrics metrics, File file, String tags,
+            ScheduledExecutorService executor, long maxFileBytes) {
+        mMetrics = metrics;
+        mFile = file;
+        mTags = tags;
+        mExecutor = executor;
+        mMaxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Writes a snapshot every period until {@link #stop()} is called.
+     */
+    public synchronized void start(long periodMs) {
+        if (mSchedule == null) {
+            mSchedule = mExecutor.scheduleAtFixedRate(mExport, periodMs, periodMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (mSchedule != null) {
+            mSchedule.cancel(false);
+            mSchedule = null;
+        }
+    }
+
+    /**
+     * Writes a snapshot as soon as possible, for example when the app goes to the background.
+     */
+    public void flush() {
+        mExecutor.execute(mExport);
+    }
+
+    private void export() {
+        if (mFile.length() > mMaxFileBytes) {
+            File previous = new File(mFile.getPath() + ".1");
+            if (!mFile.renameTo(previous)) {
+                LOG.warning("Could not rotate " + mFile);
+            }
+        }
+        Writer out = null;
+        try {
+            out = new FileWriter(mFile, true);
+            mMetrics.writeLineProtocol(out, mTags, System.currentTimeMillis());
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not write metrics to " + mFile, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing more we can do.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.accounts.sample.signin;
+
+import java.util.Random;
+
+/**
+ * Rate limits reconnects to Google Play services.
+ *
+ * Reconnecting immediately every time the connection is suspended or a resolution fails makes
+ * the app spin while Google Play services is restarting or short on memory. The first reconnect
+ * after a successful connection runs right away; each further consecutive reconnect waits a
+ * random delay between zero and an exponentially growing cap ("full jitter"). Requests made
+ * while a reconnect is already pending or in progress are coalesced into it.
+ *
+ * The scheduler is itself a {@link SignInStateMachine.ConnectionPort} so it can be placed between
+ * the state machine and the real connection. Like the state machine it is not thread safe.
+ */
+public class ReconnectScheduler implements SignInStateMachine.ConnectionPort {
+
+    public static final long DEFAULT_BASE_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_DELAY_MS = 60 * 1000;
+
+    private final SignInStateMachine.ConnectionPort mConnection;
+    private final TaskScheduler mScheduler;
+    private final Random mRandom;
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+
+    private final Runnable mReconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            mPending = false;
+            mAttempts++;
+            mConsecutiveAttempts++;
+            mConnection.connect();
+        }
+    };
+
+    private boolean mPending;
+    private int mConsecutiveAttempts;
+
+    private long mRequests;
+    private long mAttempts;
+    private long mSuccesses;
+    private long mCoalesced;
+
+    public ReconnectScheduler(SignInStateMachine.ConnectionPort connection,
+            TaskScheduler scheduler) {
+        this(connection, scheduler, new Random(), DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * @param connection the connection to reconnect
+     * @param scheduler runs the delayed reconnects
+     * @param random source of jitter, seed it for reproducible delays
+     * @param baseDelayMs the cap on the delay before the second consecutive reconnect
+     * @param maxDelayMs the largest cap the delay can grow to
+     */
+    public ReconnectScheduler(SignInStateMachine.ConnectionPort connection,
+            TaskScheduler scheduler, Random random, long baseDelayMs, long maxDelayMs) {
+        mConnection = connection;
+        mScheduler = scheduler;
+        mRandom = random;
+        mBaseDelayMs = baseDelayMs;
+        mMaxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Schedules a reconnect unless one is already pending or in progress.
+     */
+    @Override
+    public void connect() {
+        mRequests++;
+        if (mPending || mConnection.isConnecting()) {
+            mCoalesced++;
+            return;
+        }
+        mPending = true;
+        mScheduler.schedule(mReconnectTask, nextDelayMs());
+    }
+
+    @Override
+    public boolean isConnecting() {
+        return mPending || mConnection.isConnecting();
+    }
+
+    /**
+     * Must be called when the connection succeeds. Resets the backoff.
+     */
+    public void onConnected() {
+        if (mConsecutiveAttempts > 0) {
+            mSuccesses++;
+        }
+        mConsecutiveAttempts = 0;
+        cancel();
+    }
+
+    /**
+     * Must be called when the user resolves a connection error, for example by picking an
+     * account. The error was not transient, so the next reconnect runs right away instead of
+     * waiting out a backoff meant for a struggling Google Play services.
+     */
+    public void onUserResolved() {
+        mConsecutiveAttempts = 0;
+    }
+
+    /**
+     * Drops a pending reconnect, for example when the Activity stops.
+     */
+    public void cancel() {
+        if (mPending) {
+            mPending = false;
+            mScheduler.cancel(mReconnectTask);
+        }
+    }
+
+    /**
+     * Returns the delay before the next reconnect.
+     */
+    long nextDelayMs() {
+        if (mConsecutiveAttempts == 0) {
+            return 0;
+        }
+        // Cap the shift so the cap itself cannot overflow.
+        int shift = Math.min(mConsecutiveAttempts - 1, 30);
+        long cap = Math.min(mMaxDelayMs, mBaseDelayMs << shift);
+        return (long) (mRandom.nextDouble() * (cap + 1));
+    }
+
+    /**
+     * Returns how many reconnects were requested.
+     */
+    public long getRequestCount() {
+        return mRequests;
+    }
+
+    /**
+     * Returns how many reconnects were actually started.
+     */
+    public long getAttemptCount() {
+        return mAttempts;
+    }
+
+    /**
+     * Returns how many runs of reconnects ended in a successful connection.
+     */
+    public long getSuccessCount() {
+        return mSuccesses;
+    }
+
+    /**
+     * Returns how many requests were folded into a reconnect that was already pending or in
+     * progress.
+     */
+    public long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectScheduler{requests=" + mRequests + ", attempts=" + mAttempts
+                + ", successes=" + mSuccesses + ", coalesced=" + mCoalesced + "}";
+    }
+}
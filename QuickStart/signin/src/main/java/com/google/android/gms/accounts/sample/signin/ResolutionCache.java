@@ -0,0 +1,142 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the resolutions returned with failed connections by account and error code, so that
+ * clicking 'sign in' can start the account picker or consent screen straight away instead of
+ * waiting for another failed connection.
+ *
+ * Resolutions are dropped once they are older than the maximum age, since Google Play services
+ * may no longer honour them, and once they have been started or the account signs in. Like the
+ * state machine the cache is not thread safe.
+ *
+ * @param <R> the type of the resolution, a PendingIntent on Android
+ */
+public class ResolutionCache<R> {
+
+    public static final long DEFAULT_MAX_AGE_MS = 10 * 60 * 1000;
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+    private final TaskScheduler mClock;
+    private final long mMaxAgeMs;
+    private final LinkedHashMap<String, Resolution<R>> mEntries;
+
+    private long mHits;
+    private long mMisses;
+    private long mExpired;
+
+    public ResolutionCache(TaskScheduler clock) {
+        this(clock, DEFAULT_MAX_AGE_MS, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param clock the source of time for the maximum age
+     * @param maxAgeMs how long a resolution is used for after it was returned
+     * @param maxEntries how many resolutions are kept, the least recently used go first
+     */
+    public ResolutionCache(TaskScheduler clock, long maxAgeMs, final int maxEntries) {
+        mClock = clock;
+        mMaxAgeMs = maxAgeMs;
+        mEntries = new LinkedHashMap<String, Resolution<R>>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Resolution<R>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Remembers the resolution for a failed connection.
+     *
+     * @param accountKey the account the client was connecting with, or null if it is unknown
+     */
+    public void put(String accountKey, int errorCode, R resolution) {
+        if (resolution == null) {
+            return;
+        }
+        mEntries.put(key(accountKey, errorCode),
+                new Resolution<R>(resolution, mClock.uptimeMillis()));
+    }
+
+    /**
+     * Returns the resolution for the account and error code, or null if there is none or it has
+     * expired.
+     */
+    public R get(String accountKey, int errorCode) {
+        String key = key(accountKey, errorCode);
+        Resolution<R> entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        if (mClock.uptimeMillis() - entry.storedAtMs > mMaxAgeMs) {
+            mEntries.remove(key);
+            mExpired++;
+            return null;
+        }
+        mHits++;
+        return entry.resolution;
+    }
+
+    /**
+     * Drops one resolution, for example because it was started or could not be sent.
+     */
+    public void remove(String accountKey, int errorCode) {
+        mEntries.remove(key(accountKey, errorCode));
+    }
+
+    /**
+     * Drops every resolution for an account, for example once it signed in.
+     */
+    public void removeAccount(String accountKey) {
+        String prefix = (accountKey != null ? accountKey : "") + '/';
+        for (Iterator<String> it = mEntries.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        mEntries.clear();
+    }
+
+    private static String key(String accountKey, int errorCode) {
+        return (accountKey != null ? accountKey : "") + '/' + errorCode;
+    }
+
+    @Override
+    public String toString() {
+        return "ResolutionCache{size=" + mEntries.size() + ", hits=" + mHits + ", misses="
+                + mMisses + ", expired=" + mExpired + "}";
+    }
+
+    private static final class Resolution<R> {
+        final R resolution;
+        final long storedAtMs;
+
+        Resolution(R resolution, long storedAtMs) {
+            this.resolution = resolution;
+            this.storedAtMs = storedAtMs;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Append-only journal of sign in events in a memory-mapped file of fixed-size records.
+ *
+ * Every connect, suspension, failure, resolution, sign in click, sign out and revocation is
+ * written as one {@link #RECORD_SIZE} byte record:
+ * <pre>
+ * offset size
+ *      0    8  wall clock time, ms since the epoch
+ *      8    8  monotonic time, ms, for ordering and durations
+ *     16    4  sequence number, from 1
+ *     20    2  event, one of the EVENT_ constants
+ *     22    2  SignInStateMachine state when the event happened
+ *     24    4  event code: the error code, suspension cause or resolution result, or 0
+ *     28    4  hash of the account ID, 0 if unknown
+ * </pre>
+ * after a {@link #HEADER_SIZE} byte header holding {@link #MAGIC}, {@link #VERSION} and the
+ * record size. All values are little endian and the unused tail of the file is zero, so a
+ * record with event 0 marks the end.
+ *
+ * Appending writes straight into the mapped pages and does not allocate or touch the disk. The
+ * kernel writes the pages back, so records survive the process being killed without any flush;
+ * {@link #flush()} is only needed to survive the device losing power. Once the file is half
+ * full, the next file is created, mapped and zeroed as {@code <name>.next} on the executor.
+ * When the current file is full, appending switches to the prepared file in memory and the
+ * executor renames the full file to {@code <name>.1}, replacing the previous one, and the new
+ * one to {@code <name>}, so the journal never takes more than three times the size cap. Events
+ * appended while the next file is still being prepared are dropped. Opening a journal finishes
+ * a switch the process did not get to, and continues after the last record and sequence number.
+ * Read the files with {@link SessionJournalReader}. The methods are thread safe.
+ */
+public class SessionJournal {
+
+    public static final int MAGIC = 0x4c4e4a53; // "SJNL" in little endian.
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 32;
+
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+
+    public static final int EVENT_CONNECT = 1;
+    public static final int EVENT_CONNECTED = 2;
+    public static final int EVENT_SUSPENDED = 3;
+    public static final int EVENT_FAILED = 4;
+    public static final int EVENT_RESOLUTION_STARTED = 5;
+    public static final int EVENT_RESOLUTION_RESULT = 6;
+    public static final int EVENT_SIGN_IN_CLICKED = 7;
+    public static final int EVENT_SIGNED_OUT = 8;
+    public static final int EVENT_REVOKED = 9;
+
+    static final String[] EVENT_NAMES = {"none", "connect", "connected", "suspended", "failed",
+            "resolutionStarted", "resolutionResult", "signInClicked", "signedOut", "revoked"};
+
+    /**
+     * Runs tasks on the calling thread, for journals that may rotate synchronously.
+     */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final File mFile;
+    private final File mRotatedFile;
+    private final File mNextFile;
+    private final int mMaxBytes;
+    private final Executor mExecutor;
+
+    private Segment mCurrent;
+    // The prepared next file, or null.
+    private Segment mNext;
+    private boolean mPreparing;
+    private int mPosition;
+    private int mSequence;
+    private int mAccountHash;
+    private long mRotations;
+    private long mDropped;
+    private IOException mFailure;
+
+    /**
+     * Creates a journal that prepares the next file and rotates on the calling thread, for
+     * example to write journals in tests and tools.
+     *
+     * @param file the journal file, created if it does not exist
+     * @param maxBytes the size at which the file is rotated, rounded down to whole records
+     */
+    public SessionJournal(File file, int maxBytes) {
+        this(file, maxBytes, DIRECT_EXECUTOR);
+    }
+
+    /**
+     * @param file the journal file, created if it does not exist
+     * @param maxBytes the size at which the file is rotated, rounded down to whole records
+     * @param executor prepares and renames files, and must run its tasks one at a time in the
+     *     order they were submitted
+     */
+    public SessionJournal(File file, int maxBytes, Executor executor) {
+        mFile = file;
+        mRotatedFile = new File(file.getPath() + ".1");
+        mNextFile = new File(file.getPath() + ".next");
+        mMaxBytes = HEADER_SIZE + (maxBytes - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+        mExecutor = executor;
+    }
+
+    /**
+     * Maps the file, continuing after its last record.
+     *
+     * @throws IOException if the file cannot be mapped, in which case events are dropped
+     */
+    public synchronized void open() throws IOException {
+        if (mCurrent == null) {
+            map();
+            prepareNextIfDue();
+        }
+    }
+
+    /**
+     * Opens the journal on the executor. Events appended before that are dropped, and so are all
+     * events if it fails, see {@link #toString()}.
+     */
+    public void openInBackground() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    open();
+                } catch (IOException e) {
+                    synchronized (SessionJournal.this) {
+                        mFailure = e;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the account the following events belong to. Only a hash of the account ID is
+     * written, so the journal holds no personal data.
+     *
+     * @param accountId the Google Account ID, or null if it is unknown
+     */
+    public synchronized void setAccount(String accountId) {
+        mAccountHash = accountId != null ? accountId.hashCode() : 0;
+    }
+
+    /**
+     * Appends an event.
+     *
+     * @param event one of the EVENT_ constants
+     * @param state the SignInStateMachine state
+     * @param code the error code, suspension cause or resolution result, or 0
+     */
+    public synchronized void append(int event, int state, int code) {
+        if (mCurrent == null) {
+            mDropped++;
+            return;
+        }
+        if (mPosition + RECORD_SIZE > mMaxBytes) {
+            if (mNext == null) {
+                // The next file is not ready, and preparing it here would block the caller.
+                prepareNextIfDue();
+                mDropped++;
+                return;
+            }
+            switchToNext();
+        }
+        MappedByteBuffer buffer = mCurrent.buffer;
+        int at = mPosition;
+        buffer.putLong(at, System.currentTimeMillis());
+        buffer.putLong(at + 8, System.nanoTime() / 1000000L);
+        buffer.putInt(at + 16, ++mSequence);
+        buffer.putShort(at + 22, (short) state);
+        buffer.putInt(at + 24, code);
+        buffer.putInt(at + 28, mAccountHash);
+        // The event goes in last, since a non-zero event is what marks the record as written.
+        buffer.putShort(at + 20, (short) event);
+        mPosition = at + RECORD_SIZE;
+        prepareNextIfDue();
+    }
+
+    /**
+     * Forces the written records to the disk.
+     */
+    public synchronized void flush() {
+        if (mCurrent != null) {
+            mCurrent.buffer.force();
+        }
+    }
+
+    public synchronized void close() {
+        if (mCurrent != null) {
+            mCurrent.close();
+            mCurrent = null;
+        }
+        if (mNext != null) {
+            mNext.close();
+            mNext = null;
+        }
+    }
+
+    /**
+     * Starts preparing the next file once the current one is half full.
+     */
+    private void prepareNextIfDue() {
+        if (mNext != null || mPreparing
+                || (mPosition - HEADER_SIZE) * 2 < mMaxBytes - HEADER_SIZE) {
+            return;
+        }
+        mPreparing = true;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Segment next = null;
+                IOException failure = null;
+                try {
+                    next = new Segment(mNextFile, mMaxBytes);
+                    next.format();
+                } catch (IOException e) {
+                    failure = e;
+                }
+                synchronized (SessionJournal.this) {
+                    mPreparing = false;
+                    if (mCurrent == null) {
+                        // Closed in the meantime.
+                        if (next != null) {
+                            next.close();
+                        }
+                    } else if (next != null) {
+                        mNext = next;
+                    } else {
+                        mFailure = failure;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Continues in the prepared file and leaves renaming the files to the executor.
+     */
+    private void switchToNext() {
+        final Segment full = mCurrent;
+        mCurrent = mNext;
+        mNext = null;
+        mPosition = HEADER_SIZE;
+        mRotations++;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                full.close();
+                try {
+                    promoteNext();
+                } catch (IOException e) {
+                    synchronized (SessionJournal.this) {
+                        mFailure = e;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Rotates the full file to {@code <name>.1} and renames the next file to {@code <name>}. The
+     * full file is already gone if a previous process got half way.
+     */
+    private void promoteNext() throws IOException {
+        if (mFile.exists()) {
+            if (mRotatedFile.exists() && !mRotatedFile.delete()) {
+                throw new IOException("Could not delete " + mRotatedFile);
+            }
+            if (!mFile.renameTo(mRotatedFile)) {
+                throw new IOException("Could not rename " + mFile);
+            }
+        }
+        if (!mNextFile.renameTo(mFile)) {
+            throw new IOException("Could not rename " + mNextFile);
+        }
+    }
+
+    private void map() throws IOException {
+        if (mNextFile.exists()) {
+            // A previous process prepared the next file. If it switched to it, finish the
+            // rotation, otherwise start over with a new one once it is needed.
+            Segment next = new Segment(mNextFile, mMaxBytes);
+            boolean used = next.isFormatted() && next.buffer.getShort(HEADER_SIZE + 20) != 0;
+            next.close();
+            if (used) {
+                promoteNext();
+            } else if (!mNextFile.delete()) {
+                throw new IOException("Could not delete " + mNextFile);
+            }
+        }
+        mCurrent = new Segment(mFile, mMaxBytes);
+        MappedByteBuffer buffer = mCurrent.buffer;
+        mPosition = HEADER_SIZE;
+        if (!mCurrent.isFormatted()) {
+            // A new file, or one written in a format we do not understand.
+            mCurrent.format();
+        }
+        while (mPosition + RECORD_SIZE <= mMaxBytes && buffer.getShort(mPosition + 20) != 0) {
+            mSequence = buffer.getInt(mPosition + 16);
+            mPosition += RECORD_SIZE;
+        }
+        if (mPosition == HEADER_SIZE && mRotatedFile.exists()) {
+            // Nothing written since the last rotation, so continue the rotated file's sequence.
+            List<SessionJournalReader.Event> rotated = SessionJournalReader.read(mRotatedFile);
+            if (!rotated.isEmpty()) {
+                mSequence = rotated.get(rotated.size() - 1).sequence;
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SessionJournal{file=" + mFile + ", open=" + (mCurrent != null) + ", records="
+                + (mPosition - HEADER_SIZE) / RECORD_SIZE + ", sequence=" + mSequence
+                + ", rotations=" + mRotations + ", dropped=" + mDropped
+                + (mFailure != null ? ", failure=" + mFailure.getMessage() : "") + "}";
+    }
+
+    /**
+     * One mapped journal file.
+     */
+    private static final class Segment {
+        final RandomAccessFile file;
+        final MappedByteBuffer buffer;
+
+        Segment(File path, int maxBytes) throws IOException {
+            file = new RandomAccessFile(path, "rw");
+            try {
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        boolean isFormatted() {
+            return buffer.getInt(0) == MAGIC && buffer.getInt(8) == RECORD_SIZE;
+        }
+
+        /**
+         * Zeroes the file and writes the header.
+         */
+        void format() {
+            ByteBuffer buffer = this.buffer;
+            for (int i = 0; i < buffer.capacity(); i += 8) {
+                buffer.putLong(i, 0);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_SIZE);
+        }
+
+        void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Nothing left to do with it.
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Replays {@link SessionJournal} files on any JVM and prints the sign in sessions they hold.
+ *
+ * A session starts with the first event after the previous one ended and ends when the user is
+ * signed in, signs out or revokes access. Each session is printed with the time of every event
+ * relative to its start, followed by how long sessions took to sign in. Pull the journal from
+ * a device with {@code adb shell run-as <package> cat files/session.journal > session.journal}
+ * (and the same for {@code session.journal.1}), then run
+ * {@code ./gradlew :signin:replayJournal -Pargs="session.journal"}.
+ */
+public class SessionJournalReader {
+
+    /**
+     * One record of the journal.
+     */
+    public static final class Event {
+        public final long wallTimeMs;
+        public final long monotonicMs;
+        public final int sequence;
+        public final int event;
+        public final int state;
+        public final int code;
+        public final int accountHash;
+
+        Event(ByteBuffer buffer, int at) {
+            wallTimeMs = buffer.getLong(at);
+            monotonicMs = buffer.getLong(at + 8);
+            sequence = buffer.getInt(at + 16);
+            event = buffer.getShort(at + 20);
+            state = buffer.getShort(at + 22);
+            code = buffer.getInt(at + 24);
+            accountHash = buffer.getInt(at + 28);
+        }
+
+        public String getName() {
+            return event > 0 && event < SessionJournal.EVENT_NAMES.length
+                    ? SessionJournal.EVENT_NAMES[event] : "event" + event;
+        }
+    }
+
+    private SessionJournalReader() {
+    }
+
+    /**
+     * Reads the events of the given journal files, ordered by sequence number.
+     *
+     * @throws IOException if a file cannot be read or is not a journal
+     */
+    public static List<Event> read(File... files) throws IOException {
+        List<Event> events = new ArrayList<Event>();
+        for (File file : files) {
+            ByteBuffer buffer = ByteBuffer.wrap(readFully(file)).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.limit() < SessionJournal.HEADER_SIZE
+                    || buffer.getInt(0) != SessionJournal.MAGIC) {
+                throw new IOException(file + " is not a session journal");
+            }
+            int recordSize = buffer.getInt(8);
+            if (recordSize < SessionJournal.RECORD_SIZE) {
+                throw new IOException(file + " has records of " + recordSize + " bytes");
+            }
+            for (int at = SessionJournal.HEADER_SIZE; at + recordSize <= buffer.limit();
+                    at += recordSize) {
+                if (buffer.getShort(at + 20) == 0) {
+                    break;
+                }
+                events.add(new Event(buffer, at));
+            }
+        }
+        Collections.sort(events, new Comparator<Event>() {
+            @Override
+            public int compare(Event a, Event b) {
+                return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+            }
+        });
+        return events;
+    }
+
+    /**
+     * Prints every session and a summary of the time to sign in.
+     */
+    public static void replay(List<Event> events, PrintStream out) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        LatencyHistogram timeToSignIn = new LatencyHistogram();
+        int sessions = 0;
+        int signedIn = 0;
+        int incomplete = 0;
+        Event first = null;
+        for (Event event : events) {
+            if (first == null) {
+                first = event;
+                sessions++;
+                out.println("session " + sessions + " at " + format.format(
+                        new Date(event.wallTimeMs)));
+            }
+            // The monotonic clock restarts with the device, so fall back to the wall clock.
+            long offsetMs = event.monotonicMs >= first.monotonicMs
+                    ? event.monotonicMs - first.monotonicMs : event.wallTimeMs - first.wallTimeMs;
+            StringBuilder line = new StringBuilder();
+            line.append(String.format("  %+8dms %-18s state=%d", offsetMs, event.getName(),
+                    event.state));
+            if (event.code != 0) {
+                line.append(" code=").append(event.code);
+            }
+            if (event.accountHash != 0) {
+                line.append(" account=").append(Integer.toHexString(event.accountHash));
+            }
+            out.println(line);
+
+            if (event.event == SessionJournal.EVENT_CONNECTED) {
+                timeToSignIn.record(offsetMs);
+                signedIn++;
+                first = null;
+            } else if (event.event == SessionJournal.EVENT_SIGNED_OUT
+                    || event.event == SessionJournal.EVENT_REVOKED) {
+                first = null;
+            }
+        }
+        if (first != null) {
+            incomplete++;
+            out.println("  (not signed in when the journal ends)");
+        }
+        out.println();
+        out.println(events.size() + " events, " + sessions + " sessions, " + signedIn
+                + " signed in, " + incomplete + " incomplete");
+        if (timeToSignIn.getCount() > 0) {
+            out.println("time to sign in: p50=" + timeToSignIn.getPercentile(0.5) + "ms p90="
+                    + timeToSignIn.getPercentile(0.9) + "ms p99="
+                    + timeToSignIn.getPercentile(0.99) + "ms max=" + timeToSignIn.getMax()
+                    + "ms");
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replays the journal files given as arguments. A journal is read together with the file it
+     * rotated to, {@code <name>.1}, if that exists.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: SessionJournalReader <journal file>...");
+            System.exit(2);
+        }
+        List<File> files = new ArrayList<File>();
+        for (String arg : args) {
+            File rotated = new File(arg + ".1");
+            if (rotated.exists() && !contains(args, rotated.getPath())) {
+                files.add(rotated);
+            }
+            files.add(new File(arg));
+        }
+        replay(read(files.toArray(new File[files.size()])), System.out);
+    }
+
+    private static boolean contains(String[] args, String path) {
+        for (String arg : args) {
+            if (arg.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
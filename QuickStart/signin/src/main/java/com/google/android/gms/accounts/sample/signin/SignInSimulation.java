@@ -0,0 +1,354 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs simulated sign in sessions against a {@link FakeConnection} on the JVM.
+ *
+ * Each session wires a {@link SignInStateMachine} and a {@link ReconnectScheduler} to a fake
+ * connection exactly as MainActivity wires them to a GoogleApiClient, and plays one of these
+ * scenarios:
+ * <ul>
+ * <li>A returning user, who connects straight away.</li>
+ * <li>A first sign in, which goes through the account picker and the consent screen.</li>
+ * <li>A first sign in where the user clicks 'sign in' while the first connection is still in
+ * progress.</li>
+ * <li>A flaky connection, which is suspended shortly after connecting and reconnects.</li>
+ * <li>A device where an API is unavailable, which never signs in.</li>
+ * </ul>
+ * The latency reported for a session is the simulated time from the first connect to
+ * onConnected, less the time the simulated user spent on screens, so it only measures the app
+ * and Google Play services. The time from the first click on 'sign in' to the account picker is
+ * reported separately. Run with {@code ./gradlew :signin:simulate}; the process exits with
+ * status 1 if the 99th percentile is over budget, so it can gate a CI build.
+ */
+public class SignInSimulation {
+
+    public static final int SCENARIO_RETURNING = 0;
+    public static final int SCENARIO_FIRST_SIGN_IN = 1;
+    public static final int SCENARIO_FLAKY = 2;
+    public static final int SCENARIO_API_UNAVAILABLE = 3;
+    public static final int SCENARIO_EARLY_CLICK = 4;
+
+    private static final String[] SCENARIO_NAMES = {
+            "returning", "firstSignIn", "flaky", "apiUnavailable", "earlyClick"};
+
+    /**
+     * Percentages of sessions playing each scenario.
+     */
+    private static final int[] SCENARIO_WEIGHTS = {70, 12, 8, 2, 8};
+
+    /**
+     * An early click arrives up to this long after the first connect started.
+     */
+    private static final int EARLY_CLICK_MAX_MS = 100;
+
+    private final Random mRandom;
+    private LatencyModel mConnectLatency = LatencyModel.logNormal(150, 0.5);
+    private LatencyModel mUserLatency = LatencyModel.uniform(500, 3000);
+
+    public SignInSimulation(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Sets how long Google Play services takes to answer a connection attempt.
+     */
+    public SignInSimulation setConnectLatency(LatencyModel latency) {
+        mConnectLatency = latency;
+        return this;
+    }
+
+    /**
+     * Sets how long the simulated user takes on each screen, such as the account picker.
+     */
+    public SignInSimulation setUserLatency(LatencyModel latency) {
+        mUserLatency = latency;
+        return this;
+    }
+
+    /**
+     * Runs the given number of sessions.
+     */
+    public Result run(int sessions) {
+        Result result = new Result(sessions);
+        for (int i = 0; i < sessions; i++) {
+            int scenario = pickScenario();
+            Session session = new Session(scenario);
+            long latency = session.run();
+            result.add(scenario, latency, session.mConnection.getAttemptCount(),
+                    session.mTapToResolution);
+        }
+        return result;
+    }
+
+    private int pickScenario() {
+        int roll = mRandom.nextInt(100);
+        for (int i = 0; i < SCENARIO_WEIGHTS.length; i++) {
+            roll -= SCENARIO_WEIGHTS[i];
+            if (roll < 0) {
+                return i;
+            }
+        }
+        return SCENARIO_RETURNING;
+    }
+
+    /**
+     * One simulated Activity: the state machine, the reconnect backoff, the fake connection and
+     * a user who clicks 'sign in' and accepts every screen.
+     */
+    private final class Session implements SignInStateMachine.UiPort<FakeConnection.Resolution>,
+            FakeConnection.Callbacks {
+        final int mScenario;
+        final ManualTaskScheduler mClock = new ManualTaskScheduler();
+        final FakeConnection mConnection = new FakeConnection(mClock, mRandom);
+        final ReconnectScheduler mReconnectScheduler = new ReconnectScheduler(mConnection,
+                mClock, mRandom, ReconnectScheduler.DEFAULT_BASE_DELAY_MS,
+                ReconnectScheduler.DEFAULT_MAX_DELAY_MS);
+        final SignInStateMachine<FakeConnection.Resolution> mStateMachine =
+                new SignInStateMachine<FakeConnection.Resolution>(mReconnectScheduler, this);
+        long mUserMillis;
+        long mConnectedAt = -1;
+        boolean mClicked;
+        long mClickedAt = -1;
+        long mTapToResolution = -1;
+
+        Session(int scenario) {
+            mScenario = scenario;
+            mConnection.setCallbacks(this);
+            mStateMachine.setResolutionCache(
+                    new ResolutionCache<FakeConnection.Resolution>(mClock));
+            switch (scenario) {
+                case SCENARIO_FIRST_SIGN_IN:
+                case SCENARIO_EARLY_CLICK:
+                    mConnection.script(
+                            FakeConnection.Outcome.failed(FakeConnection.ERROR_SIGN_IN_REQUIRED,
+                                    true, mConnectLatency),
+                            FakeConnection.Outcome.failed(FakeConnection.ERROR_RESOLUTION_REQUIRED,
+                                    true, mConnectLatency));
+                    break;
+                case SCENARIO_FLAKY:
+                    mConnection.script(FakeConnection.Outcome.connected(mConnectLatency)
+                            .thenSuspendAfter(mConnectLatency.nextMillis(mRandom)));
+                    break;
+                case SCENARIO_API_UNAVAILABLE:
+                    mConnection.setDefaultOutcome(FakeConnection.Outcome.failed(
+                            SignInStateMachine.ERROR_API_UNAVAILABLE, false, mConnectLatency));
+                    return;
+            }
+            mConnection.setDefaultOutcome(FakeConnection.Outcome.connected(mConnectLatency));
+        }
+
+        /**
+         * @return the sign in latency, or -1 if the session never signed in
+         */
+        long run() {
+            // onStart
+            mReconnectScheduler.connect();
+            if (mScenario == SCENARIO_EARLY_CLICK) {
+                // Clicked without waiting for the signed out state, so it is not user time.
+                mClock.schedule(mClick, mRandom.nextInt(EARLY_CLICK_MAX_MS));
+            }
+            mClock.runUntilIdle();
+            return mConnectedAt < 0 ? -1 : mConnectedAt - mUserMillis;
+        }
+
+        final Runnable mClick = new Runnable() {
+            @Override
+            public void run() {
+                mClicked = true;
+                mClickedAt = mClock.uptimeMillis();
+                mStateMachine.onSignInClicked();
+            }
+        };
+
+        private void afterUser(Runnable action) {
+            long millis = mUserLatency.nextMillis(mRandom);
+            mUserMillis += millis;
+            mClock.schedule(action, millis);
+        }
+
+        @Override
+        public boolean startResolution(FakeConnection.Resolution resolution) {
+            if (mClickedAt >= 0 && mTapToResolution < 0) {
+                mTapToResolution = mClock.uptimeMillis() - mClickedAt;
+            }
+            afterUser(new Runnable() {
+                @Override
+                public void run() {
+                    mReconnectScheduler.onUserResolved();
+                    mStateMachine.onResolutionResult(true);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public void showErrorDialog(int errorCode) {
+            afterUser(new Runnable() {
+                @Override
+                public void run() {
+                    mStateMachine.onErrorDialogDismissed();
+                }
+            });
+        }
+
+        @Override
+        public void showSignedOut() {
+            if (mScenario == SCENARIO_FIRST_SIGN_IN && !mClicked) {
+                mClicked = true;
+                afterUser(mClick);
+            }
+        }
+
+        @Override
+        public void onConnected() {
+            if (mConnectedAt < 0) {
+                mConnectedAt = mClock.uptimeMillis();
+            }
+            mReconnectScheduler.onConnected();
+            mStateMachine.onConnected();
+        }
+
+        @Override
+        public void onConnectionFailed(int errorCode, FakeConnection.Resolution resolution) {
+            mStateMachine.onConnectionFailed(errorCode, resolution);
+        }
+
+        @Override
+        public void onConnectionSuspended() {
+            mStateMachine.onConnectionSuspended();
+        }
+    }
+
+    /**
+     * Sign in latencies and connection attempts of a run.
+     */
+    public static final class Result {
+        private final long[][] mLatencies = new long[SCENARIO_NAMES.length][];
+        private final int[] mCounts = new int[SCENARIO_NAMES.length];
+        private final int[] mSignedIn = new int[SCENARIO_NAMES.length];
+        private final long[] mTapToResolution;
+        private int mTaps;
+        private long mAttempts;
+
+        Result(int sessions) {
+            for (int i = 0; i < mLatencies.length; i++) {
+                mLatencies[i] = new long[sessions];
+            }
+            mTapToResolution = new long[sessions];
+        }
+
+        void add(int scenario, long latency, int attempts, long tapToResolution) {
+            mAttempts += attempts;
+            if (tapToResolution >= 0) {
+                mTapToResolution[mTaps++] = tapToResolution;
+            }
+            mCounts[scenario]++;
+            if (latency >= 0) {
+                mLatencies[scenario][mSignedIn[scenario]++] = latency;
+            }
+        }
+
+        /**
+         * Returns the latency, in simulated milliseconds, under which the given fraction of
+         * signed in sessions completed, across every scenario.
+         */
+        public long getPercentileMillis(double fraction) {
+            int total = 0;
+            for (int signedIn : mSignedIn) {
+                total += signedIn;
+            }
+            long[] all = new long[total];
+            int offset = 0;
+            for (int i = 0; i < mLatencies.length; i++) {
+                System.arraycopy(mLatencies[i], 0, all, offset, mSignedIn[i]);
+                offset += mSignedIn[i];
+            }
+            return percentile(all, total, fraction);
+        }
+
+        /**
+         * Returns the latency under which the given fraction of a scenario's signed in sessions
+         * completed, or -1 if none signed in.
+         */
+        public long getPercentileMillis(int scenario, double fraction) {
+            return percentile(mLatencies[scenario].clone(), mSignedIn[scenario], fraction);
+        }
+
+        /**
+         * Returns the time under which the given fraction of clicks on 'sign in' started the
+         * account picker, or -1 if there were none.
+         */
+        public long getTapToResolutionMillis(double fraction) {
+            return percentile(mTapToResolution.clone(), mTaps, fraction);
+        }
+
+        private static long percentile(long[] values, int count, double fraction) {
+            if (count == 0) {
+                return -1;
+            }
+            Arrays.sort(values, 0, count);
+            return values[Math.min(count - 1, (int) Math.ceil(fraction * count) - 1)];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < SCENARIO_NAMES.length; i++) {
+                sb.append(SCENARIO_NAMES[i]).append(": sessions=").append(mCounts[i])
+                        .append(" signedIn=").append(mSignedIn[i])
+                        .append(" p50=").append(getPercentileMillis(i, 0.5))
+                        .append("ms p99=").append(getPercentileMillis(i, 0.99)).append("ms\n");
+            }
+            sb.append("all: attempts=").append(mAttempts)
+                    .append(" p50=").append(getPercentileMillis(0.5))
+                    .append("ms p90=").append(getPercentileMillis(0.9))
+                    .append("ms p99=").append(getPercentileMillis(0.99)).append("ms\n");
+            sb.append("tapToPicker: taps=").append(mTaps)
+                    .append(" p50=").append(getTapToResolutionMillis(0.5))
+                    .append("ms p99=").append(getTapToResolutionMillis(0.99)).append("ms");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Usage: SignInSimulation [sessions] [p99 budget in ms] [seed]
+     */
+    public static void main(String[] args) {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long budgetMs = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        long start = System.nanoTime();
+        Result result = new SignInSimulation(seed).run(sessions);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(result);
+        System.out.println(String.format("%d sessions in %.2fs (%.0f sessions/s)",
+                sessions, seconds, sessions / seconds));
+        long p99 = result.getPercentileMillis(0.99);
+        if (p99 > budgetMs) {
+            System.out.println("FAIL: p99 sign in latency " + p99 + "ms is over the "
+                    + budgetMs + "ms budget");
+            System.exit(1);
+        }
+    }
+}
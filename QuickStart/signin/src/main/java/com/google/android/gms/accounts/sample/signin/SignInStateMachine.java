@@ -0,0 +1,435 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+/**
+ * The sign in flow of the QuickStart sample, free of any Android or Google Play services types.
+ *
+ * The Activity forwards GoogleApiClient callbacks and user actions to this class, which decides
+ * what to do next and acts through a {@link ConnectionPort} and a {@link UiPort}. The state can be
+ * one of three values:
+ * <p/>
+ * STATE_DEFAULT: The default state of the application before the user has clicked 'sign in',
+ * or after they have clicked 'sign out'.  In this state we will not attempt to resolve sign
+ * in errors so we will display our Activity in a signed out state.
+ *
+ * STATE_SIGN_IN: This state indicates that the user has clicked 'sign in', so resolve
+ * successive errors preventing sign in until the user has successfully authorized an account
+ * for our app.
+ *
+ * STATE_IN_PROGRESS: This state indicates that we have started an intent or shown a dialog to
+ * resolve an error, and so we should not start further intents until the current one completes.
+ * <p/>
+ * An error whose resolution the user cancelled is not resolved again on its own until the user
+ * clicks 'sign in', and a sign in gives up after {@link #MAX_RESOLUTIONS_PER_SIGN_IN} resolutions,
+ * so Google Play services returning the same error again never launches resolutions in a loop.
+ * <p/>
+ * Transitions do not allocate. The class is not thread safe and is expected to be driven from a
+ * single thread, normally the main thread.
+ *
+ * @param <R> the type of the resolution returned with a failed connection, a PendingIntent on
+ *            Android
+ */
+public class SignInStateMachine<R> {
+
+    public static final int STATE_DEFAULT = 0;
+    public static final int STATE_SIGN_IN = 1;
+    public static final int STATE_IN_PROGRESS = 2;
+
+    /**
+     * Mirrors {@code ConnectionResult.API_UNAVAILABLE}.
+     */
+    public static final int ERROR_API_UNAVAILABLE = 16;
+
+    /**
+     * The most resolutions started for one sign in. Signing in with a new account takes two, the
+     * account picker and the consent screen, and updating Google Play services one more.
+     */
+    public static final int MAX_RESOLUTIONS_PER_SIGN_IN = 5;
+
+    /**
+     * The connection to Google Play services.
+     */
+    public interface ConnectionPort {
+        void connect();
+
+        boolean isConnecting();
+    }
+
+    /**
+     * What the state machine needs from the user interface.
+     *
+     * @param <R> the type of the resolution to start
+     */
+    public interface UiPort<R> {
+        /**
+         * Starts the resolution for a failed connection, such as the account picker or the
+         * consent screen.
+         *
+         * @return false if the resolution could not be started, in which case the state machine
+         *         reconnects to get an updated one
+         */
+        boolean startResolution(R resolution);
+
+        /**
+         * Shows an error dialog for an error that has no resolution.
+         */
+        void showErrorDialog(int errorCode);
+
+        /**
+         * Shows that the user is signed out.
+         */
+        void showSignedOut();
+    }
+
+    /**
+     * Notified of every state change, for example to trace how long each state lasts.
+     */
+    public interface Listener {
+        void onStateChanged(int oldState, int newState);
+    }
+
+    private final ConnectionPort mConnection;
+    private final UiPort<R> mUi;
+    private Listener mListener;
+
+    private int mState = STATE_DEFAULT;
+
+    /**
+     * The resolution most recently returned with a failed connection, kept until the user clicks
+     * 'sign in'.
+     */
+    private R mResolution;
+
+    /**
+     * The error code most recently returned with a failed connection, kept until the user clicks
+     * 'sign in'.
+     */
+    private int mError;
+
+    /**
+     * The error codes, as bits, whose resolution the user cancelled since they last clicked
+     * 'sign in'.
+     */
+    private long mDeclinedErrors;
+
+    /**
+     * How many resolutions were started since the user last clicked 'sign in' or connected.
+     */
+    private int mResolutionsThisSignIn;
+
+    /**
+     * Resolutions of earlier failed connections by account and error code, or null.
+     */
+    private ResolutionCache<R> mResolutionCache;
+
+    /**
+     * The account the client is connecting with, or null if it is unknown.
+     */
+    private String mAccountKey;
+
+    /**
+     * Whether the connection resolves errors itself as it connects.
+     */
+    private boolean mResolvesOnConnect;
+
+    public SignInStateMachine(ConnectionPort connection, UiPort<R> ui) {
+        mConnection = connection;
+        mUi = ui;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Keeps resolutions by account and error code, so that a click on 'sign in' can use one
+     * returned before a reconnect or an account switch, and an expired one is replaced by
+     * reconnecting rather than by showing an error dialog.
+     */
+    public void setResolutionCache(ResolutionCache<R> cache) {
+        mResolutionCache = cache;
+    }
+
+    /**
+     * Sets the account the client is connecting with, the key for the resolution cache.
+     *
+     * @param accountKey the account ID, or null if it is not known yet
+     */
+    public void setAccountKey(String accountKey) {
+        mAccountKey = accountKey;
+    }
+
+    /**
+     * Tells the state machine that the connection resolves errors itself as it connects, like a
+     * GoogleApiClient managed with {@code enableAutoManage}. Such a connection is then only
+     * reconnected while the user is signing in, since any other connect would show the user a
+     * resolution they did not ask for, such as one they just cancelled.
+     */
+    public void setResolvesOnConnect(boolean resolvesOnConnect) {
+        mResolvesOnConnect = resolvesOnConnect;
+    }
+
+    /**
+     * Restores a state saved with {@link #getState()} without notifying the listener.
+     */
+    public void restoreState(int state) {
+        mState = state;
+    }
+
+    /**
+     * Restores the state, error and resolution of a previous instance, for example one that
+     * belonged to an Activity destroyed by a configuration change, without notifying the
+     * listener.
+     */
+    public void restore(int state, int error, R resolution) {
+        mState = state;
+        mError = error;
+        mResolution = resolution;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    /**
+     * Returns the error code of the most recent failed connection.
+     */
+    public int getError() {
+        return mError;
+    }
+
+    /**
+     * Returns the resolution of the most recent failed connection, or null.
+     */
+    public R getResolution() {
+        return mResolution;
+    }
+
+    /**
+     * The user clicked 'sign in'. A click while a connection is in progress is kept and acted on
+     * when it completes: a failure is resolved straight away, a success signs the user in.
+     */
+    public void onSignInClicked() {
+        if (mState == STATE_IN_PROGRESS) {
+            // A resolution is already in front of the user.
+            return;
+        }
+        // The user is asking again, so errors they cancelled before are worth another try.
+        mDeclinedErrors = 0;
+        mResolutionsThisSignIn = 0;
+        if (mConnection.isConnecting()) {
+            setState(STATE_SIGN_IN);
+            return;
+        }
+        resolveSignInError();
+    }
+
+    /**
+     * The app is about to connect on the user's behalf, for example with a client that asks for
+     * more scopes than the user has granted so far, or because the user clicked 'sign in' before
+     * any connection was attempted. The next errors are resolved as if the user had clicked
+     * 'sign in', so the account picker or consent screen is shown without another click.
+     */
+    public void onAuthorizationRequested() {
+        mResolution = null;
+        setState(STATE_SIGN_IN);
+    }
+
+    /**
+     * GoogleApiClient connected, which means the sign in process is complete.
+     */
+    public void onConnected() {
+        if (mResolutionCache != null) {
+            mResolutionCache.removeAccount(mAccountKey);
+        }
+        mDeclinedErrors = 0;
+        mResolutionsThisSignIn = 0;
+        setState(STATE_DEFAULT);
+    }
+
+    /**
+     * GoogleApiClient could not connect.
+     *
+     * @param errorCode the {@code ConnectionResult} error code
+     * @param resolution the resolution for the error, or null if there is none
+     */
+    public void onConnectionFailed(int errorCode, R resolution) {
+        if (errorCode == ERROR_API_UNAVAILABLE) {
+            // An API requested for GoogleApiClient is not available. The device's current
+            // configuration might not be supported with the requested API or a required component
+            // may not be installed, such as the Android Wear application. You may need to use a
+            // second GoogleApiClient to manage the application's optional APIs.
+        } else if (mState != STATE_IN_PROGRESS) {
+            // We do not have an intent in progress so we should store the latest error
+            // resolution intent for use when the sign in button is clicked.
+            mResolution = resolution;
+            mError = errorCode;
+            if (mResolutionCache != null) {
+                mResolutionCache.put(mAccountKey, errorCode, resolution);
+            }
+
+            if (mState == STATE_SIGN_IN) {
+                if (isDeclined(errorCode)) {
+                    // The user already cancelled the resolution for this error, so stop here
+                    // rather than show it again.
+                    setState(STATE_DEFAULT);
+                } else {
+                    // STATE_SIGN_IN indicates the user already clicked the sign in button so we
+                    // should continue processing errors until the user is signed in or they
+                    // click cancel.
+                    resolveSignInError();
+                }
+            }
+        }
+
+        // In this sample we consider the user signed out when they do not have a connection to
+        // Google Play services.
+        mUi.showSignedOut();
+    }
+
+    /**
+     * GoogleApiClient could not connect after Google Play services' auto manager tried to resolve
+     * the error, so the user has already cancelled its resolution or it had none. The error is
+     * kept for the next click on 'sign in' rather than resolved again straight away.
+     *
+     * @param errorCode the {@code ConnectionResult} error code
+     * @param resolution the resolution for the error, or null if there is none
+     */
+    public void onAutoResolutionFailed(int errorCode, R resolution) {
+        setState(STATE_DEFAULT);
+        onConnectionFailed(errorCode, resolution);
+    }
+
+    /**
+     * The connection to Google Play services was lost.
+     */
+    public void onConnectionSuspended() {
+        // We call connect() to attempt to re-establish the connection or get a ConnectionResult
+        // that we can attempt to resolve.
+        reconnect();
+    }
+
+    /**
+     * A resolution started through {@link UiPort#startResolution} returned.
+     *
+     * @param resolved whether the user resolved the error
+     */
+    public void onResolutionResult(boolean resolved) {
+        if (resolved) {
+            // If the error resolution was successful we should continue processing errors.
+            setState(STATE_SIGN_IN);
+        } else {
+            // If the error resolution was not successful or the user canceled,
+            // we should stop processing errors.
+            markDeclined(mError);
+            setState(STATE_DEFAULT);
+        }
+
+        if (!mConnection.isConnecting()) {
+            // If Google Play services resolved the issue with a dialog then onStart is
+            // not called so we need to re-attempt connection here.
+            reconnect();
+        }
+    }
+
+    /**
+     * The error dialog shown through {@link UiPort#showErrorDialog} was cancelled or closed
+     * without resolving the error.
+     */
+    public void onErrorDialogDismissed() {
+        markDeclined(mError);
+        setState(STATE_DEFAULT);
+        mUi.showSignedOut();
+    }
+
+    /**
+     * Starts an appropriate intent or dialog for user interaction to resolve the current error
+     * preventing the user from being signed in.
+     */
+    private void resolveSignInError() {
+        if (mResolutionsThisSignIn >= MAX_RESOLUTIONS_PER_SIGN_IN) {
+            // Resolving keeps returning errors, so give up until the user clicks 'sign in'.
+            markDeclined(mError);
+            setState(STATE_DEFAULT);
+            return;
+        }
+        R resolution = mResolutionCache != null
+                ? mResolutionCache.get(mAccountKey, mError) : mResolution;
+        if (resolution != null) {
+            // We have an intent which will allow our user to sign in or resolve an error. For
+            // example if the user needs to select an account to sign in with,
+            // or if they need to  consent to the permissions your app is requesting.
+            setState(STATE_IN_PROGRESS);
+            mResolutionsThisSignIn++;
+            if (mResolutionCache != null) {
+                // Whatever the outcome, the next failed connection returns a fresh one.
+                mResolutionCache.remove(mAccountKey, mError);
+            }
+            if (!mUi.startResolution(resolution)) {
+                // The intent was canceled before it was sent.  Attempt to
+                // connect to get an updated ConnectionResult.
+                setState(STATE_SIGN_IN);
+                reconnect();
+            }
+        } else if (mResolution != null) {
+            // The resolution has expired or belongs to another account. Reconnect to get a
+            // current one, which is started as soon as it arrives.
+            mResolution = null;
+            setState(STATE_SIGN_IN);
+            reconnect();
+        } else {
+            // Google Play Services wasn't able to provide an intent for some error types,
+            // so we show the default Google Play services error dialog which may still start an
+            // intent on our behalf if the user can resolve the issue. Until it is dismissed or
+            // its intent returns, further errors are not resolved.
+            setState(STATE_IN_PROGRESS);
+            mResolutionsThisSignIn++;
+            mUi.showErrorDialog(mError);
+        }
+    }
+
+    /**
+     * Connects, unless the connection resolves errors itself and the user is not signing in.
+     */
+    private void reconnect() {
+        if (mResolvesOnConnect && mState != STATE_SIGN_IN) {
+            return;
+        }
+        mConnection.connect();
+    }
+
+    private boolean isDeclined(int errorCode) {
+        return (mDeclinedErrors & errorBit(errorCode)) != 0;
+    }
+
+    private void markDeclined(int errorCode) {
+        mDeclinedErrors |= errorBit(errorCode);
+    }
+
+    private static long errorBit(int errorCode) {
+        return 1L << Math.max(0, Math.min(errorCode, 63));
+    }
+
+    private void setState(int state) {
+        int oldState = mState;
+        mState = state;
+        if (oldState != state && mListener != null) {
+            mListener.onStateChanged(oldState, state);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.accounts.sample.signin;
+
+/**
+ * Stores whether the user was last signed into the app. Implementations must serve reads from
+ * memory and must not block the caller on disk writes.
+ */
+public interface SignInStateStore {
+
+    /**
+     * Returns whether the user was last signed into the app.
+     */
+    boolean isSignedIn();
+
+    /**
+     * Changes the user's app sign in state.
+     *
+     * @param signedIn Whether the user is signed in.
+     */
+    void setSignedIn(boolean signedIn);
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+/**
+ * Applies {@link SignInViewState} changes to the sign in screen at most once per frame.
+ *
+ * While a connection flaps, the sign in flow may ask for several states between two frames.
+ * Only the last one is applied, and only the views whose values differ from what is already on
+ * screen are touched, so a burst of state changes costs at most one layout pass. Frames are
+ * requested from a {@link TaskScheduler}, which on Android is backed by the Choreographer.
+ *
+ * The class is not thread safe and is expected to be driven from the main thread.
+ */
+public class SignInViewRenderer {
+
+    /**
+     * The views of the sign in screen. Each call changes what is on screen.
+     */
+    public interface Views {
+        void setSignInEnabled(boolean enabled);
+
+        void setSignOutEnabled(boolean enabled);
+
+        void setRevokeEnabled(boolean enabled);
+
+        void setStatus(SignInViewState state);
+    }
+
+    private final Views mViews;
+    private final TaskScheduler mFrames;
+
+    private final Runnable mFrame = new Runnable() {
+        @Override
+        public void run() {
+            mFrameScheduled = false;
+            applyPending();
+        }
+    };
+
+    private SignInViewState mApplied;
+    private SignInViewState mPending;
+    private boolean mFrameScheduled;
+
+    private long mStateChanges;
+    private long mFramesApplied;
+    private long mViewUpdates;
+
+    public SignInViewRenderer(Views views, TaskScheduler frames) {
+        mViews = views;
+        mFrames = frames;
+    }
+
+    /**
+     * Asks for the state to be shown on the next frame. Replaces any state still waiting for a
+     * frame.
+     */
+    public void render(SignInViewState state) {
+        mStateChanges++;
+        mPending = state;
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mFrames.schedule(mFrame, 0);
+        }
+    }
+
+    /**
+     * Returns the state most recently asked for, whether or not it is on screen yet.
+     */
+    public SignInViewState getState() {
+        return mPending != null ? mPending : mApplied;
+    }
+
+    /**
+     * Applies the pending state now instead of on the next frame.
+     */
+    public void applyPending() {
+        if (mFrameScheduled) {
+            mFrameScheduled = false;
+            mFrames.cancel(mFrame);
+        }
+        SignInViewState state = mPending;
+        if (state == null) {
+            return;
+        }
+        mPending = null;
+        int changed = state.diff(mApplied);
+        mApplied = state;
+        mFramesApplied++;
+        if ((changed & SignInViewState.CHANGED_SIGN_IN_BUTTON) != 0) {
+            mViews.setSignInEnabled(state.isSignInEnabled());
+            mViewUpdates++;
+        }
+        if ((changed & SignInViewState.CHANGED_SIGN_OUT_BUTTON) != 0) {
+            mViews.setSignOutEnabled(state.isSignOutEnabled());
+            mViewUpdates++;
+        }
+        if ((changed & SignInViewState.CHANGED_REVOKE_BUTTON) != 0) {
+            mViews.setRevokeEnabled(state.isRevokeEnabled());
+            mViewUpdates++;
+        }
+        if ((changed & SignInViewState.CHANGED_STATUS) != 0) {
+            mViews.setStatus(state);
+            mViewUpdates++;
+        }
+    }
+
+    /**
+     * Drops any pending state, for example when the Activity is destroyed.
+     */
+    public void cancel() {
+        mPending = null;
+        if (mFrameScheduled) {
+            mFrameScheduled = false;
+            mFrames.cancel(mFrame);
+        }
+    }
+
+    /**
+     * Returns how many states were asked for with {@link #render(SignInViewState)}.
+     */
+    public long getStateChanges() {
+        return mStateChanges;
+    }
+
+    /**
+     * Returns how many frames applied a state.
+     */
+    public long getFramesApplied() {
+        return mFramesApplied;
+    }
+
+    /**
+     * Returns how many individual view updates were made.
+     */
+    public long getViewUpdates() {
+        return mViewUpdates;
+    }
+
+    @Override
+    public String toString() {
+        return "SignInViewRenderer{stateChanges=" + mStateChanges
+                + ", framesApplied=" + mFramesApplied
+                + ", viewUpdates=" + mViewUpdates + "}";
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+/**
+ * What the sign in screen shows: which buttons are enabled and the status line.
+ *
+ * Instances are immutable, so the UI can compare the state it wants with the state it last
+ * applied and only touch the views that changed. The signed out and signing in states are shared
+ * constants; a signed in state is only allocated when the display name changes.
+ */
+public final class SignInViewState {
+
+    public static final int STATUS_SIGNED_OUT = 0;
+    public static final int STATUS_SIGNING_IN = 1;
+    public static final int STATUS_SIGNED_IN = 2;
+
+    /**
+     * Bits returned by {@link #diff(SignInViewState)}.
+     */
+    public static final int CHANGED_SIGN_IN_BUTTON = 1;
+    public static final int CHANGED_SIGN_OUT_BUTTON = 1 << 1;
+    public static final int CHANGED_REVOKE_BUTTON = 1 << 2;
+    public static final int CHANGED_STATUS = 1 << 3;
+    public static final int CHANGED_ALL = CHANGED_SIGN_IN_BUTTON | CHANGED_SIGN_OUT_BUTTON
+            | CHANGED_REVOKE_BUTTON | CHANGED_STATUS;
+
+    public static final SignInViewState SIGNED_OUT =
+            new SignInViewState(STATUS_SIGNED_OUT, null);
+    public static final SignInViewState SIGNING_IN =
+            new SignInViewState(STATUS_SIGNING_IN, null);
+
+    private final int mStatus;
+    private final String mDisplayName;
+
+    private SignInViewState(int status, String displayName) {
+        mStatus = status;
+        mDisplayName = displayName;
+    }
+
+    /**
+     * Returns the signed in state for the given display name, reusing {@code previous} if it
+     * already describes it.
+     */
+    public static SignInViewState signedIn(String displayName, SignInViewState previous) {
+        if (previous != null && previous.mStatus == STATUS_SIGNED_IN
+                && equal(previous.mDisplayName, displayName)) {
+            return previous;
+        }
+        return new SignInViewState(STATUS_SIGNED_IN, displayName);
+    }
+
+    /**
+     * Returns one of the STATUS_ constants.
+     */
+    public int getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * Returns the display name of the signed in user, or null if nobody is signed in.
+     */
+    public String getDisplayName() {
+        return mDisplayName;
+    }
+
+    public boolean isSignInEnabled() {
+        return mStatus != STATUS_SIGNED_IN;
+    }
+
+    public boolean isSignOutEnabled() {
+        return mStatus == STATUS_SIGNED_IN;
+    }
+
+    public boolean isRevokeEnabled() {
+        return mStatus == STATUS_SIGNED_IN;
+    }
+
+    /**
+     * Returns the CHANGED_ bits of the views that need updating to go from {@code previous} to
+     * this state, or {@link #CHANGED_ALL} if nothing has been applied yet.
+     */
+    public int diff(SignInViewState previous) {
+        if (previous == null) {
+            return CHANGED_ALL;
+        }
+        int changed = 0;
+        if (previous.isSignInEnabled() != isSignInEnabled()) {
+            changed |= CHANGED_SIGN_IN_BUTTON;
+        }
+        if (previous.isSignOutEnabled() != isSignOutEnabled()) {
+            changed |= CHANGED_SIGN_OUT_BUTTON;
+        }
+        if (previous.isRevokeEnabled() != isRevokeEnabled()) {
+            changed |= CHANGED_REVOKE_BUTTON;
+        }
+        if (previous.mStatus != mStatus || !equal(previous.mDisplayName, mDisplayName)) {
+            changed |= CHANGED_STATUS;
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SignInViewState)) {
+            return false;
+        }
+        SignInViewState other = (SignInViewState) o;
+        return mStatus == other.mStatus && equal(mDisplayName, other.mDisplayName);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mStatus + (mDisplayName != null ? mDisplayName.hashCode() : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "SignInViewState{status=" + mStatus + ", displayName=" + mDisplayName + "}";
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.accounts.sample.signin;
+
+/**
+ * Runs tasks after a delay. On Android this is backed by a Handler; on the JVM
+ * {@link ManualTaskScheduler} lets callers advance time by hand.
+ */
+public interface TaskScheduler {
+
+    /**
+     * Returns the current time of this scheduler's monotonic clock, in milliseconds.
+     */
+    long uptimeMillis();
+
+    /**
+     * Runs the task once after the given delay.
+     */
+    void schedule(Runnable task, long delayMillis);
+
+    /**
+     * Removes every pending run of the task.
+     */
+    void cancel(Runnable task);
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.accounts.sample.signin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class BatchingSignInStateStoreTest {
+
+    private static final long BATCH_WINDOW_MS = 50;
+
+    private FakeBackend mBackend;
+    private ScheduledExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mBackend = new FakeBackend();
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @Test
+    public void burstOfChangesIsWrittenOnce() throws InterruptedException {
+        BatchingSignInStateStore store = newStore();
+        store.preload();
+        for (int i = 0; i < 100; i++) {
+            store.setSignedIn(i % 2 == 0);
+        }
+        store.setSignedIn(true);
+
+        flush();
+
+        assertEquals(101, store.getRequestedWriteCount());
+        assertEquals(1, store.getBackendWriteCount());
+        assertEquals(1, mBackend.writes);
+        assertTrue(mBackend.signedIn);
+        assertTrue(store.toString(), store.toString().contains("backendWrites=1"));
+    }
+
+    @Test
+    public void unchangedStateIsNotWritten() throws InterruptedException {
+        mBackend.signedIn = true;
+        BatchingSignInStateStore store = newStore();
+        assertTrue(store.isSignedIn());
+
+        store.setSignedIn(false);
+        store.setSignedIn(true);
+        flush();
+
+        assertEquals(2, store.getRequestedWriteCount());
+        assertEquals(0, mBackend.writes);
+    }
+
+    @Test
+    public void changeBeforeLoadIsWritten() throws InterruptedException {
+        mBackend.signedIn = true;
+        BatchingSignInStateStore store = newStore();
+
+        store.setSignedIn(false);
+        assertFalse(store.isSignedIn());
+        flush();
+
+        assertEquals(1, mBackend.writes);
+        assertFalse(mBackend.signedIn);
+        assertFalse(store.isSignedIn());
+    }
+
+    private BatchingSignInStateStore newStore() {
+        return new BatchingSignInStateStore(mBackend, mExecutor, BATCH_WINDOW_MS);
+    }
+
+    /**
+     * Runs the pending load and the batched write, which a shut down executor still runs.
+     */
+    private void flush() throws InterruptedException {
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private static final class FakeBackend implements BatchingSignInStateStore.Backend {
+        volatile boolean signedIn;
+        volatile int writes;
+
+        @Override
+        public boolean read() {
+            return signedIn;
+        }
+
+        @Override
+        public void write(boolean signedIn) {
+            this.signedIn = signedIn;
+            writes++;
+        }
+    }
+}
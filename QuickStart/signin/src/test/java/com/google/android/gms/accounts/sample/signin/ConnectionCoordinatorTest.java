@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.accounts.sample.signin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConnectionCoordinatorTest {
+
+    private static final int THREADS = 8;
+    private static final int REQUESTS_PER_THREAD = 20000;
+
+    private final AtomicLong mBuilds = new AtomicLong();
+    private final AtomicLong mConnects = new AtomicLong();
+    private ConnectionCoordinator<Long> mCoordinator;
+
+    @Before
+    public void setUp() {
+        // The connector never calls back, so every attempt stays in flight until the client is
+        // replaced.
+        mCoordinator = new ConnectionCoordinator<Long>(new ConnectionCoordinator.Connector<Long>() {
+            @Override
+            public Long rebuild() {
+                return mBuilds.incrementAndGet();
+            }
+
+            @Override
+            public void connect(Long client) {
+                mConnects.incrementAndGet();
+            }
+
+            @Override
+            public boolean isConnected(Long client) {
+                return false;
+            }
+        });
+        mCoordinator.rebuildAndConnect();
+    }
+
+    @Test
+    public void concurrentConnectsShareOneAttempt() throws InterruptedException {
+        runConcurrently(THREADS, 0);
+
+        assertEquals(1, mCoordinator.getAttemptCount());
+        assertEquals(1, mConnects.get());
+        assertEquals(1 + THREADS * REQUESTS_PER_THREAD, mCoordinator.getRequestCount());
+    }
+
+    @Test
+    public void oneAttemptPerRebuildWhileConnectsRace() throws InterruptedException {
+        runConcurrently(THREADS - 1, 1);
+
+        assertTrue(mCoordinator.getRebuildCount() > 1);
+        assertEquals(mCoordinator.getRebuildCount(), mCoordinator.getAttemptCount());
+        assertEquals(mCoordinator.getRebuildCount(), mConnects.get());
+        assertEquals(mCoordinator.getRebuildCount(), mBuilds.get());
+    }
+
+    @Test
+    public void settledAttemptAllowsTheNextConnect() {
+        mCoordinator.onConnectionFailed(mBuilds.get(), FakeConnection.ERROR_NETWORK_ERROR);
+        ConnectionCoordinator<Long>.Attempt attempt = mCoordinator.connect();
+
+        assertEquals(2, mCoordinator.getAttemptCount());
+        assertFalse(attempt.isDone());
+
+        // A callback from a replaced client is ignored.
+        mCoordinator.rebuildAndConnect();
+        mCoordinator.onConnected(1L);
+
+        assertEquals(1, mCoordinator.getStaleCallbackCount());
+        assertTrue(attempt.isDone());
+        assertFalse(attempt.isConnected());
+    }
+
+    /**
+     * Requests connects from the connecting threads and rebuilds from the rebuilding ones, all
+     * released at once.
+     */
+    private void runConcurrently(int connecting, int rebuilding) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(connecting + rebuilding);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < connecting + rebuilding; i++) {
+            final boolean rebuild = i < rebuilding;
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+                        if (rebuild) {
+                            mCoordinator.rebuildAndConnect();
+                        } else {
+                            mCoordinator.connect();
+                        }
+                    }
+                }
+            });
+        }
+        for (Runnable task : tasks) {
+            executor.execute(task);
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+    }
+}
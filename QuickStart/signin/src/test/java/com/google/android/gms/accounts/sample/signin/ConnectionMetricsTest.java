@@ -0,0 +1,121 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.accounts.sample.signin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class ConnectionMetricsTest {
+
+    private static final long TIMESTAMP = 1420070400000L;
+
+    private ManualTaskScheduler mClock;
+    private ConnectionMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mClock = new ManualTaskScheduler();
+        mClock.advanceBy(1000);
+        mMetrics = new ConnectionMetrics(mClock);
+    }
+
+    @Test
+    public void connectLatencyIsMeasuredFromTheFirstStart() {
+        mMetrics.onConnectStarted();
+        mClock.advanceBy(100);
+        mMetrics.onConnectStarted();
+        mClock.advanceBy(80);
+        mMetrics.onConnected();
+
+        assertEquals(1, mMetrics.getConnectLatency().getCount());
+        assertEquals(180, mMetrics.getConnectLatency().getMax());
+    }
+
+    @Test
+    public void errorCodesOutOfRangeAreClamped() {
+        mMetrics.onConnectionFailed(-1);
+        mMetrics.onConnectionFailed(ConnectionMetrics.MAX_ERROR_CODE + 10);
+
+        assertEquals(1, mMetrics.getFailureCount(0));
+        assertEquals(1, mMetrics.getFailureCount(ConnectionMetrics.MAX_ERROR_CODE));
+        assertEquals(1.0, mMetrics.getFailureRate(), 0);
+    }
+
+    @Test
+    public void tapToResolutionEndsWhenTheResolutionStarts() {
+        mMetrics.onSignInClicked();
+        mClock.advanceBy(40);
+        mMetrics.onResolutionStarted();
+        mClock.advanceBy(2000);
+        mMetrics.onResolutionFinished(true);
+        mMetrics.onConnected();
+
+        assertEquals(40, mMetrics.getTapToResolution().getMax());
+        assertEquals(2000, mMetrics.getResolutionTime().getMax());
+        assertEquals(1, mMetrics.getResolutionsPerSignIn().getMax());
+        assertEquals(1.0, mMetrics.getResolutionSuccessRate(), 0);
+    }
+
+    @Test
+    public void lineProtocolHasTagsAndTimestampOnEveryLine() throws IOException {
+        mMetrics.onConnectStarted();
+        mClock.advanceBy(180);
+        mMetrics.onConnected();
+        mMetrics.onConnectionFailed(4);
+
+        StringBuilder out = new StringBuilder();
+        mMetrics.writeLineProtocol(out, ConnectionMetrics.tags("app", "quickstart"), TIMESTAMP);
+        String[] lines = out.toString().split("\n");
+
+        assertEquals("connection,app=quickstart connectsStarted=1i,connects=1i,failures=1i,"
+                + "suspends=0i,resolutionsStarted=0i,resolutionsSucceeded=0i " + TIMESTAMP,
+                lines[0]);
+        assertEquals("connection_failure,app=quickstart,code=4 count=1i " + TIMESTAMP, lines[1]);
+        assertEquals("connection_latency,app=quickstart,phase=connect count=1i,p50=180i,"
+                + "p90=180i,p99=180i,max=180i " + TIMESTAMP, lines[2]);
+        // Empty histograms and error codes without failures are left out.
+        assertEquals(3, lines.length);
+    }
+
+    @Test
+    public void lineProtocolWithoutTags() throws IOException {
+        StringBuilder out = new StringBuilder();
+        mMetrics.writeLineProtocol(out, null, TIMESTAMP);
+
+        assertTrue(out.toString(), out.toString().startsWith("connection connectsStarted=0i"));
+        assertTrue(out.toString(), out.toString().endsWith(" " + TIMESTAMP + "\n"));
+    }
+
+    @Test
+    public void tagsEscapeReservedCharacters() {
+        assertEquals("app=quick\\ start,build=a\\,b\\=c",
+                ConnectionMetrics.tags("app", "quick start", "build", "a,b=c"));
+        assertFalse(ConnectionMetrics.tags("app", "plain").contains("\\"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tagsNeedAValuePerKey() {
+        ConnectionMetrics.tags("app");
+    }
+}
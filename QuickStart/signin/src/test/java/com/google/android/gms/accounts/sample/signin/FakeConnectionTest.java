@@ -0,0 +1,156 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class FakeConnectionTest {
+
+    private ManualTaskScheduler mScheduler;
+    private FakeConnection mConnection;
+    private final List<String> mCallbacks = new ArrayList<String>();
+    private FakeConnection.Resolution mLastResolution;
+
+    @Before
+    public void setUp() {
+        mScheduler = new ManualTaskScheduler();
+        mConnection = new FakeConnection(mScheduler, new Random(1));
+        mConnection.setCallbacks(new FakeConnection.Callbacks() {
+            @Override
+            public void onConnected() {
+                mCallbacks.add("connected@" + mScheduler.uptimeMillis());
+            }
+
+            @Override
+            public void onConnectionFailed(int errorCode, FakeConnection.Resolution resolution) {
+                mLastResolution = resolution;
+                mCallbacks.add("failed(" + errorCode + ")@" + mScheduler.uptimeMillis());
+            }
+
+            @Override
+            public void onConnectionSuspended() {
+                mCallbacks.add("suspended@" + mScheduler.uptimeMillis());
+            }
+        });
+    }
+
+    @Test
+    public void deliversScriptedOutcomesAfterTheirLatency() {
+        mConnection.script(
+                FakeConnection.Outcome.failed(FakeConnection.ERROR_SIGN_IN_REQUIRED, true,
+                        LatencyModel.fixed(200)),
+                FakeConnection.Outcome.connected(LatencyModel.fixed(50)));
+
+        mConnection.connect();
+        mScheduler.advanceBy(199);
+        assertTrue(mCallbacks.isEmpty());
+        assertTrue(mConnection.isConnecting());
+        mScheduler.advanceBy(1);
+        mConnection.connect();
+        mScheduler.runUntilIdle();
+
+        assertEquals("[failed(4)@200, connected@250]", mCallbacks.toString());
+        assertTrue(mConnection.isConnected());
+        assertEquals(2, mConnection.getAttemptCount());
+        assertEquals(1, mConnection.getFailureCount());
+    }
+
+    @Test
+    public void failureCarriesResolutionOnlyWhenScripted() {
+        mConnection.script(
+                FakeConnection.Outcome.failed(FakeConnection.ERROR_RESOLUTION_REQUIRED, true,
+                        LatencyModel.fixed(0)),
+                FakeConnection.Outcome.failed(SignInStateMachine.ERROR_API_UNAVAILABLE, false,
+                        LatencyModel.fixed(0)));
+
+        mConnection.connect();
+        mScheduler.runUntilIdle();
+        assertNotNull(mLastResolution);
+        assertEquals(FakeConnection.ERROR_RESOLUTION_REQUIRED, mLastResolution.getErrorCode());
+
+        mConnection.connect();
+        mScheduler.runUntilIdle();
+        assertNull(mLastResolution);
+    }
+
+    @Test
+    public void connectWhileConnectingOrConnectedDoesNothing() {
+        mConnection.setDefaultOutcome(FakeConnection.Outcome.connected(LatencyModel.fixed(100)));
+
+        mConnection.connect();
+        mConnection.connect();
+        mScheduler.runUntilIdle();
+        mConnection.connect();
+        mScheduler.runUntilIdle();
+
+        assertEquals(1, mConnection.getAttemptCount());
+        assertEquals("[connected@100]", mCallbacks.toString());
+    }
+
+    @Test
+    public void suspendsAfterScriptedTime() {
+        mConnection.script(FakeConnection.Outcome.connected(LatencyModel.fixed(10))
+                .thenSuspendAfter(1000));
+
+        mConnection.connect();
+        mScheduler.runUntilIdle();
+
+        assertEquals("[connected@10, suspended@1010]", mCallbacks.toString());
+        assertFalse(mConnection.isConnected());
+        assertEquals(1, mConnection.getSuspendCount());
+    }
+
+    @Test
+    public void disconnectCancelsAttemptWithoutCallingBack() {
+        mConnection.setDefaultOutcome(FakeConnection.Outcome.connected(LatencyModel.fixed(100)));
+
+        mConnection.connect();
+        mConnection.disconnect();
+        mScheduler.runUntilIdle();
+
+        assertTrue(mCallbacks.isEmpty());
+        assertFalse(mConnection.isConnecting());
+        assertFalse(mConnection.isConnected());
+    }
+
+    @Test
+    public void simulationIsRepeatableForASeed() {
+        String first = new SignInSimulation(7).run(2000).toString();
+        String second = new SignInSimulation(7).run(2000).toString();
+
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void simulationMeetsLatencyBudget() {
+        SignInSimulation.Result result = new SignInSimulation(42).run(10000);
+
+        long p99 = result.getPercentileMillis(0.99);
+        assertTrue("p99 sign in latency " + p99 + "ms", p99 >= 0 && p99 <= 1000);
+    }
+}
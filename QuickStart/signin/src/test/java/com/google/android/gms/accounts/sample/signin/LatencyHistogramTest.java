@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.accounts.sample.signin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesGetABucketEach() {
+        for (int value = 0; value < 16; value++) {
+            assertEquals(value, LatencyHistogram.bucketOf(value));
+            assertEquals(value, LatencyHistogram.upperBoundOf(value));
+        }
+    }
+
+    @Test
+    public void bucketBoundariesAreContiguous() {
+        assertEquals(16, LatencyHistogram.bucketOf(16));
+        assertEquals(31, LatencyHistogram.bucketOf(31));
+        assertEquals(32, LatencyHistogram.bucketOf(32));
+        assertEquals(32, LatencyHistogram.bucketOf(33));
+        assertEquals(33, LatencyHistogram.upperBoundOf(32));
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(upper));
+            assertEquals(bucket + 1, LatencyHistogram.bucketOf(upper + 1));
+        }
+    }
+
+    @Test
+    public void hugeValuesGoToTheLastBucket() {
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(LatencyHistogram.BUCKETS - 1,
+                LatencyHistogram.bucketOf(LatencyHistogram.upperBoundOf(
+                        LatencyHistogram.BUCKETS - 1) + 1));
+    }
+
+    @Test
+    public void bucketsAreWithinOneSixteenth() {
+        for (long value = 1; value < (1L << 36); value = value * 3 / 2 + 1) {
+            long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value));
+            assertTrue(value + " -> " + upper, upper >= value);
+            assertTrue(value + " -> " + upper, upper - value <= value / 16);
+        }
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void percentilesAtTheEdges() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        // The lowest value has a bucket of its own, the highest is capped at the max.
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(1000, histogram.getPercentile(1));
+        assertEquals(1000, histogram.getMax());
+        long p50 = histogram.getPercentile(0.5);
+        assertTrue(Long.toString(p50), p50 >= 500 && p50 <= 500 + 500 / 16);
+        long p99 = histogram.getPercentile(0.99);
+        assertTrue(Long.toString(p99), p99 >= 990 && p99 <= 1000);
+    }
+
+    @Test
+    public void singleValueIsEveryPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+
+        assertEquals(100, histogram.getPercentile(0));
+        assertEquals(100, histogram.getPercentile(0.5));
+        assertEquals(100, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void negativeValuesAreRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(1));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.accounts.sample.signin;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LeakCycleTest {
+
+    private static final long MAX_GROWTH = 1024 * 1024;
+
+    private final LeakWatcher mWatcher = new LeakWatcher(0);
+    private final List<Object> mKept = new ArrayList<Object>();
+
+    @Test
+    public void releasedObjectsPass() throws Exception {
+        new LeakCycle(mWatcher, 0)
+                .addStep("destroy", new WatchStep(false, 0))
+                .addStep("destroy again", new WatchStep(false, 0))
+                .run(20, 2, MAX_GROWTH);
+    }
+
+    @Test
+    public void retainedObjectFails() throws Exception {
+        assertFails("retained after 5 cycles",
+                new LeakCycle(mWatcher, 0).addStep("leak", new WatchStep(true, 0)));
+    }
+
+    @Test
+    public void cycleThatWatchesNothingFails() throws Exception {
+        assertFails("only 0 objects were watched", new LeakCycle(mWatcher, 0).addStep("idle",
+                new LeakCycle.Step() {
+                    @Override
+                    public void run() {
+                    }
+                }));
+    }
+
+    @Test
+    public void growingHeapFails() throws Exception {
+        assertFails("heap grew by ", new LeakCycle(mWatcher, 0)
+                .addStep("grow", new WatchStep(false, (int) MAX_GROWTH * 4)));
+    }
+
+    @Test
+    public void failedStepIsNamed() {
+        try {
+            new LeakCycle(mWatcher, 0).addStep("sign in", new LeakCycle.Step() {
+                @Override
+                public void run() throws Exception {
+                    throw new IllegalStateException("no account");
+                }
+            }).run(5, 1, MAX_GROWTH);
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("step 'sign in' of cycle 0"));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static void assertFails(String message, LeakCycle cycle) throws Exception {
+        try {
+            cycle.run(5, 1, MAX_GROWTH);
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+            return;
+        }
+        fail("expected '" + message + "'");
+    }
+
+    /**
+     * Watches a new object, and keeps it or the given number of bytes reachable.
+     */
+    private final class WatchStep implements LeakCycle.Step {
+        private final boolean mLeak;
+        private final int mGrowBytes;
+
+        WatchStep(boolean leak, int growBytes) {
+            mLeak = leak;
+            mGrowBytes = growBytes;
+        }
+
+        @Override
+        public void run() {
+            Object destroyed = new Object();
+            mWatcher.watch(destroyed, "object");
+            if (mLeak) {
+                mKept.add(destroyed);
+            }
+            if (mGrowBytes > 0) {
+                mKept.add(new byte[mGrowBytes]);
+            }
+        }
+    }
+}
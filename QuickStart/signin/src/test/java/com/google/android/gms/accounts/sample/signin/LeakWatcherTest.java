@@ -0,0 +1,93 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LeakWatcherTest {
+
+    @Test
+    public void unreachableObjectIsNotRetained() {
+        LeakWatcher watcher = new LeakWatcher(0);
+        watcher.watch(new Object(), "released");
+
+        assertTrue(watcher.check().isEmpty());
+        assertEquals(1, watcher.getWatchCount());
+    }
+
+    @Test
+    public void reachableObjectIsRetainedAfterGracePeriod() throws InterruptedException {
+        LeakWatcher watcher = new LeakWatcher(0);
+        Object leaked = new Object();
+        watcher.watch(leaked, "leaked");
+        Thread.sleep(1);
+
+        List<String> retained = watcher.check();
+
+        assertEquals(1, retained.size());
+        assertTrue(retained.get(0), retained.get(0).startsWith("leaked retained for "));
+        assertTrue(watcher.toString(), watcher.toString().contains("retained=1"));
+        // Keeps the object reachable until here.
+        assertTrue(leaked != null);
+    }
+
+    @Test
+    public void reachableObjectIsNotRetainedDuringGracePeriod() {
+        LeakWatcher watcher = new LeakWatcher(60 * 1000);
+        Object pending = new Object();
+        watcher.watch(pending, "pending");
+
+        assertTrue(watcher.check().isEmpty());
+        // Keeps the object reachable until here.
+        assertTrue(pending != null);
+    }
+
+    @Test
+    public void toStringDoesNotCheck() throws InterruptedException {
+        LeakWatcher watcher = new LeakWatcher(0);
+        Object leaked = new Object();
+        watcher.watch(leaked, "leaked");
+        Thread.sleep(1);
+
+        assertTrue(watcher.toString(), watcher.toString().contains("retained=0"));
+        // Keeps the object reachable until here.
+        assertTrue(leaked != null);
+    }
+
+    @Test
+    public void heapGrowthComparesCheckedSamples() {
+        LeakWatcher watcher = new LeakWatcher(0);
+        List<byte[]> kept = new ArrayList<byte[]>();
+        watcher.check();
+        for (int i = 0; i < 10; i++) {
+            kept.add(new byte[1024 * 1024]);
+            watcher.watch(new Object(), "object");
+        }
+        watcher.check();
+
+        long growth = watcher.getHeapGrowthPerWatch();
+        assertTrue(Long.toString(growth), growth >= 1024 * 1024 && growth < 2 * 1024 * 1024);
+        // Keeps the arrays reachable until here.
+        assertEquals(10, kept.size());
+    }
+}
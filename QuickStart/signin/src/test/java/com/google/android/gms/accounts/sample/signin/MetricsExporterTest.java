@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.accounts.sample.signin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsExporterTest {
+
+    private File mFile;
+    private ScheduledExecutorService mExecutor;
+    private ConnectionMetrics mMetrics;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("metrics", ".lp");
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mMetrics = new ConnectionMetrics();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        mFile.delete();
+        new File(mFile.getPath() + ".1").delete();
+    }
+
+    @Test
+    public void flushAppendsTaggedLinesWithTheWallClockTime() throws Exception {
+        MetricsExporter exporter = new MetricsExporter(mMetrics, mFile,
+                ConnectionMetrics.tags("app", "test app"), mExecutor);
+        mMetrics.onConnectionFailed(7);
+        long before = System.currentTimeMillis();
+
+        exporter.flush();
+        exporter.flush();
+        awaitExports();
+        long after = System.currentTimeMillis();
+
+        List<String> lines = readLines(mFile);
+        // Two snapshots of two lines each.
+        assertEquals(4, lines.size());
+        assertEquals(lines.get(0).substring(0, lines.get(0).lastIndexOf(' ')),
+                lines.get(2).substring(0, lines.get(2).lastIndexOf(' ')));
+        for (String line : lines) {
+            assertTrue(line, line.contains(",app=test\\ app"));
+            long timestamp = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+            assertTrue(line, timestamp >= before && timestamp <= after);
+        }
+        assertTrue(lines.get(1),
+                lines.get(1).startsWith("connection_failure,app=test\\ app,code=7 "));
+    }
+
+    @Test
+    public void fileIsRotatedPastTheLimit() throws Exception {
+        MetricsExporter exporter = new MetricsExporter(mMetrics, mFile, null, mExecutor, 1);
+
+        exporter.flush();
+        exporter.flush();
+        exporter.flush();
+        awaitExports();
+
+        // Every export after the first finds the file over the limit and starts a new one.
+        assertEquals(1, readLines(mFile).size());
+        assertEquals(1, readLines(new File(mFile.getPath() + ".1")).size());
+    }
+
+    private void awaitExports() throws InterruptedException {
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ReconnectSchedulerTest {
+
+    private static final long BASE_DELAY_MS = 100;
+    private static final long MAX_DELAY_MS = 5000;
+
+    private ManualTaskScheduler mScheduler;
+    private CountingConnection mConnection;
+    private ReconnectScheduler mReconnects;
+
+    @Before
+    public void setUp() {
+        mScheduler = new ManualTaskScheduler();
+        mConnection = new CountingConnection();
+        mReconnects = new ReconnectScheduler(mConnection, mScheduler, new Random(42),
+                BASE_DELAY_MS, MAX_DELAY_MS);
+    }
+
+    @Test
+    public void firstReconnectRunsRightAway() {
+        mReconnects.connect();
+        mScheduler.advanceBy(0);
+
+        assertEquals(1, mConnection.connects);
+    }
+
+    @Test
+    public void delayStaysWithinExponentialCap() {
+        for (int attempt = 0; attempt < 12; attempt++) {
+            long delay = reconnectAndMeasure();
+            long cap = attempt == 0 ? 0 : Math.min(MAX_DELAY_MS, BASE_DELAY_MS << (attempt - 1));
+            assertTrue("attempt " + attempt + " waited " + delay + "ms, cap " + cap + "ms",
+                    delay >= 0 && delay <= cap);
+        }
+    }
+
+    @Test
+    public void delayIsJitteredAcrossTheWholeRange() {
+        // Far enough in that the cap has reached the maximum.
+        for (int attempt = 0; attempt < 10; attempt++) {
+            reconnectAndMeasure();
+        }
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int attempt = 0; attempt < 200; attempt++) {
+            long delay = reconnectAndMeasure();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue("shortest delay " + min + "ms", min < MAX_DELAY_MS / 10);
+        assertTrue("longest delay " + max + "ms", max > MAX_DELAY_MS * 9 / 10);
+    }
+
+    @Test
+    public void capDoesNotOverflowAfterManyAttempts() {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            long delay = reconnectAndMeasure();
+            assertTrue("attempt " + attempt + " waited " + delay + "ms",
+                    delay >= 0 && delay <= MAX_DELAY_MS);
+        }
+    }
+
+    @Test
+    public void requestsWhilePendingAreCoalesced() {
+        reconnectAndMeasure();
+        mReconnects.connect();
+        mReconnects.connect();
+        mReconnects.connect();
+        mScheduler.runUntilIdle();
+
+        assertEquals(2, mConnection.connects);
+        assertEquals(2, mReconnects.getAttemptCount());
+        assertEquals(2, mReconnects.getCoalescedCount());
+    }
+
+    @Test
+    public void requestsWhileConnectingAreCoalesced() {
+        mConnection.connecting = true;
+        mReconnects.connect();
+        mScheduler.runUntilIdle();
+
+        assertEquals(0, mConnection.connects);
+        assertEquals(1, mReconnects.getCoalescedCount());
+        assertTrue(mReconnects.isConnecting());
+    }
+
+    @Test
+    public void successResetsTheBackoff() {
+        for (int attempt = 0; attempt < 8; attempt++) {
+            reconnectAndMeasure();
+        }
+        mReconnects.onConnected();
+
+        assertEquals(0, reconnectAndMeasure());
+        assertEquals(1, mReconnects.getSuccessCount());
+    }
+
+    @Test
+    public void successCancelsPendingReconnect() {
+        reconnectAndMeasure();
+        mReconnects.connect();
+        mReconnects.onConnected();
+
+        assertFalse(mReconnects.isConnecting());
+        assertEquals(0, mScheduler.runUntilIdle());
+        assertEquals(1, mConnection.connects);
+    }
+
+    @Test
+    public void userResolutionResetsTheBackoff() {
+        for (int attempt = 0; attempt < 8; attempt++) {
+            reconnectAndMeasure();
+        }
+        mReconnects.onUserResolved();
+
+        assertEquals(0, reconnectAndMeasure());
+    }
+
+    /**
+     * Requests a reconnect and returns how long it waited before connecting.
+     */
+    private long reconnectAndMeasure() {
+        int connects = mConnection.connects;
+        long start = mScheduler.uptimeMillis();
+        mReconnects.connect();
+        mScheduler.runUntilIdle();
+        assertEquals(connects + 1, mConnection.connects);
+        return mScheduler.uptimeMillis() - start;
+    }
+
+    private static final class CountingConnection implements SignInStateMachine.ConnectionPort {
+        int connects;
+        boolean connecting;
+
+        @Override
+        public void connect() {
+            connects++;
+        }
+
+        @Override
+        public boolean isConnecting() {
+            return connecting;
+        }
+    }
+}
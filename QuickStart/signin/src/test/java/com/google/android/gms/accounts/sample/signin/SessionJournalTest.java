@@ -0,0 +1,216 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.accounts.sample.signin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class SessionJournalTest {
+
+    private static final int FOUR_RECORDS = SessionJournal.HEADER_SIZE
+            + 4 * SessionJournal.RECORD_SIZE;
+
+    private File mDir;
+    private File mFile;
+    private File mRotatedFile;
+    private File mNextFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("journal", "");
+        assertTrue(mDir.delete() && mDir.mkdir());
+        mFile = new File(mDir, "session.journal");
+        mRotatedFile = new File(mDir, "session.journal.1");
+        mNextFile = new File(mDir, "session.journal.next");
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void eventsRoundTrip() throws IOException {
+        long before = System.currentTimeMillis();
+        SessionJournal journal = new SessionJournal(mFile, SessionJournal.DEFAULT_MAX_BYTES);
+        journal.open();
+        journal.setAccount("12345");
+        journal.append(SessionJournal.EVENT_CONNECT, 1, 0);
+        journal.setAccount(null);
+        journal.append(SessionJournal.EVENT_FAILED, 0, 4);
+        journal.close();
+        long after = System.currentTimeMillis();
+
+        List<SessionJournalReader.Event> events = SessionJournalReader.read(mFile);
+
+        assertEquals(2, events.size());
+        SessionJournalReader.Event connect = events.get(0);
+        assertEquals(1, connect.sequence);
+        assertEquals("connect", connect.getName());
+        assertEquals(1, connect.state);
+        assertEquals(0, connect.code);
+        assertEquals("12345".hashCode(), connect.accountHash);
+        assertTrue(connect.wallTimeMs >= before && connect.wallTimeMs <= after);
+        SessionJournalReader.Event failed = events.get(1);
+        assertEquals(2, failed.sequence);
+        assertEquals("failed", failed.getName());
+        assertEquals(4, failed.code);
+        assertEquals(0, failed.accountHash);
+        assertTrue(failed.monotonicMs >= connect.monotonicMs);
+    }
+
+    @Test
+    public void rotationKeepsTheLastTwoFilesInSequenceOrder() throws IOException {
+        SessionJournal journal = new SessionJournal(mFile, FOUR_RECORDS);
+        journal.open();
+        for (int i = 0; i < 10; i++) {
+            journal.append(SessionJournal.EVENT_CONNECT, 0, i);
+        }
+        journal.close();
+
+        // Read out of order on purpose: the reader sorts by sequence number.
+        assertSequences(5, 10, SessionJournalReader.read(mFile, mRotatedFile));
+        assertTrue(journal.toString(), journal.toString().contains("rotations=2"));
+        assertTrue(journal.toString(), journal.toString().contains("dropped=0"));
+    }
+
+    @Test
+    public void reopenedJournalContinuesTheSequence() throws IOException {
+        SessionJournal journal = new SessionJournal(mFile, FOUR_RECORDS);
+        journal.open();
+        for (int i = 0; i < 3; i++) {
+            journal.append(SessionJournal.EVENT_CONNECT, 0, 0);
+        }
+        journal.close();
+
+        SessionJournal reopened = new SessionJournal(mFile, FOUR_RECORDS);
+        reopened.open();
+        reopened.append(SessionJournal.EVENT_CONNECTED, 0, 0);
+        reopened.append(SessionJournal.EVENT_SIGNED_OUT, 0, 0);
+        reopened.close();
+
+        assertSequences(1, 5, SessionJournalReader.read(mRotatedFile, mFile));
+    }
+
+    @Test
+    public void emptyFileContinuesTheRotatedSequence() throws IOException {
+        SessionJournal journal = new SessionJournal(mFile, FOUR_RECORDS);
+        journal.open();
+        for (int i = 0; i < 4; i++) {
+            journal.append(SessionJournal.EVENT_CONNECT, 0, 0);
+        }
+        journal.close();
+        assertTrue(mFile.renameTo(mRotatedFile));
+
+        SessionJournal reopened = new SessionJournal(mFile, FOUR_RECORDS);
+        reopened.open();
+        reopened.append(SessionJournal.EVENT_CONNECTED, 0, 0);
+        reopened.close();
+
+        assertSequences(5, 5, SessionJournalReader.read(mFile));
+    }
+
+    @Test
+    public void appendLeavesFileWorkToTheExecutor() throws IOException {
+        QueueExecutor executor = new QueueExecutor();
+        SessionJournal journal = new SessionJournal(mFile, FOUR_RECORDS, executor);
+        journal.open();
+        for (int i = 0; i < 4; i++) {
+            journal.append(SessionJournal.EVENT_CONNECT, 0, 0);
+        }
+        assertFalse(mNextFile.exists());
+        // The next file is not ready yet, so the event is dropped rather than waited for.
+        journal.append(SessionJournal.EVENT_CONNECT, 0, 0);
+        assertTrue(journal.toString(), journal.toString().contains("dropped=1"));
+
+        executor.runAll();
+        assertTrue(mNextFile.exists());
+        journal.append(SessionJournal.EVENT_CONNECTED, 0, 0);
+        assertFalse(mRotatedFile.exists());
+
+        executor.runAll();
+        journal.close();
+        assertFalse(mNextFile.exists());
+        assertSequences(1, 5, SessionJournalReader.read(mRotatedFile, mFile));
+    }
+
+    @Test
+    public void openFinishesAnInterruptedRotation() throws IOException {
+        QueueExecutor executor = new QueueExecutor();
+        SessionJournal journal = new SessionJournal(mFile, FOUR_RECORDS, executor);
+        journal.open();
+        for (int i = 0; i < 2; i++) {
+            journal.append(SessionJournal.EVENT_CONNECT, 0, 0);
+        }
+        executor.runAll();
+        for (int i = 0; i < 3; i++) {
+            journal.append(SessionJournal.EVENT_CONNECT, 0, 0);
+        }
+        // The process dies before the executor renames the files.
+        journal.close();
+        assertTrue(mNextFile.exists());
+
+        SessionJournal reopened = new SessionJournal(mFile, FOUR_RECORDS);
+        reopened.open();
+        assertFalse(mNextFile.exists());
+        reopened.append(SessionJournal.EVENT_CONNECTED, 0, 0);
+        reopened.close();
+
+        assertSequences(1, 6, SessionJournalReader.read(mRotatedFile, mFile));
+    }
+
+    private static void assertSequences(int first, int last,
+            List<SessionJournalReader.Event> events) {
+        assertEquals(last - first + 1, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(first + i, events.get(i).sequence);
+        }
+    }
+
+    /**
+     * Runs tasks only when asked, in the order they were submitted.
+     */
+    private static final class QueueExecutor implements Executor {
+        private final List<Runnable> mTasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2014 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.accounts.sample.signin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SignInStateMachineTest {
+
+    private static final int ERROR = FakeConnection.ERROR_SIGN_IN_REQUIRED;
+
+    private ManualTaskScheduler mScheduler;
+    private FakeConnection mConnection;
+    private SignInStateMachine<FakeConnection.Resolution> mStateMachine;
+    private final List<FakeConnection.Resolution> mStarted =
+            new ArrayList<FakeConnection.Resolution>();
+    private int mErrorDialogs;
+
+    @Before
+    public void setUp() {
+        mScheduler = new ManualTaskScheduler();
+        mConnection = new FakeConnection(mScheduler, new Random(1));
+        mConnection.setDefaultOutcome(
+                FakeConnection.Outcome.failed(ERROR, true, LatencyModel.fixed(10)));
+        mStateMachine = new SignInStateMachine<FakeConnection.Resolution>(mConnection,
+                new SignInStateMachine.UiPort<FakeConnection.Resolution>() {
+                    @Override
+                    public boolean startResolution(FakeConnection.Resolution resolution) {
+                        mStarted.add(resolution);
+                        return true;
+                    }
+
+                    @Override
+                    public void showErrorDialog(int errorCode) {
+                        mErrorDialogs++;
+                    }
+
+                    @Override
+                    public void showSignedOut() {
+                    }
+                });
+        mConnection.setCallbacks(new FakeConnection.Callbacks() {
+            @Override
+            public void onConnected() {
+                mStateMachine.onConnected();
+            }
+
+            @Override
+            public void onConnectionFailed(int errorCode, FakeConnection.Resolution resolution) {
+                mStateMachine.onConnectionFailed(errorCode, resolution);
+            }
+
+            @Override
+            public void onConnectionSuspended() {
+                mStateMachine.onConnectionSuspended();
+            }
+        });
+        mConnection.connect();
+        mScheduler.runUntilIdle();
+    }
+
+    @Test
+    public void clickStartsTheResolution() {
+        mStateMachine.onSignInClicked();
+
+        assertEquals(1, mStarted.size());
+        assertEquals(SignInStateMachine.STATE_IN_PROGRESS, mStateMachine.getState());
+    }
+
+    @Test
+    public void declinedErrorIsNotResolvedAgainWithoutAClick() {
+        mStateMachine.onSignInClicked();
+        mStateMachine.onResolutionResult(false);
+        mScheduler.runUntilIdle();
+
+        // The app asks for more scopes, and the same error comes back.
+        mStateMachine.onAuthorizationRequested();
+        mConnection.connect();
+        mScheduler.runUntilIdle();
+
+        assertEquals(1, mStarted.size());
+        assertEquals(SignInStateMachine.STATE_DEFAULT, mStateMachine.getState());
+        assertEquals(0, mErrorDialogs);
+    }
+
+    @Test
+    public void clickAfterDeclineResolvesAgain() {
+        mStateMachine.onSignInClicked();
+        mStateMachine.onResolutionResult(false);
+        mScheduler.runUntilIdle();
+
+        mStateMachine.onSignInClicked();
+
+        assertEquals(2, mStarted.size());
+    }
+
+    @Test
+    public void signInStopsAfterMaxResolutions() {
+        mStateMachine.onSignInClicked();
+        // Every resolution succeeds, yet Google Play services keeps returning an error.
+        for (int i = 0; i < SignInStateMachine.MAX_RESOLUTIONS_PER_SIGN_IN * 3; i++) {
+            if (mStateMachine.getState() != SignInStateMachine.STATE_IN_PROGRESS) {
+                break;
+            }
+            mStateMachine.onResolutionResult(true);
+            mScheduler.runUntilIdle();
+        }
+
+        assertEquals(SignInStateMachine.MAX_RESOLUTIONS_PER_SIGN_IN, mStarted.size());
+        assertEquals(SignInStateMachine.STATE_DEFAULT, mStateMachine.getState());
+        assertEquals(0, mErrorDialogs);
+    }
+
+    @Test
+    public void clickAfterGivingUpStartsAFreshSignIn() {
+        mStateMachine.onSignInClicked();
+        while (mStateMachine.getState() == SignInStateMachine.STATE_IN_PROGRESS) {
+            mStateMachine.onResolutionResult(true);
+            mScheduler.runUntilIdle();
+        }
+
+        mStateMachine.onSignInClicked();
+
+        assertEquals(SignInStateMachine.MAX_RESOLUTIONS_PER_SIGN_IN + 1, mStarted.size());
+    }
+
+    @Test
+    public void autoResolutionFailureWaitsForAClick() {
+        FakeConnection.Resolution resolution = mStateMachine.getResolution();
+        mStateMachine.onAuthorizationRequested();
+
+        mStateMachine.onAutoResolutionFailed(ERROR, resolution);
+
+        assertEquals(0, mStarted.size());
+        assertEquals(SignInStateMachine.STATE_DEFAULT, mStateMachine.getState());
+
+        mStateMachine.onSignInClicked();
+
+        assertEquals(1, mStarted.size());
+        assertSame(resolution, mStarted.get(0));
+    }
+
+    @Test
+    public void declineIsNotReconnectedWhenTheConnectionResolvesItself() {
+        mStateMachine.setResolvesOnConnect(true);
+        mStateMachine.onSignInClicked();
+        int attempts = mConnection.getAttemptCount();
+
+        mStateMachine.onResolutionResult(false);
+        mScheduler.runUntilIdle();
+
+        // Connecting again would have the connection prompt for the declined error itself.
+        assertEquals(attempts, mConnection.getAttemptCount());
+        assertEquals(1, mStarted.size());
+        assertEquals(SignInStateMachine.STATE_DEFAULT, mStateMachine.getState());
+    }
+
+    @Test
+    public void resolvedErrorIsReconnectedWhenTheConnectionResolvesItself() {
+        mStateMachine.setResolvesOnConnect(true);
+        mStateMachine.onSignInClicked();
+        int attempts = mConnection.getAttemptCount();
+
+        mStateMachine.onResolutionResult(true);
+
+        assertEquals(attempts + 1, mConnection.getAttemptCount());
+    }
+
+    @Test
+    public void connectingEndsTheSignIn() {
+        mStateMachine.onSignInClicked();
+        mConnection.setDefaultOutcome(FakeConnection.Outcome.connected(LatencyModel.fixed(10)));
+        mStateMachine.onResolutionResult(true);
+        mScheduler.runUntilIdle();
+
+        assertEquals(1, mStarted.size());
+        assertEquals(SignInStateMachine.STATE_DEFAULT, mStateMachine.getState());
+    }
+}